@@ -6,9 +6,11 @@
 
 package com.ts.common;
 
+import java.beans.IndexedPropertyChangeEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.util.Arrays;
 
 /**
  * Class AbstractModel
@@ -16,16 +18,72 @@ import java.beans.PropertyChangeSupport;
  * @author daibheid
  */
 public class AbstractBean {
+    private static final BeanMonitor[] NO_MONITORS = new BeanMonitor[0];
+    
+    private static volatile BeanMonitor[] monitors = NO_MONITORS;
+    
+    private static final DirtyListener[] NO_DIRTY_LISTENERS = new DirtyListener[0];
+    
     private PropertyChangeSupport pcs = new PropertyChangeSupport(this);
+    
+    // dirty properties: bit i is property i of the class's PropertyIndex
+    private long dirtyBits;
+    private long[] moreDirtyBits;
+    private int dirtyCount;
+    private boolean allDirty;
+    private PropertyIndex propertyIndex;
+    private String lastDirtyName;
+    private int lastDirtyIndex;
+    private DirtyListener[] dirtyListeners = NO_DIRTY_LISTENERS;
+
+    /**
+     * Install a monitor that sees every property change dispatched by any
+     * bean. While no monitor is installed firing costs nothing extra.
+     */
+    public static synchronized void addMonitor(BeanMonitor monitor)
+    {
+        if(monitor == null)
+            throw new IllegalArgumentException("can't add a null BeanMonitor");
+        BeanMonitor[] m = new BeanMonitor[monitors.length + 1];
+        System.arraycopy(monitors, 0, m, 0, monitors.length);
+        m[monitors.length] = monitor;
+        monitors = m;
+    }
+
+    public static synchronized void removeMonitor(BeanMonitor monitor)
+    {
+        for(int i = 0; i < monitors.length; ++i) {
+            if(monitors[i] == monitor) {
+                if(monitors.length == 1) {
+                    monitors = NO_MONITORS;
+                } else {
+                    BeanMonitor[] m = new BeanMonitor[monitors.length - 1];
+                    System.arraycopy(monitors, 0, m, 0, i);
+                    System.arraycopy(monitors, i + 1, m, i, m.length - i);
+                    monitors = m;
+                }
+                return;
+            }
+        }
+    }
 
     public void addPropertyChangeListener(PropertyChangeListener listener)
     {
         pcs.addPropertyChangeListener(listener);
+        if(monitors.length != 0 && listener != null)
+            listenerAdded(null, listener);
     }
 
     public void removePropertyChangeListener(PropertyChangeListener listener)
     {
+        if(monitors.length == 0) {
+            pcs.removePropertyChangeListener(listener);
+            return;
+        }
+        int before = pcs.getPropertyChangeListeners().length;
         pcs.removePropertyChangeListener(listener);
+        if(pcs.getPropertyChangeListeners().length < before)
+            listenerRemoved(null, listener);
     }
 
     public PropertyChangeListener[] getPropertyChangeListeners()
@@ -36,11 +94,20 @@ public class AbstractBean {
     public void addPropertyChangeListener(String propertyName, PropertyChangeListener listener)
     {
         pcs.addPropertyChangeListener(propertyName, listener);
+        if(monitors.length != 0 && listener != null && propertyName != null)
+            listenerAdded(propertyName, listener);
     }
 
     public void removePropertyChangeListener(String propertyName, PropertyChangeListener listener)
     {
+        if(monitors.length == 0 || propertyName == null) {
+            pcs.removePropertyChangeListener(propertyName, listener);
+            return;
+        }
+        int before = pcs.getPropertyChangeListeners(propertyName).length;
         pcs.removePropertyChangeListener(propertyName, listener);
+        if(pcs.getPropertyChangeListeners(propertyName).length < before)
+            listenerRemoved(propertyName, listener);
     }
 
     public PropertyChangeListener[] getPropertyChangeListeners(String propertyName)
@@ -50,43 +117,308 @@ public class AbstractBean {
 
     public void firePropertyChange(String propertyName, Object oldValue, Object newValue)
     {
-        pcs.firePropertyChange(propertyName, oldValue, newValue);
+        if(oldValue != null && newValue != null && oldValue.equals(newValue))
+            return;
+        markDirty(propertyName);
+        if(monitors.length == 0)
+            pcs.firePropertyChange(propertyName, oldValue, newValue);
+        else
+            dispatch(new PropertyChangeEvent(this, propertyName, oldValue, newValue));
     }
 
     public void firePropertyChange(String propertyName, int oldValue, int newValue)
     {
-        pcs.firePropertyChange(propertyName, oldValue, newValue);
+        if(oldValue == newValue)
+            return;
+        markDirty(propertyName);
+        if(monitors.length == 0)
+            pcs.firePropertyChange(propertyName, oldValue, newValue);
+        else
+            dispatch(new PropertyChangeEvent(this, propertyName, Integer.valueOf(oldValue), Integer.valueOf(newValue)));
     }
 
     public void firePropertyChange(String propertyName, boolean oldValue, boolean newValue)
     {
-        pcs.firePropertyChange(propertyName, oldValue, newValue);
+        if(oldValue == newValue)
+            return;
+        markDirty(propertyName);
+        if(monitors.length == 0)
+            pcs.firePropertyChange(propertyName, oldValue, newValue);
+        else
+            dispatch(new PropertyChangeEvent(this, propertyName, Boolean.valueOf(oldValue), Boolean.valueOf(newValue)));
     }
 
     public void firePropertyChange(PropertyChangeEvent event)
     {
-        pcs.firePropertyChange(event);
+        Object oldValue = event.getOldValue();
+        Object newValue = event.getNewValue();
+        if(oldValue != null && newValue != null && oldValue.equals(newValue))
+            return;
+        markDirty(event.getPropertyName());
+        if(monitors.length == 0)
+            pcs.firePropertyChange(event);
+        else
+            dispatch(event);
     }
 
     public void fireIndexedPropertyChange(String propertyName, int index, Object oldValue, Object newValue)
     {
-        pcs.fireIndexedPropertyChange(propertyName, index, oldValue, newValue);
+        if(oldValue != null && newValue != null && oldValue.equals(newValue))
+            return;
+        markDirty(propertyName);
+        if(monitors.length == 0)
+            pcs.fireIndexedPropertyChange(propertyName, index, oldValue, newValue);
+        else
+            dispatch(new IndexedPropertyChangeEvent(this, propertyName, oldValue, newValue, index));
     }
 
     public void fireIndexedPropertyChange(String propertyName, int index, int oldValue, int newValue)
     {
-        pcs.fireIndexedPropertyChange(propertyName, index, oldValue, newValue);
+        if(oldValue == newValue)
+            return;
+        markDirty(propertyName);
+        if(monitors.length == 0)
+            pcs.fireIndexedPropertyChange(propertyName, index, oldValue, newValue);
+        else
+            dispatch(new IndexedPropertyChangeEvent(this, propertyName, Integer.valueOf(oldValue), Integer.valueOf(newValue), index));
     }
 
     public void fireIndexedPropertyChange(String propertyName, int index, boolean oldValue, boolean newValue)
     {
-        pcs.fireIndexedPropertyChange(propertyName, index, oldValue, newValue);
+        if(oldValue == newValue)
+            return;
+        markDirty(propertyName);
+        if(monitors.length == 0)
+            pcs.fireIndexedPropertyChange(propertyName, index, oldValue, newValue);
+        else
+            dispatch(new IndexedPropertyChangeEvent(this, propertyName, Boolean.valueOf(oldValue), Boolean.valueOf(newValue), index));
+    }
+
+    /**
+     * A bean is dirty once it fires a change, until {@link #clearDirty}.
+     * Dirty state is kept by the firing thread without synchronization, like
+     * the rest of the bean.
+     */
+    public boolean isDirty()
+    {
+        return allDirty || dirtyCount != 0;
+    }
+
+    /**
+     * @return true if the property changed since the bean was last cleaned,
+     *      or if a change of the whole bean was fired
+     */
+    public boolean isDirty(String propertyName)
+    {
+        if(allDirty)
+            return true;
+        if(dirtyCount == 0 || propertyName == null)
+            return false;
+        int i = getPropertyIndex().find(propertyName);
+        return i >= 0 && isDirtyIndex(i);
+    }
+
+    /**
+     * @return true if a change with a null property name, meaning any
+     *      property may have changed, was fired
+     */
+    public boolean isAllDirty()
+    {
+        return allDirty;
+    }
+
+    /**
+     * @return the numbering of this class's properties that the dirty bits
+     *      are indexed by
+     */
+    public PropertyIndex getPropertyIndex()
+    {
+        if(propertyIndex == null)
+            propertyIndex = PropertyIndex.forClass(getClass());
+        return propertyIndex;
+    }
+
+    /**
+     * Iterate the dirty properties without allocating:
+     * for(int i = nextDirtyIndex(0); i >= 0; i = nextDirtyIndex(i + 1)).
+     *
+     * @return the first dirty property index at or after from, or -1
+     */
+    public int nextDirtyIndex(int from)
+    {
+        if(dirtyCount == 0)
+            return -1;
+        if(from < 64) {
+            long bits = dirtyBits & (-1L << from);
+            if(bits != 0)
+                return Long.numberOfTrailingZeros(bits);
+            from = 64;
+        }
+        if(moreDirtyBits == null)
+            return -1;
+        for(int w = (from - 64) >> 6; w < moreDirtyBits.length; ++w) {
+            long bits = moreDirtyBits[w];
+            if(w == (from - 64) >> 6)
+                bits &= -1L << (from & 63);
+            if(bits != 0)
+                return 64 + (w << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        return -1;
+    }
+
+    public String[] getDirtyProperties()
+    {
+        String[] result = new String[dirtyCount];
+        PropertyIndex index = getPropertyIndex();
+        int n = 0;
+        for(int i = nextDirtyIndex(0); i >= 0; i = nextDirtyIndex(i + 1))
+            result[n++] = index.nameOf(i);
+        return result;
+    }
+
+    /**
+     * Mark the bean clean, typically once it has been saved or validated.
+     */
+    public void clearDirty()
+    {
+        boolean was = isDirty();
+        dirtyBits = 0;
+        if(moreDirtyBits != null)
+            Arrays.fill(moreDirtyBits, 0);
+        dirtyCount = 0;
+        allDirty = false;
+        if(was)
+            fireDirtyChanged(false);
+    }
+
+    public void clearDirty(String propertyName)
+    {
+        if(propertyName == null || dirtyCount == 0)
+            return;
+        int i = getPropertyIndex().find(propertyName);
+        if(i < 0 || !isDirtyIndex(i))
+            return;
+        if(i < 64)
+            dirtyBits &= ~(1L << i);
+        else
+            moreDirtyBits[(i - 64) >> 6] &= ~(1L << (i & 63));
+        if(--dirtyCount == 0 && !allDirty)
+            fireDirtyChanged(false);
+    }
+
+    public void addDirtyListener(DirtyListener listener)
+    {
+        if(listener == null)
+            throw new IllegalArgumentException("can't add a null DirtyListener");
+        DirtyListener[] l = new DirtyListener[dirtyListeners.length + 1];
+        System.arraycopy(dirtyListeners, 0, l, 0, dirtyListeners.length);
+        l[dirtyListeners.length] = listener;
+        dirtyListeners = l;
+        BeanMonitor[] m = monitors;
+        for(int i = 0; i < m.length; ++i)
+            m[i].dirtyListenerAdded(this, listener);
+    }
+
+    public void removeDirtyListener(DirtyListener listener)
+    {
+        for(int i = 0; i < dirtyListeners.length; ++i) {
+            if(dirtyListeners[i] == listener) {
+                DirtyListener[] l = new DirtyListener[dirtyListeners.length - 1];
+                System.arraycopy(dirtyListeners, 0, l, 0, i);
+                System.arraycopy(dirtyListeners, i + 1, l, i, l.length - i);
+                dirtyListeners = l;
+                BeanMonitor[] m = monitors;
+                for(int j = 0; j < m.length; ++j)
+                    m[j].dirtyListenerRemoved(this, listener);
+                return;
+            }
+        }
     }
 
     public boolean hasListeners(String propertyName)
     {
         return pcs.hasListeners(propertyName);
     }
+
+    private void listenerAdded(String propertyName, PropertyChangeListener listener)
+    {
+        BeanMonitor[] m = monitors;
+        for(int i = 0; i < m.length; ++i)
+            m[i].listenerAdded(this, propertyName, listener);
+    }
+
+    private void listenerRemoved(String propertyName, PropertyChangeListener listener)
+    {
+        BeanMonitor[] m = monitors;
+        for(int i = 0; i < m.length; ++i)
+            m[i].listenerRemoved(this, propertyName, listener);
+    }
+
+    private void markDirty(String propertyName)
+    {
+        boolean was = isDirty();
+        if(propertyName == null) {
+            allDirty = true;
+        } else {
+            // beans mostly fire the same literal again and again
+            int i;
+            if(propertyName == lastDirtyName) {
+                i = lastDirtyIndex;
+            } else {
+                i = getPropertyIndex().indexOf(propertyName);
+                lastDirtyName = propertyName;
+                lastDirtyIndex = i;
+            }
+            if(i < 64) {
+                long bit = 1L << i;
+                if((dirtyBits & bit) != 0)
+                    return;
+                dirtyBits |= bit;
+            } else {
+                int w = (i - 64) >> 6;
+                if(moreDirtyBits == null || w >= moreDirtyBits.length)
+                    moreDirtyBits = Arrays.copyOf(moreDirtyBits == null ? new long[0] : moreDirtyBits,
+                            Math.max(w + 1, (getPropertyIndex().size() - 1) >> 6));
+                long bit = 1L << (i & 63);
+                if((moreDirtyBits[w] & bit) != 0)
+                    return;
+                moreDirtyBits[w] |= bit;
+            }
+            ++dirtyCount;
+        }
+        if(!was)
+            fireDirtyChanged(true);
+    }
+
+    private boolean isDirtyIndex(int i)
+    {
+        if(i < 64)
+            return (dirtyBits & (1L << i)) != 0;
+        int w = (i - 64) >> 6;
+        return moreDirtyBits != null && w < moreDirtyBits.length && (moreDirtyBits[w] & (1L << (i & 63))) != 0;
+    }
+
+    private void fireDirtyChanged(boolean dirty)
+    {
+        DirtyListener[] l = dirtyListeners;
+        for(int i = 0; i < l.length; ++i)
+            l[i].dirtyChanged(this, dirty);
+    }
+
+    private void dispatch(PropertyChangeEvent event)
+    {
+        BeanMonitor[] m = monitors;
+        for(int i = 0; i < m.length; ++i)
+            m[i].dispatchStarted(this, event);
+        long start = System.nanoTime();
+        try {
+            pcs.firePropertyChange(event);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            for(int i = 0; i < m.length; ++i)
+                m[i].dispatchFinished(this, event, elapsed);
+        }
+    }
     
     
 } 
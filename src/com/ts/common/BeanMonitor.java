@@ -0,0 +1,45 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.common;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+
+/**
+ * Observes property change dispatch and the registration of property and
+ * dirty listeners on every
+ * {@link AbstractBean}. Monitors are called on the firing thread, so they must be cheap and must not throw.
+ *
+ * @author daibheid
+ * @see AbstractBean#addMonitor
+ * @see BeanMonitorAdapter
+ */
+public interface BeanMonitor {
+
+    public void dispatchStarted(AbstractBean source, PropertyChangeEvent event);
+
+    public void dispatchFinished(AbstractBean source, PropertyChangeEvent event, long elapsedNanos);
+
+    /**
+     * @param propertyName The property listened to, or null for all
+     */
+    public void listenerAdded(AbstractBean source, String propertyName, PropertyChangeListener listener);
+
+    /**
+     * Only called when the listener was actually registered.
+     *
+     * @param propertyName The property listened to, or null for all
+     */
+    public void listenerRemoved(AbstractBean source, String propertyName, PropertyChangeListener listener);
+
+    public void dirtyListenerAdded(AbstractBean source, DirtyListener listener);
+
+    /**
+     * Only called when the listener was actually registered.
+     */
+    public void dirtyListenerRemoved(AbstractBean source, DirtyListener listener);
+}
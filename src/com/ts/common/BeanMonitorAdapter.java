@@ -0,0 +1,36 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.common;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+
+/**
+ * Class BeanMonitorAdapter: a {@link BeanMonitor} that ignores everything.
+ *
+ * @author daibheid
+ */
+public abstract class BeanMonitorAdapter implements BeanMonitor {
+
+    public void dispatchStarted(AbstractBean source, PropertyChangeEvent event) {
+    }
+
+    public void dispatchFinished(AbstractBean source, PropertyChangeEvent event, long elapsedNanos) {
+    }
+
+    public void listenerAdded(AbstractBean source, String propertyName, PropertyChangeListener listener) {
+    }
+
+    public void listenerRemoved(AbstractBean source, String propertyName, PropertyChangeListener listener) {
+    }
+
+    public void dirtyListenerAdded(AbstractBean source, DirtyListener listener) {
+    }
+
+    public void dirtyListenerRemoved(AbstractBean source, DirtyListener listener) {
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.common;
+
+/**
+ * Told when a bean becomes dirty, its first property change since it was
+ * last cleaned, and when it is cleaned again. Not told of further changes in
+ * between.
+ *
+ * @author daibheid
+ * @see AbstractBean#addDirtyListener
+ */
+public interface DirtyListener {
+
+    public void dirtyChanged(AbstractBean bean, boolean dirty);
+}
@@ -0,0 +1,68 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.common;
+
+/**
+ * One structural change to a list: count elements inserted, removed or
+ * updated at index. The deltas of a {@link ListDeltaEvent} apply in order,
+ * each index being relative to the list as left by the previous delta.
+ *
+ * @author daibheid
+ */
+public final class ListDelta {
+
+    public static final int INSERT = 0;
+    public static final int REMOVE = 1;
+    public static final int UPDATE = 2;
+
+    private final int type;
+    private final int index;
+    private final int count;
+
+    public ListDelta(int type, int index, int count) {
+        if(type < INSERT || type > UPDATE || index < 0 || count < 1)
+            throw new IllegalArgumentException("bad delta " + type + " at " + index + " of " + count);
+        this.type = type;
+        this.index = index;
+        this.count = count;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the index of the last element affected
+     */
+    public int getLastIndex() {
+        return index + count - 1;
+    }
+
+    public boolean equals(Object o) {
+        if(!(o instanceof ListDelta))
+            return false;
+        ListDelta d = (ListDelta)o;
+        return d.type == type && d.index == index && d.count == count;
+    }
+
+    public int hashCode() {
+        return (type * 31 + index) * 31 + count;
+    }
+
+    public String toString() {
+        String[] names = { "insert", "remove", "update" };
+        return names[type] + "(" + index + "," + count + ")";
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.common;
+
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fired by a bean when a list-valued property changed in place. The old value
+ * is always null, so the event is never suppressed as a non-change, and the
+ * new value is the list itself. Listeners that don't know about deltas see a
+ * plain change of the property.
+ *
+ * @author daibheid
+ * @see ObservableList
+ */
+public class ListDeltaEvent extends PropertyChangeEvent {
+
+    private final List<ListDelta> deltas;
+
+    public ListDeltaEvent(Object source, String propertyName, List list, List<ListDelta> deltas) {
+        super(source, propertyName, null, list);
+        this.deltas = Collections.unmodifiableList(new ArrayList<ListDelta>(deltas));
+    }
+
+    public List<ListDelta> getDeltas() {
+        return deltas;
+    }
+
+    /**
+     * @return the deltas of this event followed by those of a later one
+     */
+    public ListDeltaEvent concat(ListDeltaEvent later) {
+        List<ListDelta> all = new ArrayList<ListDelta>(deltas.size() + later.deltas.size());
+        all.addAll(deltas);
+        all.addAll(later.deltas);
+        ListDeltaEvent result = new ListDeltaEvent(later.getSource(), later.getPropertyName(), (List)later.getNewValue(), all);
+        result.setPropagationId(later.getPropagationId());
+        return result;
+    }
+
+    public String toString() {
+        return getClass().getName() + "[propertyName=" + getPropertyName() + "; deltas=" + deltas + "]";
+    }
+}
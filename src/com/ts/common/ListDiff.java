@@ -0,0 +1,169 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <P>
+ *
+ * Computes the deltas that turn one list into another with Myers' O(ND)
+ * algorithm, after trimming the common prefix and suffix. Replacing a list
+ * by a slightly edited copy therefore costs time in the size of the edit,
+ * not of the list. </P> <P>
+ *
+ * Past {@link #MAX_EDITS} edits the middle is reported as one update range
+ * plus an insert or remove, which is still correct and bounds the work.
+ * Adjacent removes and inserts at the same place are folded into updates.
+ * </P>
+ *
+ * @author daibheid
+ */
+public final class ListDiff {
+
+    public static final int MAX_EDITS = 1024;
+
+    private static final byte KEEP = 0;
+    private static final byte DELETE = 1;
+    private static final byte INSERT = 2;
+
+    private ListDiff() {
+    }
+
+    public static List<ListDelta> diff(List oldList, List newList) {
+        return diff(oldList, newList, MAX_EDITS);
+    }
+
+    /**
+     * @param maxEdits The edit distance past which the middle of the lists is
+     *      replaced wholesale
+     */
+    public static List<ListDelta> diff(List oldList, List newList, int maxEdits) {
+        int n = oldList.size();
+        int m = newList.size();
+        int prefix = 0;
+        while(prefix < n && prefix < m && equal(oldList.get(prefix), newList.get(prefix)))
+            ++prefix;
+        int suffix = 0;
+        while(suffix < n - prefix && suffix < m - prefix
+                && equal(oldList.get(n - 1 - suffix), newList.get(m - 1 - suffix)))
+            ++suffix;
+
+        List<ListDelta> result = new ArrayList<ListDelta>();
+        List a = oldList.subList(prefix, n - suffix);
+        List b = newList.subList(prefix, m - suffix);
+        byte[] script = a.isEmpty() || b.isEmpty() ? null : myers(a, b, maxEdits);
+        if(script == null) {
+            // no common elements to keep, or too far apart to look for them
+            emit(result, prefix, a.size(), b.size());
+        } else {
+            int pos = prefix;
+            int removed = 0;
+            int inserted = 0;
+            for(int i = 0; i < script.length; ++i) {
+                if(script[i] == KEEP) {
+                    pos = emit(result, pos, removed, inserted) + 1;
+                    removed = 0;
+                    inserted = 0;
+                } else if(script[i] == DELETE) {
+                    ++removed;
+                } else {
+                    ++inserted;
+                }
+            }
+            emit(result, pos, removed, inserted);
+        }
+        return result;
+    }
+
+    /**
+     * Emit removed elements replaced by inserted ones at pos as an update of
+     * the overlap plus the rest.
+     *
+     * @return the position after the replacement
+     */
+    private static int emit(List<ListDelta> out, int pos, int removed, int inserted) {
+        int updated = Math.min(removed, inserted);
+        if(updated > 0)
+            out.add(new ListDelta(ListDelta.UPDATE, pos, updated));
+        if(removed > updated)
+            out.add(new ListDelta(ListDelta.REMOVE, pos + updated, removed - updated));
+        if(inserted > updated)
+            out.add(new ListDelta(ListDelta.INSERT, pos + updated, inserted - updated));
+        return pos + inserted;
+    }
+
+    /**
+     * @return the edit script in order, or null if longer than maxEdits
+     */
+    private static byte[] myers(List a, List b, int maxEdits) {
+        int n = a.size();
+        int m = b.size();
+        int max = Math.min(n + m, maxEdits);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<int[]>();
+
+        for(int d = 0; d <= max; ++d) {
+            int[] snapshot = new int[2 * d + 3];
+            System.arraycopy(v, offset - d - 1, snapshot, 0, snapshot.length);
+            trace.add(snapshot);
+            for(int k = -d; k <= d; k += 2) {
+                int x;
+                if(k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]))
+                    x = v[offset + k + 1];
+                else
+                    x = v[offset + k - 1] + 1;
+                int y = x - k;
+                while(x < n && y < m && equal(a.get(x), b.get(y))) {
+                    ++x;
+                    ++y;
+                }
+                v[offset + k] = x;
+                if(x >= n && y >= m)
+                    return backtrack(trace, n, m);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] backtrack(List<int[]> trace, int n, int m) {
+        byte[] reversed = new byte[n + m];
+        int length = 0;
+        int x = n;
+        int y = m;
+        for(int d = trace.size() - 1; d >= 0; --d) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int prevK;
+            if(k == -d || (k != d && v[k - 1 + d + 1] < v[k + 1 + d + 1]))
+                prevK = k + 1;
+            else
+                prevK = k - 1;
+            int prevX = v[prevK + d + 1];
+            int prevY = prevX - prevK;
+            while(x > prevX && y > prevY) {
+                reversed[length++] = KEEP;
+                --x;
+                --y;
+            }
+            if(d > 0)
+                reversed[length++] = x == prevX ? INSERT : DELETE;
+            x = prevX;
+            y = prevY;
+        }
+        byte[] result = new byte[length];
+        for(int i = 0; i < length; ++i)
+            result[i] = reversed[length - 1 - i];
+        return result;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.common;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * <P>
+ *
+ * A list property of a bean that reports its structural changes. Every
+ * mutation fires one {@link ListDeltaEvent} through the owning bean with the
+ * ranges inserted, removed or updated, so a view can patch itself instead of
+ * rereading the whole list. </P> <P>
+ *
+ * Assigning a whole new list with {@link #setAll} diffs it against the
+ * current contents and fires only the differences. Several mutations can be
+ * folded into one event between {@link #beginChange} and {@link #endChange}.
+ * Like the rest of the model, an ObservableList is not thread-safe. </P>
+ *
+ * @author daibheid
+ */
+public class ObservableList<E> extends AbstractList<E> implements RandomAccess {
+
+    private final AbstractBean owner;
+    private final String propertyName;
+    private final ArrayList<E> elements;
+
+    private List<ListDelta> batch;
+    private int batchDepth;
+
+    public ObservableList(AbstractBean owner, String propertyName) {
+        this(owner, propertyName, Collections.<E>emptyList());
+    }
+
+    public ObservableList(AbstractBean owner, String propertyName, Collection<? extends E> contents) {
+        if(owner == null || propertyName == null)
+            throw new IllegalArgumentException("an observable list needs an owner and a property");
+        this.owner = owner;
+        this.propertyName = propertyName;
+        this.elements = new ArrayList<E>(contents);
+    }
+
+    public AbstractBean getOwner() {
+        return owner;
+    }
+
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+    public int size() {
+        return elements.size();
+    }
+
+    public E get(int index) {
+        return elements.get(index);
+    }
+
+    public E set(int index, E element) {
+        E result = elements.set(index, element);
+        changed(ListDelta.UPDATE, index, 1);
+        return result;
+    }
+
+    public void add(int index, E element) {
+        elements.add(index, element);
+        ++modCount;
+        changed(ListDelta.INSERT, index, 1);
+    }
+
+    public E remove(int index) {
+        E result = elements.remove(index);
+        ++modCount;
+        changed(ListDelta.REMOVE, index, 1);
+        return result;
+    }
+
+    public boolean addAll(Collection<? extends E> c) {
+        return addAll(elements.size(), c);
+    }
+
+    public boolean addAll(int index, Collection<? extends E> c) {
+        if(!elements.addAll(index, c))
+            return false;
+        ++modCount;
+        changed(ListDelta.INSERT, index, c.size());
+        return true;
+    }
+
+    public void clear() {
+        removeRange(0, elements.size());
+    }
+
+    /**
+     * Also what clear() on a subList ends up calling: one delta for the range.
+     */
+    protected void removeRange(int fromIndex, int toIndex) {
+        if(fromIndex >= toIndex)
+            return;
+        elements.subList(fromIndex, toIndex).clear();
+        ++modCount;
+        changed(ListDelta.REMOVE, fromIndex, toIndex - fromIndex);
+    }
+
+    /**
+     * Replace the contents by those of another collection, firing only the
+     * differences between the two.
+     */
+    public void setAll(Collection<? extends E> contents) {
+        List<E> replacement = new ArrayList<E>(contents);
+        List<ListDelta> deltas = ListDiff.diff(elements, replacement);
+        if(deltas.isEmpty())
+            return;
+        elements.clear();
+        elements.addAll(replacement);
+        ++modCount;
+        beginChange();
+        try {
+            batch.addAll(deltas);
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Hold back events until the matching {@link #endChange}. Calls nest.
+     */
+    public void beginChange() {
+        if(batchDepth++ == 0)
+            batch = new ArrayList<ListDelta>();
+    }
+
+    /**
+     * Fire one event with every delta since the outermost beginChange.
+     */
+    public void endChange() {
+        if(batchDepth == 0)
+            throw new IllegalStateException("endChange() without beginChange()");
+        if(--batchDepth == 0) {
+            List<ListDelta> deltas = batch;
+            batch = null;
+            if(!deltas.isEmpty())
+                owner.firePropertyChange(new ListDeltaEvent(owner, propertyName, this, deltas));
+        }
+    }
+
+    private void changed(int type, int index, int count) {
+        if(count == 0)
+            return;
+        ListDelta delta = new ListDelta(type, index, count);
+        if(batch != null)
+            batch.add(delta);
+        else
+            owner.firePropertyChange(new ListDeltaEvent(owner, propertyName, this, Collections.singletonList(delta)));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.common;
+
+import java.beans.IndexedPropertyChangeEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+
+/**
+ * <P>
+ *
+ * A {@link PropertyPath} followed on one root. It listens to every
+ * {@link AbstractBean} along the chain, keeps the value of each segment and
+ * fires "value" when the end of the path changes. When a bean in the middle
+ * is replaced only the segments after it are re-read and re-subscribed, and
+ * reads return the kept value. </P> <P>
+ *
+ * Segments whose bean is not an AbstractBean can't be listened to, so reads
+ * re-resolve the path from the first of them. Like the beans it observes, an
+ * ObservedPath is meant to be used from one thread at a time; call
+ * {@link #dispose} when done with it. </P>
+ *
+ * @author daibheid
+ */
+public class ObservedPath extends AbstractBean {
+
+    private final PropertyPath path;
+
+    /**
+     * nodes[i] is the bean segment i is read from; nodes[length] is the value
+     */
+    private final Object[] nodes;
+
+    private final SegmentListener[] listeners;
+
+    private final AbstractBean[] subscribed;
+
+    /**
+     * Index of the first segment read from a bean that can't be listened to,
+     * or the path length if there is none
+     */
+    private int firstUnobserved;
+
+    ObservedPath(PropertyPath path, Object root) {
+        this.path = path;
+        int n = path.getLength();
+        nodes = new Object[n + 1];
+        listeners = new SegmentListener[n];
+        subscribed = new AbstractBean[n];
+        for(int i = 0; i < n; ++i)
+            listeners[i] = new SegmentListener(i);
+        nodes[0] = root;
+        link(0);
+    }
+
+    public PropertyPath getPath() {
+        return path;
+    }
+
+    public Object getRoot() {
+        return nodes[0];
+    }
+
+    public Object getValue() {
+        int n = path.getLength();
+        if(firstUnobserved < n)
+            return path.get(nodes[firstUnobserved], firstUnobserved, n);
+        return nodes[n];
+    }
+
+    /**
+     * Write the end of the path; the change comes back through the listeners.
+     */
+    public void setValue(Object value) {
+        int last = path.getLength() - 1;
+        Object bean = firstUnobserved < last ? path.get(nodes[firstUnobserved], firstUnobserved, last) : nodes[last];
+        if(bean == null)
+            throw new IllegalStateException("null bean before the end of '" + path + "'");
+        path.accessor(last, bean).set(bean, value);
+        if(subscribed[last] != bean)
+            firePropertyChange("value", null, getValue());
+    }
+
+    /**
+     * Stop listening to the beans along the path.
+     */
+    public void dispose() {
+        unlink(0);
+    }
+
+    void segmentChanged(int segment, PropertyChangeEvent event) {
+        if(event.getSource() != nodes[segment])
+            return;
+        String name = event.getPropertyName();
+        if(name != null && !name.equals(path.getName(segment)))
+            return;
+        // an element change may leave the same array or list at the end
+        Object old = event instanceof IndexedPropertyChangeEvent ? null : getValue();
+        if(name == null || event instanceof IndexedPropertyChangeEvent) {
+            // anything may have changed, or only an element did: re-read from here
+            link(segment);
+        } else if(segment == path.getLength() - 1) {
+            nodes[segment + 1] = event.getNewValue();
+        } else {
+            nodes[segment + 1] = event.getNewValue();
+            link(segment + 1);
+        }
+        firePropertyChange("value", old, getValue());
+    }
+
+    /**
+     * Re-read and re-subscribe the segments from the given one on.
+     */
+    private void link(int from) {
+        int n = path.getLength();
+        unlink(from);
+        for(int i = from; i < n; ++i) {
+            Object bean = nodes[i];
+            if(bean == null) {
+                for(int j = i + 1; j <= n; ++j)
+                    nodes[j] = null;
+                break;
+            }
+            if(bean instanceof AbstractBean) {
+                subscribed[i] = (AbstractBean)bean;
+                // unnamed, to see the events that name no property
+                subscribed[i].addPropertyChangeListener(listeners[i]);
+            }
+            nodes[i + 1] = path.accessor(i, bean).get(bean);
+        }
+        firstUnobserved = n;
+        for(int i = 0; i < n; ++i) {
+            if(nodes[i] != null && !(nodes[i] instanceof AbstractBean)) {
+                firstUnobserved = i;
+                break;
+            }
+        }
+    }
+
+    private void unlink(int from) {
+        for(int i = from; i < subscribed.length; ++i) {
+            if(subscribed[i] != null) {
+                subscribed[i].removePropertyChangeListener(listeners[i]);
+                subscribed[i] = null;
+            }
+        }
+    }
+
+    class SegmentListener implements PropertyChangeListener {
+        private final int segment;
+
+        SegmentListener(int segment) {
+            this.segment = segment;
+        }
+
+        public void propertyChange(PropertyChangeEvent event) {
+            segmentChanged(segment, event);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <P>
+ *
+ * Reads and writes one JavaBean property of one class through method handles
+ * resolved the first time the property is asked for. Accessors are cached per
+ * class and property, so after the first lookup getting and setting a
+ * property costs a map lookup and a handle invocation; no reflection and no
+ * Introspector. </P>
+ *
+ * @author daibheid
+ */
+public final class PropertyAccessor {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+    private static final MethodType INDEXED_SETTER_TYPE = MethodType.methodType(void.class, Object.class, int.class, Object.class);
+
+    private static final ConcurrentMap<Class, ConcurrentMap<String, PropertyAccessor>> cache =
+            new ConcurrentHashMap<Class, ConcurrentMap<String, PropertyAccessor>>();
+
+    private final Class beanClass;
+    private final String name;
+    private final Class type;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+    private final MethodHandle indexedSetter;
+
+    private PropertyAccessor(Class beanClass, String name, Class type, MethodHandle getter, MethodHandle setter,
+            MethodHandle indexedSetter) {
+        this.beanClass = beanClass;
+        this.name = name;
+        this.type = type;
+        this.getter = getter;
+        this.setter = setter;
+        this.indexedSetter = indexedSetter;
+    }
+
+    /**
+     * Get the accessor of a property, resolving it the first time.
+     *
+     * @throws IllegalArgumentException if the class has no public getter,
+     *      setter or indexed setter for the property
+     */
+    public static PropertyAccessor forProperty(Class beanClass, String name) {
+        ConcurrentMap<String, PropertyAccessor> properties = cache.get(beanClass);
+        if(properties == null) {
+            ConcurrentMap<String, PropertyAccessor> created = new ConcurrentHashMap<String, PropertyAccessor>();
+            properties = cache.putIfAbsent(beanClass, created);
+            if(properties == null)
+                properties = created;
+        }
+        PropertyAccessor result = properties.get(name);
+        if(result == null) {
+            result = resolve(beanClass, name);
+            PropertyAccessor raced = properties.putIfAbsent(name, result);
+            if(raced != null)
+                result = raced;
+        }
+        return result;
+    }
+
+    public Class getBeanClass() {
+        return beanClass;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class getType() {
+        return type;
+    }
+
+    public boolean isReadable() {
+        return getter != null;
+    }
+
+    public boolean isWritable() {
+        return setter != null;
+    }
+
+    public boolean isIndexedWritable() {
+        return indexedSetter != null;
+    }
+
+    public Object get(Object bean) {
+        if(getter == null)
+            throw new UnsupportedOperationException("property " + name + " of " + beanClass.getName() + " isn't readable");
+        try {
+            return getter.invokeExact(bean);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("can't get " + name + " of " + beanClass.getName(), t);
+        }
+    }
+
+    public void set(Object bean, Object value) {
+        if(setter == null)
+            throw new UnsupportedOperationException("property " + name + " of " + beanClass.getName() + " isn't writable");
+        try {
+            setter.invokeExact(bean, value);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("can't set " + name + " of " + beanClass.getName(), t);
+        }
+    }
+
+    /**
+     * Set one element of an indexed property through its set(int, value)
+     * method.
+     */
+    public void setIndexed(Object bean, int index, Object value) {
+        if(indexedSetter == null)
+            throw new UnsupportedOperationException("property " + name + " of " + beanClass.getName() + " isn't indexed writable");
+        try {
+            indexedSetter.invokeExact(bean, index, value);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("can't set " + name + "[" + index + "] of " + beanClass.getName(), t);
+        }
+    }
+
+    public String toString() {
+        return beanClass.getName() + "." + name;
+    }
+
+    private static PropertyAccessor resolve(Class beanClass, String name) {
+        if(name == null || name.length() == 0)
+            throw new IllegalArgumentException("no property name");
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+
+        Method get = findMethod(beanClass, "get" + suffix);
+        if(get == null || get.getReturnType() == void.class) {
+            Method is = findMethod(beanClass, "is" + suffix);
+            get = is != null && is.getReturnType() == boolean.class ? is : null;
+        }
+        Class type = get == null ? null : get.getReturnType();
+
+        Method set = null;
+        Method indexedSet = null;
+        Method[] methods = beanClass.getMethods();
+        for(int i = 0; i < methods.length; ++i) {
+            Method m = methods[i];
+            if(m.getName().equals("set" + suffix) && m.getParameterTypes().length == 2
+                    && m.getParameterTypes()[0] == int.class && !Modifier.isStatic(m.getModifiers())) {
+                if(indexedSet == null || type != null && type.isArray() && m.getParameterTypes()[1] == type.getComponentType())
+                    indexedSet = m;
+            }
+            if(m.getName().equals("set" + suffix) && m.getParameterTypes().length == 1
+                    && !Modifier.isStatic(m.getModifiers())) {
+                if(type == null || m.getParameterTypes()[0] == type) {
+                    set = m;
+                    break;
+                }
+                if(set == null && m.getParameterTypes()[0].isAssignableFrom(type))
+                    set = m;
+            }
+        }
+        if(get == null && set == null && indexedSet == null)
+            throw new IllegalArgumentException("no property " + name + " in " + beanClass.getName());
+        if(type == null)
+            type = set != null ? set.getParameterTypes()[0] : indexedSet.getParameterTypes()[1];
+
+        return new PropertyAccessor(beanClass, name, type,
+                get == null ? null : unreflect(get).asType(GETTER_TYPE),
+                set == null ? null : unreflect(set).asType(SETTER_TYPE),
+                indexedSet == null ? null : unreflect(indexedSet).asType(INDEXED_SETTER_TYPE));
+    }
+
+    private static Method findMethod(Class beanClass, String methodName) {
+        try {
+            Method result = beanClass.getMethod(methodName);
+            return Modifier.isStatic(result.getModifiers()) ? null : result;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Public methods of non-public classes (anonymous beans, package-private
+     * models) need their access check suppressed before they can be
+     * unreflected.
+     */
+    static MethodHandle unreflect(Method m) {
+        try {
+            if(!Modifier.isPublic(m.getDeclaringClass().getModifiers()))
+                m.setAccessible(true);
+            return MethodHandles.publicLookup().unreflect(m);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("can't access " + m, e);
+        } catch (SecurityException e) {
+            throw new IllegalArgumentException("can't access " + m, e);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Numbers the properties of a bean class in the order they are first fired,
+ * so per-bean state about properties can be kept in bitsets. Shared by all
+ * beans of the class and safe to use from any thread.
+ *
+ * @author daibheid
+ */
+public final class PropertyIndex {
+
+    private static final ConcurrentMap<Class, PropertyIndex> indices = new ConcurrentHashMap<Class, PropertyIndex>();
+
+    private final Class beanClass;
+    private final ConcurrentMap<String, Integer> numbers = new ConcurrentHashMap<String, Integer>();
+    private volatile String[] names = new String[0];
+
+    private PropertyIndex(Class beanClass) {
+        this.beanClass = beanClass;
+    }
+
+    public static PropertyIndex forClass(Class beanClass) {
+        PropertyIndex result = indices.get(beanClass);
+        if(result == null) {
+            PropertyIndex created = new PropertyIndex(beanClass);
+            result = indices.putIfAbsent(beanClass, created);
+            if(result == null)
+                result = created;
+        }
+        return result;
+    }
+
+    public Class getBeanClass() {
+        return beanClass;
+    }
+
+    /**
+     * @return the number of the property, numbering it if it is new
+     */
+    public int indexOf(String name) {
+        Integer result = numbers.get(name);
+        if(result == null)
+            result = add(name);
+        return result.intValue();
+    }
+
+    /**
+     * @return the number of the property, or -1 if it was never numbered
+     */
+    public int find(String name) {
+        Integer result = numbers.get(name);
+        return result == null ? -1 : result.intValue();
+    }
+
+    public String nameOf(int index) {
+        return names[index];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    private synchronized Integer add(String name) {
+        Integer result = numbers.get(name);
+        if(result == null) {
+            String[] n = new String[names.length + 1];
+            System.arraycopy(names, 0, n, 0, names.length);
+            n[names.length] = name;
+            result = Integer.valueOf(names.length);
+            // publish the name before the number that leads to it
+            names = n;
+            numbers.put(name, result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <P>
+ *
+ * A dotted property path such as "customer.address.city", parsed once and
+ * cached. Each segment keeps the {@link PropertyAccessor} it last used, so
+ * reading a path through beans of the same classes as last time is a chain
+ * of handle invocations with no lookups. </P> <P>
+ *
+ * Use {@link #observe} to follow a path on a model over time: the observed
+ * path listens along the chain and relinks only from the segment that
+ * changed. </P>
+ *
+ * @author daibheid
+ */
+public final class PropertyPath {
+
+    private static final ConcurrentMap<String, PropertyPath> cache = new ConcurrentHashMap<String, PropertyPath>();
+
+    private final String path;
+    private final String[] names;
+    private final PropertyAccessor[] accessors;
+
+    private PropertyPath(String path) {
+        this.path = path;
+        this.names = path.split("\\.", -1);
+        for(int i = 0; i < names.length; ++i) {
+            if(names[i].length() == 0)
+                throw new IllegalArgumentException("empty segment in property path '" + path + "'");
+        }
+        accessors = new PropertyAccessor[names.length];
+    }
+
+    public static PropertyPath compile(String path) {
+        if(path == null)
+            throw new IllegalArgumentException("can't compile a null property path");
+        PropertyPath result = cache.get(path);
+        if(result == null) {
+            PropertyPath created = new PropertyPath(path);
+            result = cache.putIfAbsent(path, created);
+            if(result == null)
+                result = created;
+        }
+        return result;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getLength() {
+        return names.length;
+    }
+
+    public String getName(int segment) {
+        return names[segment];
+    }
+
+    /**
+     * Read the path from a root.
+     *
+     * @return the value at the end of the path, or null if any bean along
+     *      it is null
+     */
+    public Object get(Object root) {
+        return get(root, 0, names.length);
+    }
+
+    /**
+     * Write the value at the end of the path.
+     *
+     * @throws IllegalStateException if a bean before the last segment is null
+     */
+    public void set(Object root, Object value) {
+        Object bean = get(root, 0, names.length - 1);
+        if(bean == null)
+            throw new IllegalStateException("null bean before the end of '" + path + "'");
+        accessor(names.length - 1, bean).set(bean, value);
+    }
+
+    /**
+     * Follow the path on a root, listening along the chain.
+     */
+    public ObservedPath observe(Object root) {
+        return new ObservedPath(this, root);
+    }
+
+    public String toString() {
+        return path;
+    }
+
+    Object get(Object bean, int from, int to) {
+        for(int i = from; i < to && bean != null; ++i)
+            bean = accessor(i, bean).get(bean);
+        return bean;
+    }
+
+    /**
+     * Get the accessor of a segment for a bean, reusing the last one if the
+     * bean is of the same class. Races only cost a redundant lookup.
+     */
+    PropertyAccessor accessor(int segment, Object bean) {
+        PropertyAccessor result = accessors[segment];
+        if(result == null || result.getBeanClass() != bean.getClass()) {
+            result = PropertyAccessor.forProperty(bean.getClass(), names[segment]);
+            accessors[segment] = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.common;
+
+import java.beans.IndexedPropertyChangeEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <P>
+ *
+ * Undo and redo for any number of beans, built from the property changes
+ * they fire. Each change is recorded as (bean, property, index, old value,
+ * new value) in a ring of parallel arrays, with primitive wrapper values
+ * stored as bits in long slots so the journal holds no boxes. Undoing sets
+ * the old values back, newest first, through {@link PropertyAccessor}; redo
+ * sets the new ones again. </P> <P>
+ *
+ * Changes between {@link #beginEdit} and {@link #endEdit} form one edit,
+ * undone and redone as a whole; other changes are an edit each. Memory is
+ * bounded by the number of changes and the number of edits kept: when
+ * either is exceeded the oldest edits are forgotten. An edit larger than
+ * the whole journal can't be undone, so it clears the history. </P> <P>
+ *
+ * Whole-bean events (null property), list deltas and changes of properties
+ * that can't be set back, such as read-only or derived ones, can't be
+ * inverted and are ignored. Like the beans it watches, a journal is confined to one
+ * thread. The journal fires "canUndo" and "canRedo". </P>
+ *
+ * @author daibheid
+ */
+public class UndoJournal extends AbstractBean implements PropertyChangeListener {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public static final int DEFAULT_MAX_EDITS = 256;
+
+    private static final byte OBJECT = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte SHORT = 6;
+    private static final byte BYTE = 7;
+    private static final byte CHAR = 8;
+
+    // bean class -> property, with "[]" for indexed changes -> can be set back
+    private static final ConcurrentMap<Class, ConcurrentMap<String, Boolean>> settable =
+            new ConcurrentHashMap<Class, ConcurrentMap<String, Boolean>>();
+
+    // the change ring, indexed by sequence % capacity
+    private final int capacity;
+    private final AbstractBean[] beans;
+    private final String[] properties;
+    private final int[] indices;
+    private final byte[] oldKinds;
+    private final byte[] newKinds;
+    private final long[] oldBits;
+    private final long[] newBits;
+    private final Object[] oldObjects;
+    private final Object[] newObjects;
+    private long firstRecord;
+    private long endRecord;
+
+    // the edit ring: where each edit starts in the change ring
+    private final int maxEdits;
+    private final long[] editStarts;
+    private final String[] editNames;
+    private long firstEdit;
+    private long editCursor;
+    private long endEdit;
+
+    private int depth;
+    private String openName;
+    private boolean openStarted;
+    private boolean discarding;
+    private boolean replaying;
+
+    public UndoJournal() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_EDITS);
+    }
+
+    /**
+     * @param capacity The number of changes kept
+     * @param maxEdits The number of edits kept
+     */
+    public UndoJournal(int capacity, int maxEdits) {
+        if(capacity < 1 || maxEdits < 1)
+            throw new IllegalArgumentException("bad journal of " + capacity + " changes, " + maxEdits + " edits");
+        this.capacity = capacity;
+        this.maxEdits = maxEdits;
+        beans = new AbstractBean[capacity];
+        properties = new String[capacity];
+        indices = new int[capacity];
+        oldKinds = new byte[capacity];
+        newKinds = new byte[capacity];
+        oldBits = new long[capacity];
+        newBits = new long[capacity];
+        oldObjects = new Object[capacity];
+        newObjects = new Object[capacity];
+        editStarts = new long[maxEdits];
+        editNames = new String[maxEdits];
+    }
+
+    /**
+     * Record the changes of a bean.
+     */
+    public void watch(AbstractBean bean) {
+        bean.addPropertyChangeListener(this);
+    }
+
+    public void unwatch(AbstractBean bean) {
+        bean.removePropertyChangeListener(this);
+    }
+
+    /**
+     * Group the following changes into one edit, until the matching
+     * {@link #endEdit}. Calls nest; the outermost name is kept.
+     */
+    public void beginEdit(String name) {
+        if(depth++ == 0) {
+            openName = name;
+            openStarted = false;
+            discarding = false;
+        }
+    }
+
+    public void endEdit() {
+        if(depth == 0)
+            throw new IllegalStateException("endEdit() without beginEdit()");
+        if(--depth == 0) {
+            openName = null;
+            openStarted = false;
+            discarding = false;
+        }
+    }
+
+    /**
+     * Run an action as one edit.
+     */
+    public void edit(String name, Runnable action) {
+        beginEdit(name);
+        try {
+            action.run();
+        } finally {
+            endEdit();
+        }
+    }
+
+    public boolean canUndo() {
+        return editCursor > firstEdit;
+    }
+
+    public boolean canRedo() {
+        return editCursor < endEdit;
+    }
+
+    public int getUndoCount() {
+        return (int)(editCursor - firstEdit);
+    }
+
+    public int getRedoCount() {
+        return (int)(endEdit - editCursor);
+    }
+
+    /**
+     * @return the name of the edit undo would revert, or null
+     */
+    public String getUndoName() {
+        return canUndo() ? editNames[slot(editCursor - 1)] : null;
+    }
+
+    public String getRedoName() {
+        return canRedo() ? editNames[slot(editCursor)] : null;
+    }
+
+    /**
+     * @return the number of changes held, including those that can be redone
+     */
+    public int getRecordCount() {
+        return (int)(endRecord - firstRecord);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getMaxEdits() {
+        return maxEdits;
+    }
+
+    /**
+     * Revert the last edit.
+     *
+     * @return false if there was nothing to undo
+     */
+    public boolean undo() {
+        if(depth > 0)
+            throw new IllegalStateException("can't undo inside an edit");
+        if(!canUndo())
+            return false;
+        boolean couldUndo = canUndo();
+        boolean couldRedo = canRedo();
+        long edit = editCursor - 1;
+        replaying = true;
+        try {
+            for(long r = endOf(edit) - 1; r >= editStarts[slot(edit)]; --r) {
+                int i = record(r);
+                apply(i, decode(oldKinds[i], oldBits[i], oldObjects[i]));
+            }
+        } finally {
+            replaying = false;
+        }
+        editCursor = edit;
+        fireState(couldUndo, couldRedo);
+        return true;
+    }
+
+    /**
+     * Apply the last undone edit again.
+     *
+     * @return false if there was nothing to redo
+     */
+    public boolean redo() {
+        if(depth > 0)
+            throw new IllegalStateException("can't redo inside an edit");
+        if(!canRedo())
+            return false;
+        boolean couldUndo = canUndo();
+        boolean couldRedo = canRedo();
+        long edit = editCursor;
+        replaying = true;
+        try {
+            for(long r = editStarts[slot(edit)], end = endOf(edit); r < end; ++r) {
+                int i = record(r);
+                apply(i, decode(newKinds[i], newBits[i], newObjects[i]));
+            }
+        } finally {
+            replaying = false;
+        }
+        editCursor = edit + 1;
+        fireState(couldUndo, couldRedo);
+        return true;
+    }
+
+    /**
+     * Forget every edit.
+     */
+    public void clear() {
+        boolean couldUndo = canUndo();
+        boolean couldRedo = canRedo();
+        forget(firstRecord, endRecord);
+        firstRecord = endRecord = 0;
+        firstEdit = editCursor = endEdit = 0;
+        openStarted = false;
+        fireState(couldUndo, couldRedo);
+    }
+
+    public void propertyChange(PropertyChangeEvent event) {
+        if(replaying || discarding || event.getPropertyName() == null || event instanceof ListDeltaEvent)
+            return;
+        if(!(event.getSource() instanceof AbstractBean))
+            return;
+        // checked now, as undo can't stop halfway through an edit
+        if(!isSettable(event))
+            return;
+        boolean couldUndo = canUndo();
+        boolean couldRedo = canRedo();
+
+        // a new change makes what was undone unreachable
+        if(editCursor < endEdit) {
+            long cut = editStarts[slot(editCursor)];
+            forget(cut, endRecord);
+            endRecord = cut;
+            endEdit = editCursor;
+        }
+
+        if(depth == 0 || !openStarted) {
+            if(endEdit - firstEdit == maxEdits)
+                dropOldestEdit();
+            editStarts[slot(endEdit)] = endRecord;
+            editNames[slot(endEdit)] = depth > 0 ? openName : event.getPropertyName();
+            editCursor = ++endEdit;
+            openStarted = depth > 0;
+        }
+        while(endRecord - firstRecord == capacity) {
+            if(endEdit - firstEdit == 1) {
+                // the open edit alone overflows: it can't be undone
+                clear();
+                discarding = depth > 0;
+                return;
+            }
+            dropOldestEdit();
+        }
+
+        int i = record(endRecord++);
+        beans[i] = (AbstractBean)event.getSource();
+        properties[i] = event.getPropertyName();
+        indices[i] = event instanceof IndexedPropertyChangeEvent ? ((IndexedPropertyChangeEvent)event).getIndex() : -1;
+        Object oldValue = event.getOldValue();
+        oldKinds[i] = kind(oldValue);
+        oldBits[i] = bits(oldKinds[i], oldValue);
+        oldObjects[i] = oldKinds[i] == OBJECT ? oldValue : null;
+        Object newValue = event.getNewValue();
+        newKinds[i] = kind(newValue);
+        newBits[i] = bits(newKinds[i], newValue);
+        newObjects[i] = newKinds[i] == OBJECT ? newValue : null;
+        fireState(couldUndo, couldRedo);
+    }
+
+    private static boolean isSettable(PropertyChangeEvent event) {
+        Class beanClass = event.getSource().getClass();
+        boolean indexed = event instanceof IndexedPropertyChangeEvent;
+        String key = indexed ? event.getPropertyName() + "[]" : event.getPropertyName();
+        ConcurrentMap<String, Boolean> properties = settable.get(beanClass);
+        if(properties == null) {
+            ConcurrentMap<String, Boolean> created = new ConcurrentHashMap<String, Boolean>();
+            properties = settable.putIfAbsent(beanClass, created);
+            if(properties == null)
+                properties = created;
+        }
+        Boolean result = properties.get(key);
+        if(result == null) {
+            boolean value;
+            try {
+                PropertyAccessor accessor = PropertyAccessor.forProperty(beanClass, event.getPropertyName());
+                value = indexed ? accessor.isIndexedWritable() : accessor.isWritable();
+            } catch (IllegalArgumentException e) {
+                // no public accessor at all
+                value = false;
+            }
+            result = Boolean.valueOf(value);
+            properties.putIfAbsent(key, result);
+        }
+        return result.booleanValue();
+    }
+
+    private void apply(int i, Object value) {
+        PropertyAccessor accessor = PropertyAccessor.forProperty(beans[i].getClass(), properties[i]);
+        if(indices[i] >= 0)
+            accessor.setIndexed(beans[i], indices[i], value);
+        else
+            accessor.set(beans[i], value);
+    }
+
+    private long endOf(long edit) {
+        return edit + 1 < endEdit ? editStarts[slot(edit + 1)] : endRecord;
+    }
+
+    private void dropOldestEdit() {
+        long end = endOf(firstEdit);
+        forget(firstRecord, end);
+        firstRecord = end;
+        editNames[slot(firstEdit)] = null;
+        if(editCursor == firstEdit)
+            ++editCursor;
+        ++firstEdit;
+    }
+
+    /**
+     * Release the references of the changes between two sequence numbers.
+     */
+    private void forget(long from, long to) {
+        for(long r = from; r < to; ++r) {
+            int i = record(r);
+            beans[i] = null;
+            properties[i] = null;
+            oldObjects[i] = null;
+            newObjects[i] = null;
+        }
+    }
+
+    private int record(long sequence) {
+        return (int)(sequence % capacity);
+    }
+
+    private int slot(long edit) {
+        return (int)(edit % maxEdits);
+    }
+
+    private void fireState(boolean couldUndo, boolean couldRedo) {
+        firePropertyChange("canUndo", couldUndo, canUndo());
+        firePropertyChange("canRedo", couldRedo, canRedo());
+    }
+
+    private static byte kind(Object value) {
+        if(value instanceof Integer)
+            return INT;
+        if(value instanceof Long)
+            return LONG;
+        if(value instanceof Boolean)
+            return BOOLEAN;
+        if(value instanceof Double)
+            return DOUBLE;
+        if(value instanceof Float)
+            return FLOAT;
+        if(value instanceof Short)
+            return SHORT;
+        if(value instanceof Byte)
+            return BYTE;
+        if(value instanceof Character)
+            return CHAR;
+        return OBJECT;
+    }
+
+    private static long bits(byte kind, Object value) {
+        switch(kind) {
+            case INT:
+            case LONG:
+            case SHORT:
+            case BYTE:
+                return ((Number)value).longValue();
+            case BOOLEAN:
+                return ((Boolean)value).booleanValue() ? 1 : 0;
+            case DOUBLE:
+                return Double.doubleToRawLongBits(((Double)value).doubleValue());
+            case FLOAT:
+                return Float.floatToRawIntBits(((Float)value).floatValue());
+            case CHAR:
+                return ((Character)value).charValue();
+            default:
+                return 0;
+        }
+    }
+
+    private static Object decode(byte kind, long bits, Object object) {
+        switch(kind) {
+            case INT:
+                return Integer.valueOf((int)bits);
+            case LONG:
+                return Long.valueOf(bits);
+            case BOOLEAN:
+                return Boolean.valueOf(bits != 0);
+            case DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(bits));
+            case FLOAT:
+                return Float.valueOf(Float.intBitsToFloat((int)bits));
+            case SHORT:
+                return Short.valueOf((short)bits);
+            case BYTE:
+                return Byte.valueOf((byte)bits);
+            case CHAR:
+                return Character.valueOf((char)bits);
+            default:
+                return object;
+        }
+    }
+}
@@ -6,10 +6,18 @@
 package com.ts.scope.controller;
 
 import com.ts.common.AbstractBean;
+import com.ts.common.DirtyListener;
 import com.ts.scope.core.Controller;
 import com.ts.scope.core.View;
+import com.ts.scope.util.FlightEvents;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class AbstractController
@@ -26,6 +34,23 @@ public abstract class AbstractController<M, V extends View> extends AbstractBean
     
     private V view;
     
+    // controllers in this subtree whose model is dirty
+    private int dirtyModelCount;
+    
+    // the dirty listener is on the model; not after halt
+    private boolean watchingModel;
+    
+    // only on a root, once asked for
+    private volatile ControllerRegistry registry;
+    
+    private Object registryKey;
+    
+    private final DirtyListener modelDirtyListener = new DirtyListener() {
+        public void dirtyChanged(AbstractBean bean, boolean dirty) {
+            adjustDirtyModels(dirty ? 1 : -1);
+        }
+    };
+    
     public final List<Controller> getChildren() {
         return children;
     }
@@ -46,7 +71,11 @@ public abstract class AbstractController<M, V extends View> extends AbstractBean
     }
     
     public final void setModel(M value) {
-        firePropertyChange("model", this.model, this.model = value);
+        M old = model;
+        unwatchModel();
+        model = value;
+        watchModel();
+        firePropertyChange("model", old, value);
     }
     
     public final V getView() {
@@ -72,36 +101,380 @@ public abstract class AbstractController<M, V extends View> extends AbstractBean
         setView(vValue);
     }
     
+    /**
+     * Replace the model and the view together, firing a single
+     * "modelAndView" change rather than the "model" and "view" ones. Its
+     * values are arrays of the model and the view, old and new.
+     */
+    public final void swapModelAndView(M mValue, V vValue) {
+        M oldModel = model;
+        V oldView = view;
+        if(oldModel != mValue) {
+            unwatchModel();
+            model = mValue;
+            watchModel();
+        }
+        if(oldView != vValue) {
+            if(oldView != null) {
+                hideView();
+                oldView.setController(null);
+            }
+            view = vValue;
+            if(vValue != null)
+                vValue.setController(this);
+        }
+        if(oldModel != mValue || oldView != vValue)
+            firePropertyChange("modelAndView", new Object[] {oldModel, oldView}, new Object[] {mValue, vValue});
+    }
+    
     public void execute(Controller value) {
-        if(value instanceof AbstractController) {
-            AbstractController ac = (AbstractController)value;
-            ac.setParent(this);
+        Object event = FlightEvents.CONTROLLER_EXECUTE.begin();
+        try {
+            if(value instanceof AbstractController) {
+                AbstractController ac = (AbstractController)value;
+                ac.setParent(this);
+            }
+            execute();
+        } finally {
+            FlightEvents.CONTROLLER_EXECUTE.commitController(event, this);
         }
-        execute();
     }
     
     public void halt() {
-        AbstractController[] c = (AbstractController[])getChildren().toArray(new AbstractController[0]);
-        for(int i = 0; i < c.length; ++i)
-            c[i].halt();
-        hideView();
-        setParent(null);
+        // the depth is taken before the controller leaves the tree
+        Object event = FlightEvents.CONTROLLER_HALT.begin();
+        int depth = event == null ? 0 : FlightEvents.depthOf(this);
+        try {
+            AbstractController[] c = (AbstractController[])getChildren().toArray(new AbstractController[0]);
+            for(int i = 0; i < c.length; ++i)
+                c[i].halt();
+            hideView();
+            setParent(null);
+            if(registry != null) {
+                registry.clear();
+                registry = null;
+            }
+            // a model that outlives the controller must not hold it through
+            // the dirty listener; the model itself stays for the caller
+            unwatchModel();
+            if(LeakDetector.ENABLED)
+                LeakDetector.halted(this);
+        } finally {
+            FlightEvents.CONTROLLER_HALT.commitController(event, this, depth);
+        }
     }
     
     protected final void setParent(AbstractController value) {
+        setParent(value, -1);
+    }
+    
+    /**
+     * Attach to a parent at a given position among its children; a negative
+     * or out of range index appends.
+     */
+    final void setParent(AbstractController value, int index) {
+        Object event = FlightEvents.CONTROLLER_SET_PARENT.begin();
+        try {
+            attach(value, index);
+        } finally {
+            FlightEvents.CONTROLLER_SET_PARENT.commitController(event, this);
+        }
+    }
+    
+    private void attach(AbstractController value, int index) {
         if(parent != null) {
+            ControllerRegistry r = root().registry;
+            if(r != null)
+                r.removeTree(this);
             parent.getChildren().remove(this);
+            parent.adjustDirtyModels(-dirtyModelCount);
             firePropertyChange("parent", parent, null);
         }
         
         parent = value;
         
         if(parent != null) {
-            parent.getChildren().add(this);
+            if(index < 0 || index > parent.children.size())
+                parent.children.add(this);
+            else
+                parent.children.add(index, this);
+            parent.adjustDirtyModels(dirtyModelCount);
+            // the subtree moves into the registry of its new root
+            if(registry != null) {
+                registry.clear();
+                registry = null;
+            }
+            ControllerRegistry r = root().registry;
+            if(r != null)
+                r.addTree(this);
             firePropertyChange("parent", null, parent);
         }
     }
     
+    /**
+     * Attach many controllers as children, appended in order.
+     *
+     * @see #addChildren(Collection, int)
+     */
+    public final void addChildren(Collection<? extends AbstractController> values) {
+        addChildren(values, -1);
+    }
+    
+    /**
+     * Attach many controllers as children in one pass, at a position among
+     * the children that stay; a negative or out of range index appends.
+     * Controllers already in a tree are moved, and each fires a single
+     * "parent" change from its old parent to this one. Nothing changes if
+     * one of them is this controller or an ancestor of it.
+     */
+    public final void addChildren(Collection<? extends AbstractController> values, int index) {
+        Object event = FlightEvents.CONTROLLER_SET_PARENT.begin();
+        try {
+            move(values, this, index);
+        } finally {
+            FlightEvents.CONTROLLER_SET_PARENT.commitController(event, this);
+        }
+    }
+    
+    /**
+     * Detach many children in one pass, each firing a single "parent"
+     * change. Controllers that aren't children of this one are left alone.
+     */
+    public final void removeChildren(Collection<? extends AbstractController> values) {
+        List<AbstractController> mine = new ArrayList<AbstractController>();
+        for(AbstractController c : values) {
+            if(c != null && c.parent == this)
+                mine.add(c);
+        }
+        Object event = FlightEvents.CONTROLLER_SET_PARENT.begin();
+        try {
+            move(mine, null, -1);
+        } finally {
+            FlightEvents.CONTROLLER_SET_PARENT.commitController(event, this);
+        }
+    }
+    
+    /**
+     * Move to another parent, or detach with a null one, firing a single
+     * "parent" change rather than the two of {@link #setParent}.
+     */
+    public final void moveTo(AbstractController value, int index) {
+        Object event = FlightEvents.CONTROLLER_SET_PARENT.begin();
+        try {
+            move(Collections.singletonList(this), value, index);
+        } finally {
+            FlightEvents.CONTROLLER_SET_PARENT.commitController(event, this);
+        }
+    }
+    
+    /**
+     * Take controllers from their parents and give them to a new one, or
+     * none. Each old parent's children are filtered once, the dirty counts
+     * and registries are updated once per parent and per tree, and
+     * controllers that stay in the same tree are not reindexed. A controller
+     * moved together with one of its ancestors is counted out of that
+     * ancestor's subtree only, not twice out of the old tree.
+     */
+    private static void move(Collection<? extends AbstractController> values, AbstractController target, int index) {
+        Map<AbstractController, AbstractController> moving = new IdentityHashMap<AbstractController, AbstractController>();
+        List<AbstractController> order = new ArrayList<AbstractController>(values.size());
+        for(AbstractController c : values) {
+            if(c == null)
+                throw new IllegalArgumentException("can't move a null controller");
+            if(target == null && c.parent == null)
+                continue;
+            if(!moving.containsKey(c)) {
+                moving.put(c, c.parent);
+                order.add(c);
+            }
+        }
+        for(AbstractController a = target; a != null; a = a.parent) {
+            if(moving.containsKey(a))
+                throw new IllegalArgumentException("can't attach a controller under itself: " + a);
+        }
+        if(order.isEmpty())
+            return;
+        
+        AbstractController targetRoot = target == null ? null : target.root();
+        // the counts before any of them changes
+        int[] counts = new int[order.size()];
+        for(int i = 0; i < counts.length; ++i)
+            counts[i] = order.get(i).dirtyModelCount;
+        // old parent -> dirty models leaving its tree
+        Map<AbstractController, int[]> leaving = new IdentityHashMap<AbstractController, int[]>();
+        Map<AbstractController, AbstractController> roots = new IdentityHashMap<AbstractController, AbstractController>();
+        int arriving = 0;
+        for(int i = 0; i < counts.length; ++i) {
+            AbstractController c = order.get(i);
+            AbstractController old = c.parent;
+            if(old == null) {
+                arriving += counts[i];
+                continue;
+            }
+            int[] count = leaving.get(old);
+            if(count == null) {
+                leaving.put(old, count = new int[1]);
+                roots.put(old, old.root());
+            }
+            // a controller moving along with an ancestor only leaves that
+            // ancestor's subtree; its models go and arrive with the ancestor's
+            AbstractController carrier = old;
+            while(carrier != null && !moving.containsKey(carrier))
+                carrier = carrier.parent;
+            if(carrier != null) {
+                for(AbstractController a = old; a != carrier; a = a.parent)
+                    a.dirtyModelCount -= counts[i];
+                carrier.dirtyModelCount -= counts[i];
+                continue;
+            }
+            count[0] += counts[i];
+            arriving += counts[i];
+            ControllerRegistry r = roots.get(old).registry;
+            if(r != null && roots.get(old) != targetRoot)
+                r.removeTree(c);
+        }
+        for(Map.Entry<AbstractController, int[]> e : leaving.entrySet()) {
+            AbstractController old = e.getKey();
+            for(Iterator<Controller> i = old.children.iterator(); i.hasNext(); ) {
+                Controller child = i.next();
+                if(moving.get(child) == old)
+                    i.remove();
+            }
+            old.adjustDirtyModels(-e.getValue()[0]);
+        }
+        
+        for(AbstractController c : order)
+            c.parent = target;
+        if(target != null) {
+            if(index < 0 || index > target.children.size())
+                target.children.addAll(order);
+            else
+                target.children.addAll(index, order);
+            target.adjustDirtyModels(arriving);
+            ControllerRegistry r = targetRoot.registry;
+            for(AbstractController c : order) {
+                // the subtree moves into the registry of its new root
+                if(c.registry != null) {
+                    c.registry.clear();
+                    c.registry = null;
+                }
+                AbstractController old = moving.get(c);
+                if(r != null && (old == null || roots.get(old) != targetRoot))
+                    r.addTree(c);
+            }
+        }
+        
+        for(AbstractController c : order)
+            c.firePropertyChange("parent", moving.get(c), target);
+    }
+    
+    /**
+     * The registry of this controller's tree, kept by the root and built the
+     * first time it is asked for.
+     */
+    public final ControllerRegistry getRegistry() {
+        AbstractController root = root();
+        ControllerRegistry result = root.registry;
+        if(result == null) {
+            result = new ControllerRegistry();
+            result.addTree(root);
+            root.registry = result;
+        }
+        return result;
+    }
+    
+    public final Object getRegistryKey() {
+        return registryKey;
+    }
+    
+    /**
+     * Register this controller under a key, eg. the ID of the document it
+     * edits, for {@link ControllerRegistry#get}.
+     *
+     * @param value The key, or null for none
+     */
+    public final void setRegistryKey(Object value) {
+        Object old = registryKey;
+        registryKey = value;
+        ControllerRegistry r = root().registry;
+        if(r != null)
+            r.rekey(this, old, value);
+        firePropertyChange("registryKey", old, value);
+    }
+    
+    /**
+     * @return the number of controllers in this subtree, this one included,
+     *      whose model is a dirty AbstractBean
+     */
+    public final int getDirtyModelCount() {
+        return dirtyModelCount;
+    }
+    
+    /**
+     * The dirty models of this subtree, found without visiting subtrees that
+     * have none, so the cost follows the size of the edit.
+     */
+    public final List<AbstractBean> getDirtyModels() {
+        List<AbstractBean> result = new ArrayList<AbstractBean>(dirtyModelCount);
+        collectDirtyModels(result);
+        return result;
+    }
+    
+    /**
+     * Mark every model of this subtree clean, after saving them.
+     */
+    public final void clearDirtyModels() {
+        List<AbstractBean> dirty = getDirtyModels();
+        for(int i = 0; i < dirty.size(); ++i)
+            dirty.get(i).clearDirty();
+    }
+    
+    private void collectDirtyModels(List<AbstractBean> result) {
+        if(dirtyModelCount == 0)
+            return;
+        if(model instanceof AbstractBean && ((AbstractBean)model).isDirty())
+            result.add((AbstractBean)model);
+        for(Controller c : children) {
+            if(c instanceof AbstractController)
+                ((AbstractController)c).collectDirtyModels(result);
+        }
+    }
+    
+    private AbstractController root() {
+        AbstractController result = this;
+        while(result.parent != null)
+            result = result.parent;
+        return result;
+    }
+    
+    /**
+     * Count the model's dirtiness in this subtree, and follow it.
+     */
+    private void watchModel() {
+        if(model instanceof AbstractBean) {
+            ((AbstractBean)model).addDirtyListener(modelDirtyListener);
+            watchingModel = true;
+            if(((AbstractBean)model).isDirty())
+                adjustDirtyModels(1);
+        }
+    }
+    
+    private void unwatchModel() {
+        if(watchingModel) {
+            ((AbstractBean)model).removeDirtyListener(modelDirtyListener);
+            watchingModel = false;
+            if(((AbstractBean)model).isDirty())
+                adjustDirtyModels(-1);
+        }
+    }
+    
+    private void adjustDirtyModels(int delta) {
+        if(delta == 0)
+            return;
+        for(AbstractController c = this; c != null; c = c.parent)
+            c.dirtyModelCount += delta;
+    }
+    
     protected final void hideView() {
         hideView(getView());
     }
@@ -0,0 +1,198 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.controller;
+
+import com.ts.common.AbstractBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <P>
+ *
+ * Indexes the controllers of one tree by type and by registry key, so
+ * finding the editor of a document doesn't walk the tree. A controller is
+ * indexed under its class, every superclass down to AbstractController and
+ * every interface they implement. </P> <P>
+ *
+ * The registry is kept by the root, created the first time
+ * {@link AbstractController#getRegistry} is called, and maintained as
+ * subtrees are attached, detached and halted. It is updated by the thread
+ * that changes the tree; reads may come from any thread. When its root joins
+ * another tree the registry is emptied, and that tree's registry takes
+ * over. </P>
+ *
+ * @author daibheid
+ */
+public final class ControllerRegistry {
+
+    private static final ConcurrentMap<Class, Class[]> typesOf = new ConcurrentHashMap<Class, Class[]>();
+
+    private final ConcurrentMap<Object, AbstractController> byKey = new ConcurrentHashMap<Object, AbstractController>();
+
+    private final ConcurrentMap<Class, Set<AbstractController>> byType = new ConcurrentHashMap<Class, Set<AbstractController>>();
+
+    private final Set<AbstractController> all = newSet();
+
+    ControllerRegistry() {
+    }
+
+    /**
+     * @return the controller registered under a key, or null. Keys should
+     *      be unique in a tree; the last one registered wins.
+     */
+    public AbstractController get(Object key) {
+        return key == null ? null : byKey.get(key);
+    }
+
+    /**
+     * @return the controller registered under a key if it is of the type,
+     *      or null
+     */
+    public <T> T get(Class<T> type, Object key) {
+        AbstractController result = get(key);
+        return type.isInstance(result) ? type.cast(result) : null;
+    }
+
+    /**
+     * @return a live, unmodifiable view of the controllers of a type
+     */
+    public <T> Collection<T> getAll(Class<T> type) {
+        Set<AbstractController> result = byType.get(type);
+        if(result == null)
+            return Collections.emptySet();
+        return (Collection<T>)Collections.unmodifiableCollection(result);
+    }
+
+    /**
+     * @return any one controller of a type, or null
+     */
+    public <T> T getAny(Class<T> type) {
+        Set<AbstractController> set = byType.get(type);
+        if(set != null) {
+            for(AbstractController c : set)
+                return type.cast(c);
+        }
+        return null;
+    }
+
+    public boolean contains(AbstractController controller) {
+        return all.contains(controller);
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    void addTree(AbstractController root) {
+        List<AbstractController> todo = new ArrayList<AbstractController>();
+        todo.add(root);
+        while(!todo.isEmpty()) {
+            AbstractController c = todo.remove(todo.size() - 1);
+            add(c);
+            children(c, todo);
+        }
+    }
+
+    void removeTree(AbstractController root) {
+        List<AbstractController> todo = new ArrayList<AbstractController>();
+        todo.add(root);
+        while(!todo.isEmpty()) {
+            AbstractController c = todo.remove(todo.size() - 1);
+            remove(c);
+            children(c, todo);
+        }
+    }
+
+    void rekey(AbstractController controller, Object oldKey, Object newKey) {
+        if(!all.contains(controller))
+            return;
+        if(oldKey != null)
+            byKey.remove(oldKey, controller);
+        if(newKey != null)
+            byKey.put(newKey, controller);
+    }
+
+    void clear() {
+        byKey.clear();
+        byType.clear();
+        all.clear();
+    }
+
+    private void add(AbstractController c) {
+        if(!all.add(c))
+            return;
+        Class[] types = typesOf(c.getClass());
+        for(int i = 0; i < types.length; ++i) {
+            Set<AbstractController> set = byType.get(types[i]);
+            if(set == null) {
+                Set<AbstractController> created = newSet();
+                set = byType.putIfAbsent(types[i], created);
+                if(set == null)
+                    set = created;
+            }
+            set.add(c);
+        }
+        if(c.getRegistryKey() != null)
+            byKey.put(c.getRegistryKey(), c);
+    }
+
+    private void remove(AbstractController c) {
+        if(!all.remove(c))
+            return;
+        Class[] types = typesOf(c.getClass());
+        for(int i = 0; i < types.length; ++i) {
+            Set<AbstractController> set = byType.get(types[i]);
+            if(set != null)
+                set.remove(c);
+        }
+        if(c.getRegistryKey() != null)
+            byKey.remove(c.getRegistryKey(), c);
+    }
+
+    private static void children(AbstractController c, List<AbstractController> todo) {
+        for(Object child : c.getChildren()) {
+            if(child instanceof AbstractController)
+                todo.add((AbstractController)child);
+        }
+    }
+
+    private static Set<AbstractController> newSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<AbstractController, Boolean>());
+    }
+
+    /**
+     * The classes and interfaces a controller class is indexed under
+     */
+    private static Class[] typesOf(Class cls) {
+        Class[] result = typesOf.get(cls);
+        if(result == null) {
+            List<Class> types = new ArrayList<Class>();
+            for(Class c = cls; c != null && c != AbstractBean.class; c = c.getSuperclass()) {
+                types.add(c);
+                addInterfaces(c, types);
+            }
+            result = types.toArray(new Class[types.size()]);
+            typesOf.putIfAbsent(cls, result);
+        }
+        return result;
+    }
+
+    private static void addInterfaces(Class c, List<Class> types) {
+        Class[] interfaces = c.getInterfaces();
+        for(int i = 0; i < interfaces.length; ++i) {
+            if(!types.contains(interfaces[i])) {
+                types.add(interfaces[i]);
+                addInterfaces(interfaces[i], types);
+            }
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.controller;
+
+import com.ts.common.AbstractBean;
+import com.ts.common.BeanMonitorAdapter;
+import com.ts.common.DirtyListener;
+import com.ts.scope.util.ScopeConfig;
+import java.beans.PropertyChangeListener;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * Finds halted controllers, views and models that stay reachable. Once
+ * {@link AbstractController#halt} returns, the detector holds the three
+ * through weak references and counts garbage collections with a sentinel
+ * object that only a collection clears. Whatever survives the configured
+ * number of collections is logged as a suspect, with the listener
+ * registrations that still point at it: the bean holding the listener, the
+ * property and the listener class, for property change and dirty listeners
+ * alike. </P> <P>
+ *
+ * The detector is switched on with the Scope property
+ * 'org.scopemvc.controller.LeakDetector.enabled'. Tracking costs a few weak
+ * references per halt and a map update per listener registration, and the
+ * collections are watched by a daemon thread, so it can stay on in staging.
+ * Objects promoted to the old generation only go with a full collection,
+ * so allow for a few young ones in the cycle count. The detector starts with
+ * {@link #install}, which the Swing bootstrap calls once the config is
+ * loaded; registrations made before it starts aren't known to it. </P>
+ *
+ * @author daibheid
+ */
+public final class LeakDetector {
+
+    /**
+     * The property in ScopeConfig that switches the detector on, true or
+     * false. Default: false
+     */
+    public static final String ENABLED_PROPERTY = "org.scopemvc.controller.LeakDetector.enabled";
+
+    /**
+     * The property in ScopeConfig for the number of garbage collections a
+     * halted object may survive before it is reported. Default: 5
+     */
+    public static final String GC_CYCLES_PROPERTY = "org.scopemvc.controller.LeakDetector.gc_cycles";
+
+    public static final boolean ENABLED = Boolean.valueOf(ScopeConfig.getString(ENABLED_PROPERTY)).booleanValue();
+
+    private static final Log LOG = LogFactory.getLog(LeakDetector.class);
+
+    private static final int DEFAULT_GC_CYCLES = 5;
+
+    private static final long POLL_MILLIS = 1000;
+
+    private static final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+    private static final ConcurrentMap<Tracked, Boolean> tracked = new ConcurrentHashMap<Tracked, Boolean>();
+
+    private static final List<Suspect> suspects = new CopyOnWriteArrayList<Suspect>();
+
+    // listener -> where it is registered
+    private static final ConcurrentMap<IdentityKey, List<Registration>> registrations =
+            new ConcurrentHashMap<IdentityKey, List<Registration>>();
+
+    private static final AtomicInteger cycles = new AtomicInteger();
+
+    private static volatile int gcCycles = DEFAULT_GC_CYCLES;
+
+    private static volatile WeakReference<Object> sentinel;
+
+    // guarded by the class
+    private static boolean started;
+
+    private LeakDetector() { }
+
+    /**
+     * Start the detector if it is enabled and not started yet. Call it at
+     * startup, so it sees the registrations made before the first halt;
+     * later calls do nothing.
+     */
+    public static synchronized void install() {
+        if(started || !ENABLED)
+            return;
+        started = true;
+        Integer value = ScopeConfig.getInteger(GC_CYCLES_PROPERTY);
+        setGcCycles(value == null ? DEFAULT_GC_CYCLES : value.intValue());
+        start();
+    }
+
+    /**
+     * Track a controller that has just been halted, with its view and model.
+     * Guard calls with {@link #ENABLED}.
+     */
+    public static void halted(AbstractController controller) {
+        track(controller, "controller");
+        if(controller.getView() != null)
+            track(controller.getView(), "view of " + describe(controller));
+        if(controller.getModel() != null)
+            track(controller.getModel(), "model of " + describe(controller));
+    }
+
+    /**
+     * Track any object that should become unreachable from now on.
+     *
+     * @param role What the object was, for the report
+     */
+    public static void track(Object object, String role) {
+        // late, for applications that didn't install it at startup
+        install();
+        tracked.put(new Tracked(object, role, cycles.get()), Boolean.TRUE);
+    }
+
+    /**
+     * @return the garbage collections seen since the detector started
+     */
+    public static int getCycleCount() {
+        return cycles.get();
+    }
+
+    public static int getGcCycles() {
+        return gcCycles;
+    }
+
+    public static void setGcCycles(int value) {
+        if(value < 1)
+            throw new IllegalArgumentException("at least 1 GC cycle: " + value);
+        gcCycles = value;
+    }
+
+    /**
+     * @return the number of halted objects not yet collected
+     */
+    public static int getTrackedCount() {
+        return tracked.size();
+    }
+
+    /**
+     * @return the objects reported so far that are still reachable
+     */
+    public static List<Suspect> getSuspects() {
+        List<Suspect> result = new ArrayList<Suspect>();
+        for(Suspect s : suspects) {
+            if(s.tracked.get() != null)
+                result.add(s);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Check the tracked objects now rather than at the next poll.
+     */
+    public static void check() {
+        expunge();
+        int now = cycles.get();
+        for(Tracked t : tracked.keySet()) {
+            Object object = t.get();
+            if(object == null || now - t.cycle < gcCycles)
+                continue;
+            if(tracked.remove(t) != null) {
+                Suspect s = new Suspect(t, now - t.cycle, findRetainers(object));
+                suspects.add(s);
+                LOG.warn(s);
+            }
+        }
+    }
+
+    private static void start() {
+        AbstractBean.addMonitor(new RegistrationTracker());
+        renewSentinel();
+        Thread poller = new Thread(new Runnable() {
+            public void run() {
+                while(true) {
+                    try {
+                        Thread.sleep(POLL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if(sentinel.get() == null) {
+                        cycles.incrementAndGet();
+                        renewSentinel();
+                    }
+                    check();
+                }
+            }
+        }, "LeakDetector");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    private static void renewSentinel() {
+        sentinel = new WeakReference<Object>(new Object());
+    }
+
+    private static void expunge() {
+        Reference<?> r;
+        while((r = queue.poll()) != null) {
+            if(r instanceof Tracked)
+                tracked.remove(r);
+            else
+                registrations.remove(r);
+        }
+        for(Suspect s : suspects) {
+            if(s.tracked.get() == null)
+                suspects.remove(s);
+        }
+    }
+
+    /**
+     * The live registrations of listeners that are, or directly refer to,
+     * the object: inner classes through their enclosing instance, adapters
+     * through their fields.
+     */
+    private static List<String> findRetainers(Object object) {
+        List<String> result = new ArrayList<String>();
+        for(List<Registration> list : registrations.values()) {
+            for(Registration r : list) {
+                AbstractBean source = r.source.get();
+                Object listener = r.listener.get();
+                if(source == null || listener == null || source == object)
+                    continue;
+                if(listener == object || refersTo(listener, object)) {
+                    result.add((r.dirty ? "dirty listener " : "listener ") + listener.getClass().getName() + " on "
+                            + describe(source) + (r.property == null ? "" : " property '" + r.property + "'"));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean refersTo(Object holder, Object object) {
+        for(Class c = holder.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+            Field[] fields = c.getDeclaredFields();
+            for(int i = 0; i < fields.length; ++i) {
+                Field f = fields[i];
+                if(Modifier.isStatic(f.getModifiers()) || f.getType().isPrimitive())
+                    continue;
+                try {
+                    f.setAccessible(true);
+                    if(f.get(holder) == object)
+                        return true;
+                } catch (RuntimeException e) {
+                    // a field of a class we may not open
+                } catch (IllegalAccessException e) {
+                    // same
+                }
+            }
+        }
+        return false;
+    }
+
+    static String describe(Object object) {
+        return object.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(object));
+    }
+
+    /**
+     * A halted object still reachable after the configured collections.
+     */
+    public static final class Suspect {
+        private final Tracked tracked;
+        private final String description;
+        private final int cyclesSurvived;
+        private final List<String> retainers;
+
+        Suspect(Tracked tracked, int cyclesSurvived, List<String> retainers) {
+            this.tracked = tracked;
+            this.description = tracked.description;
+            this.cyclesSurvived = cyclesSurvived;
+            this.retainers = Collections.unmodifiableList(retainers);
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getRole() {
+            return tracked.role;
+        }
+
+        public long getHaltMillis() {
+            return tracked.haltMillis;
+        }
+
+        public int getCyclesSurvived() {
+            return cyclesSurvived;
+        }
+
+        /**
+         * @return the listener registrations found to refer to the object
+         */
+        public List<String> getRetainers() {
+            return retainers;
+        }
+
+        public String toString() {
+            StringBuffer result = new StringBuffer();
+            result.append(tracked.role).append(' ').append(description)
+                    .append(" survived ").append(cyclesSurvived).append(" GC cycles after halt");
+            if(retainers.isEmpty())
+                result.append("; no listener registration refers to it");
+            for(int i = 0; i < retainers.size(); ++i)
+                result.append("\n\tretained by ").append(retainers.get(i));
+            return result.toString();
+        }
+    }
+
+    static final class Tracked extends WeakReference<Object> {
+        final String description;
+        final String role;
+        final int cycle;
+        final long haltMillis = System.currentTimeMillis();
+
+        Tracked(Object object, String role, int cycle) {
+            super(object, queue);
+            this.description = describe(object);
+            this.role = role;
+            this.cycle = cycle;
+        }
+    }
+
+    static final class Registration {
+        final WeakReference<AbstractBean> source;
+        final String property;
+        final WeakReference<Object> listener;
+        final boolean dirty;
+
+        Registration(AbstractBean source, String property, Object listener, boolean dirty) {
+            this.source = new WeakReference<AbstractBean>(source);
+            this.property = property;
+            this.listener = new WeakReference<Object>(listener);
+            this.dirty = dirty;
+        }
+    }
+
+    /**
+     * A weak key compared by the identity of its referent, so a listener
+     * can be looked up without keeping it alive.
+     */
+    static final class IdentityKey extends WeakReference<Object> {
+        final int hash;
+
+        IdentityKey(Object object, ReferenceQueue<Object> q) {
+            super(object, q);
+            hash = System.identityHashCode(object);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if(o == this)
+                return true;
+            if(!(o instanceof IdentityKey))
+                return false;
+            Object referent = get();
+            return referent != null && referent == ((IdentityKey)o).get();
+        }
+    }
+
+    static class RegistrationTracker extends BeanMonitorAdapter {
+        public void listenerAdded(AbstractBean source, String propertyName, PropertyChangeListener listener) {
+            added(source, propertyName, listener, false);
+        }
+
+        public void listenerRemoved(AbstractBean source, String propertyName, PropertyChangeListener listener) {
+            removed(source, propertyName, listener, false);
+        }
+
+        public void dirtyListenerAdded(AbstractBean source, DirtyListener listener) {
+            added(source, null, listener, true);
+        }
+
+        public void dirtyListenerRemoved(AbstractBean source, DirtyListener listener) {
+            removed(source, null, listener, true);
+        }
+
+        private void added(AbstractBean source, String propertyName, Object listener, boolean dirty) {
+            List<Registration> list = registrations.get(new IdentityKey(listener, null));
+            if(list == null) {
+                List<Registration> created = new CopyOnWriteArrayList<Registration>();
+                list = registrations.putIfAbsent(new IdentityKey(listener, queue), created);
+                if(list == null)
+                    list = created;
+            }
+            list.add(new Registration(source, propertyName, listener, dirty));
+        }
+
+        private void removed(AbstractBean source, String propertyName, Object listener, boolean dirty) {
+            List<Registration> list = registrations.get(new IdentityKey(listener, null));
+            if(list == null)
+                return;
+            for(Registration r : list) {
+                if(r.dirty == dirty && r.source.get() == source
+                        && (r.property == null ? propertyName == null : r.property.equals(propertyName))
+                        && r.listener.get() == listener) {
+                    list.remove(r);
+                    break;
+                }
+            }
+            if(list.isEmpty())
+                registrations.remove(new IdentityKey(listener, null), list);
+        }
+    }
+}
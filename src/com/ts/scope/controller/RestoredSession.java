@@ -0,0 +1,189 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.controller;
+
+import com.ts.scope.core.View;
+import com.ts.scope.view.swing.SwingView;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <P>
+ *
+ * The controller trees of a {@link SessionSnapshot} being brought back to
+ * life. The roots and the part of the trees that was showing are materialized
+ * when the session is restored; the rest is created on demand, e.g. when a
+ * navigation asks for the children of a controller. </P> <P>
+ *
+ * Restored controllers are attached to their parents in their saved order but
+ * are not executed. </P> <P>
+ *
+ * Materializing changes the controller trees, so a restored session is
+ * confined to the thread that owns them, usually the EDT; it is not
+ * synchronized. </P>
+ *
+ * @author daibheid
+ */
+public class RestoredSession {
+
+    private final SessionSnapshot snapshot;
+    private final SnapshotFactory factory;
+
+    private final AbstractController[] controllers;
+    private final int[] firstChild;
+    private final int[] nextSibling;
+    private final Map<AbstractController, Integer> indices = new IdentityHashMap<AbstractController, Integer>();
+    private final List<Integer> roots = new ArrayList<Integer>();
+    private int materializedCount;
+
+    RestoredSession(SessionSnapshot snapshot, SnapshotFactory factory) {
+        this.snapshot = snapshot;
+        this.factory = factory;
+
+        int n = snapshot.getNodeCount();
+        controllers = new AbstractController[n];
+        firstChild = new int[n];
+        nextSibling = new int[n];
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(nextSibling, -1);
+        int[] lastChild = new int[n];
+        Arrays.fill(lastChild, -1);
+        for(int i = 0; i < n; ++i) {
+            int parent = snapshot.getParentIndex(i);
+            if(parent < 0) {
+                roots.add(Integer.valueOf(i));
+            } else if(lastChild[parent] < 0) {
+                firstChild[parent] = i;
+                lastChild[parent] = i;
+            } else {
+                nextSibling[lastChild[parent]] = i;
+                lastChild[parent] = i;
+            }
+        }
+
+        for(Integer root : roots)
+            materialize(root.intValue());
+        for(int i = 0; i < n; ++i) {
+            if(snapshot.isVisible(i))
+                materialize(i);
+        }
+    }
+
+    /**
+     * @return the materialized root controllers, in saved order
+     */
+    public List<AbstractController> getRoots() {
+        List<AbstractController> result = new ArrayList<AbstractController>(roots.size());
+        for(Integer root : roots)
+            result.add(controllers[root.intValue()]);
+        return result;
+    }
+
+    public int getNodeCount() {
+        return controllers.length;
+    }
+
+    public int getMaterializedCount() {
+        return materializedCount;
+    }
+
+    public boolean isFullyMaterialized() {
+        return materializedCount == controllers.length;
+    }
+
+    /**
+     * Get the controller of a node, creating it (and any ancestors) if it
+     * hasn't been yet.
+     *
+     * @param node The pre-order index of the node in the snapshot
+     */
+    public AbstractController materialize(int node) {
+        AbstractController result = controllers[node];
+        if(result != null)
+            return result;
+
+        int parentIndex = snapshot.getParentIndex(node);
+        AbstractController parent = parentIndex < 0 ? null : materialize(parentIndex);
+
+        result = factory.createController(snapshot.getControllerClass(node));
+        if(result == null)
+            throw new IllegalStateException("SnapshotFactory made no controller for " + snapshot.getControllerClass(node));
+        controllers[node] = result;
+        indices.put(result, Integer.valueOf(node));
+        ++materializedCount;
+
+        try {
+            Object model = snapshot.decodeModel(node);
+            if(model != null)
+                result.setModel(model);
+        } catch (IOException e) {
+            throw new IllegalStateException("can't restore the model of " + snapshot.getControllerClass(node), e);
+        }
+
+        String viewClass = snapshot.getViewClass(node);
+        if(viewClass != null) {
+            View view = factory.createView(viewClass);
+            if(view != null)
+                result.setView(view);
+            Rectangle bounds = snapshot.getViewBounds(node);
+            if(bounds != null && result.getView() instanceof SwingView)
+                ((SwingView)result.getView()).setViewBounds(bounds);
+        }
+
+        if(parent != null)
+            result.setParent(parent, materializedSiblingsBefore(parentIndex, node));
+        return result;
+    }
+
+    /**
+     * Materialize the saved children of a restored controller.
+     *
+     * @return false if the controller doesn't come from this session
+     */
+    public boolean materializeChildren(AbstractController value) {
+        Integer node = indices.get(value);
+        if(node == null)
+            return false;
+        for(int child = firstChild[node.intValue()]; child >= 0; child = nextSibling[child])
+            materialize(child);
+        return true;
+    }
+
+    /**
+     * Materialize whatever is left, on the thread that owns the trees. To
+     * keep the EDT responsive once the first window is up, call
+     * {@link #materialize} for a few nodes per event instead.
+     */
+    public void materializeAll() {
+        for(int i = 0; i < controllers.length; ++i)
+            materialize(i);
+    }
+
+    /**
+     * Show the views that were showing when the snapshot was taken.
+     */
+    public void showVisibleViews(ViewContext context) {
+        for(int i = 0; i < controllers.length; ++i) {
+            if(controllers[i] != null && snapshot.isVisible(i) && controllers[i].getView() != null)
+                context.showView(controllers[i].getView());
+        }
+    }
+
+    private int materializedSiblingsBefore(int parent, int node) {
+        int count = 0;
+        for(int sibling = firstChild[parent]; sibling >= 0 && sibling != node; sibling = nextSibling[sibling]) {
+            if(controllers[sibling] != null)
+                ++count;
+        }
+        return count;
+    }
+}
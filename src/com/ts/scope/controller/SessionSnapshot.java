@@ -0,0 +1,413 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.controller;
+
+import com.ts.scope.core.Controller;
+import com.ts.scope.core.View;
+import com.ts.scope.view.swing.SwingView;
+import java.awt.Component;
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <P>
+ *
+ * A compact binary snapshot of one or more controller trees: the controller
+ * and view classes, the view bounds, whether each view was showing and the
+ * encoded model of every controller. </P> <P>
+ *
+ * The file is a fixed size header, a table of fixed size node records in
+ * pre-order, a string table and the model blobs. Large snapshots are written
+ * and read through a memory mapped file, and model blobs are only decoded
+ * when their controller is materialized by a {@link RestoredSession}. </P>
+ *
+ * @author daibheid
+ */
+public final class SessionSnapshot {
+
+    /**
+     * Codec for models that implement Serializable.
+     */
+    public static final SnapshotCodec SERIALIZABLE_CODEC = new SnapshotCodec() {
+        public boolean canEncode(Object model) {
+            return model instanceof Serializable;
+        }
+
+        public void encode(Object model, DataOutput out) throws IOException {
+            ObjectOutputStream oos = new ObjectOutputStream(new DataOutputAdapter(out));
+            oos.writeObject(model);
+            oos.flush();
+        }
+
+        public Object decode(DataInput in) throws IOException {
+            ObjectInputStream ois = new ObjectInputStream(new DataInputAdapter(in));
+            try {
+                return ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("model class not found: " + e.getMessage(), e);
+            }
+        }
+    };
+
+    /**
+     * Factory that creates controllers and views through their no-argument
+     * constructors.
+     */
+    public static final SnapshotFactory REFLECTIVE_FACTORY = new SnapshotFactory() {
+        public AbstractController createController(String className) {
+            return (AbstractController)newInstance(className);
+        }
+
+        public View createView(String className) {
+            return (View)newInstance(className);
+        }
+    };
+
+    /**
+     * Snapshots at least this big are written and read through a mapped
+     * buffer rather than a heap buffer.
+     */
+    static final int MAPPED_THRESHOLD = 1 << 20;
+
+    static final int MAGIC = 0x54535353;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int NODE_SIZE = 44;
+
+    static final int VISIBLE = 1;
+    static final int HAS_BOUNDS = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final SnapshotCodec codec;
+    private final int nodeCount;
+    private final String[] strings;
+    private final long blobsOffset;
+
+    private SessionSnapshot(ByteBuffer buffer, SnapshotCodec codec) throws IOException {
+        this.buffer = buffer;
+        this.codec = codec;
+        if(buffer.getInt(0) != MAGIC)
+            throw new IOException("not a session snapshot");
+        if(buffer.getShort(4) != VERSION)
+            throw new IOException("unsupported snapshot version " + buffer.getShort(4));
+        nodeCount = buffer.getInt(8);
+        strings = new String[buffer.getInt(12)];
+        long stringsOffset = buffer.getLong(16);
+        blobsOffset = buffer.getLong(24);
+
+        ByteBuffer b = buffer.duplicate();
+        b.position((int)stringsOffset);
+        for(int i = 0; i < strings.length; ++i) {
+            byte[] bytes = new byte[b.getShort() & 0xFFFF];
+            b.get(bytes);
+            strings[i] = new String(bytes, UTF8);
+        }
+    }
+
+    /**
+     * Write a snapshot of the trees under the given roots.
+     *
+     * @param file The file to (over)write
+     * @param roots The top controllers of the trees to save
+     * @param codec Encodes the models; null to save structure and bounds only
+     */
+    public static void write(File file, List<? extends AbstractController> roots, SnapshotCodec codec) throws IOException {
+        if(file == null || roots == null)
+            throw new IllegalArgumentException("can't write a snapshot without a file and roots");
+
+        List<AbstractController> nodes = new ArrayList<AbstractController>();
+        List<Integer> parents = new ArrayList<Integer>();
+        for(AbstractController root : roots)
+            collect(root, -1, nodes, parents);
+
+        Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+        List<byte[]> stringBytes = new ArrayList<byte[]>();
+        byte[][] blobs = new byte[nodes.size()][];
+        long stringsSize = 0;
+        long blobsSize = 0;
+        for(int i = 0; i < nodes.size(); ++i) {
+            AbstractController node = nodes.get(i);
+            stringsSize += intern(node.getClass().getName(), stringIndex, stringBytes);
+            if(node.getView() != null)
+                stringsSize += intern(node.getView().getClass().getName(), stringIndex, stringBytes);
+            Object model = node.getModel();
+            if(codec != null && model != null && codec.canEncode(model)) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                codec.encode(model, out);
+                out.flush();
+                blobs[i] = bytes.toByteArray();
+                blobsSize += blobs[i].length;
+            }
+        }
+
+        long stringsOffset = HEADER_SIZE + (long)nodes.size() * NODE_SIZE;
+        long blobsOffset = stringsOffset + stringsSize;
+        long size = blobsOffset + blobsSize;
+        if(size > Integer.MAX_VALUE)
+            throw new IOException("snapshot too large: " + size + " bytes");
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer b = size >= MAPPED_THRESHOLD
+                    ? channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+                    : ByteBuffer.allocate((int)size);
+
+            b.putInt(MAGIC).putShort(VERSION).putShort((short)0);
+            b.putInt(nodes.size()).putInt(stringBytes.size());
+            b.putLong(stringsOffset).putLong(blobsOffset);
+
+            long blobPosition = 0;
+            for(int i = 0; i < nodes.size(); ++i) {
+                AbstractController node = nodes.get(i);
+                View view = node.getView();
+                Rectangle bounds = view instanceof SwingView ? ((SwingView)view).getViewBounds() : null;
+                int flags = 0;
+                if(view instanceof Component && ((Component)view).isShowing())
+                    flags |= VISIBLE;
+                if(bounds != null)
+                    flags |= HAS_BOUNDS;
+
+                b.putInt(parents.get(i).intValue());
+                b.putInt(stringIndex.get(node.getClass().getName()).intValue());
+                b.putInt(view == null ? -1 : stringIndex.get(view.getClass().getName()).intValue());
+                b.putInt(flags);
+                if(bounds != null)
+                    b.putInt(bounds.x).putInt(bounds.y).putInt(bounds.width).putInt(bounds.height);
+                else
+                    b.putInt(0).putInt(0).putInt(0).putInt(0);
+                if(blobs[i] != null) {
+                    b.putLong(blobPosition).putInt(blobs[i].length);
+                    blobPosition += blobs[i].length;
+                } else {
+                    b.putLong(-1).putInt(0);
+                }
+            }
+            for(byte[] s : stringBytes)
+                b.putShort((short)s.length).put(s);
+            for(byte[] blob : blobs) {
+                if(blob != null)
+                    b.put(blob);
+            }
+
+            if(!b.isDirect()) {
+                b.flip();
+                while(b.hasRemaining())
+                    channel.write(b);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Open a snapshot for restoring. Nothing is decoded beyond the string
+     * table until nodes are materialized.
+     *
+     * @param file The snapshot file
+     * @param codec The codec the snapshot was written with, or null to skip
+     *      the models
+     */
+    public static SessionSnapshot open(File file, SnapshotCodec codec) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if(size < HEADER_SIZE)
+                throw new IOException("not a session snapshot: " + file);
+            ByteBuffer b;
+            if(size >= MAPPED_THRESHOLD) {
+                b = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                b = ByteBuffer.allocate((int)size);
+                while(b.hasRemaining() && channel.read(b) >= 0)
+                    ;
+                b.flip();
+            }
+            return new SessionSnapshot(b, codec);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Restore the trees, materializing the roots and the controllers whose
+     * views were showing (with their ancestors) straight away and everything
+     * else on demand.
+     */
+    public RestoredSession restore(SnapshotFactory factory) {
+        if(factory == null)
+            throw new IllegalArgumentException("can't restore without a SnapshotFactory");
+        return new RestoredSession(this, factory);
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    int getParentIndex(int node) {
+        return buffer.getInt(record(node));
+    }
+
+    String getControllerClass(int node) {
+        return strings[buffer.getInt(record(node) + 4)];
+    }
+
+    String getViewClass(int node) {
+        int index = buffer.getInt(record(node) + 8);
+        return index < 0 ? null : strings[index];
+    }
+
+    boolean isVisible(int node) {
+        return (buffer.getInt(record(node) + 12) & VISIBLE) != 0;
+    }
+
+    Rectangle getViewBounds(int node) {
+        int r = record(node);
+        if((buffer.getInt(r + 12) & HAS_BOUNDS) == 0)
+            return null;
+        return new Rectangle(buffer.getInt(r + 16), buffer.getInt(r + 20),
+                buffer.getInt(r + 24), buffer.getInt(r + 28));
+    }
+
+    /**
+     * Decode the model of a node from its blob.
+     */
+    Object decodeModel(int node) throws IOException {
+        int r = record(node);
+        long offset = buffer.getLong(r + 32);
+        if(offset < 0 || codec == null)
+            return null;
+        ByteBuffer blob = buffer.duplicate();
+        blob.position((int)(blobsOffset + offset));
+        blob.limit(blob.position() + buffer.getInt(r + 40));
+        return codec.decode(new DataInputStream(new ByteBufferInputStream(blob.slice())));
+    }
+
+    private int record(int node) {
+        if(node < 0 || node >= nodeCount)
+            throw new IndexOutOfBoundsException("node " + node + " of " + nodeCount);
+        return HEADER_SIZE + node * NODE_SIZE;
+    }
+
+    private static void collect(AbstractController node, int parent, List<AbstractController> nodes, List<Integer> parents) {
+        int index = nodes.size();
+        nodes.add(node);
+        parents.add(Integer.valueOf(parent));
+        for(Iterator i = node.getChildren().iterator(); i.hasNext(); ) {
+            Controller child = (Controller)i.next();
+            if(child instanceof AbstractController)
+                collect((AbstractController)child, index, nodes, parents);
+        }
+    }
+
+    private static Object newInstance(String className) {
+        try {
+            return Class.forName(className).newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException("can't create " + className, e);
+        }
+    }
+
+    private static int intern(String s, Map<String, Integer> index, List<byte[]> bytes) {
+        if(index.containsKey(s))
+            return 0;
+        byte[] b = s.getBytes(UTF8);
+        index.put(s, Integer.valueOf(bytes.size()));
+        bytes.add(b);
+        return 2 + b.length;
+    }
+
+    static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if(!buffer.hasRemaining())
+                return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    static class DataOutputAdapter extends OutputStream {
+        private final DataOutput out;
+
+        DataOutputAdapter(DataOutput out) {
+            this.out = out;
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+    }
+
+    static class DataInputAdapter extends InputStream {
+        private final DataInput in;
+
+        DataInputAdapter(DataInput in) {
+            this.in = in;
+        }
+
+        public int read() throws IOException {
+            if(in instanceof InputStream)
+                return ((InputStream)in).read();
+            try {
+                return in.readUnsignedByte();
+            } catch (EOFException e) {
+                return -1;
+            }
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(in instanceof InputStream)
+                return ((InputStream)in).read(b, off, len);
+            return super.read(b, off, len);
+        }
+    }
+}
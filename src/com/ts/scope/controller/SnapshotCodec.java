@@ -0,0 +1,26 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.controller;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes controller models into a {@link SessionSnapshot}. Models the codec
+ * can't encode are left out of the snapshot and restored as null.
+ *
+ * @author daibheid
+ */
+public interface SnapshotCodec {
+
+    public boolean canEncode(Object model);
+
+    public void encode(Object model, DataOutput out) throws IOException;
+
+    public Object decode(DataInput in) throws IOException;
+}
@@ -0,0 +1,26 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.controller;
+
+import com.ts.scope.core.View;
+
+/**
+ * Creates the controllers and views named in a {@link SessionSnapshot} when
+ * they are restored.
+ *
+ * @author daibheid
+ */
+public interface SnapshotFactory {
+
+    public AbstractController createController(String className);
+
+    /**
+     * @return the view, or null to keep whatever view the controller made
+     *      for itself
+     */
+    public View createView(String className);
+}
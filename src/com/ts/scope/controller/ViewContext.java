@@ -6,21 +6,32 @@
 package com.ts.scope.controller;
 
 import com.ts.scope.core.View;
-import java.util.HashMap;
-import java.util.Map;
+import com.ts.scope.util.ConfigScope;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Class ViewContext
  *
+ * Properties may be read and changed from any thread; a context shared by
+ * many sessions needs no outside locking.
+ *
+ * A context may carry its own {@link ConfigScope}, so one workspace can tune
+ * the Scope config without touching the others.
+ *
  * @author daibheid
  */
 public abstract class ViewContext {
 
-    private static ViewContext globalContext;
+    private static volatile ViewContext globalContext;
     
     private static ThreadLocal localContext = new ThreadLocal();
     
-    private Map properties = new HashMap();
+    private final ConcurrentMap<String, Object> properties = new ConcurrentHashMap<String, Object>();
+    
+    private volatile ConfigScope config;
     
     public static ViewContext getViewContext() {
         ViewContext context = (ViewContext) localContext.get();
@@ -46,8 +57,41 @@ public abstract class ViewContext {
         localContext.set(null);
     }
     
+    /**
+     * @return the config of the current context, or the global one if there
+     *      is no context
+     */
+    public static ConfigScope getCurrentConfig() {
+        ViewContext context = getViewContext();
+        return context == null ? ConfigScope.getGlobal() : context.getConfig();
+    }
+    
+    /**
+     * @return the config scope of this context, or the global one if none
+     *      was set
+     */
+    public ConfigScope getConfig() {
+        ConfigScope result = config;
+        return result == null ? ConfigScope.getGlobal() : result;
+    }
+    
+    /**
+     * A null value makes the context read the global config.
+     */
+    public void setConfig(ConfigScope value) {
+        config = value;
+    }
+    
     public Object getProperty(String key) {
-        return properties.get(key);
+        return key == null ? null : properties.get(key);
+    }
+    
+    public int getPropertyCount() {
+        return properties.size();
+    }
+    
+    public List<String> getPropertyKeys() {
+        return new ArrayList<String>(properties.keySet());
     }
     
     public abstract void showView(View view);
@@ -62,14 +106,20 @@ public abstract class ViewContext {
     
     public abstract void stopProgress();
     
+    /**
+     * A null value removes the property.
+     */
     public void addProperty(String key, Object value) {
         if(key == null)
             throw new IllegalArgumentException("can't use a null key.");
-        properties.put(key, value);
+        if(value == null)
+            properties.remove(key);
+        else
+            properties.put(key, value);
     }
     
     public Object removeProperty(String key) {
-        return properties.remove(key);
+        return key == null ? null : properties.remove(key);
     }
     
     public void clearProperties() {
@@ -0,0 +1,123 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.controller.headless;
+
+import com.ts.scope.controller.ViewContext;
+import com.ts.scope.core.View;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <P>
+ *
+ * A ViewContext for batch jobs, servers and load tests, where there is no
+ * display to show anything on. Views, errors and progress are recorded in
+ * bounded lock-free {@link Journal}s instead, one for views, one for errors
+ * and one for progress and exit, so the same controllers can run unchanged
+ * and their effects can be checked afterwards. </P> <P>
+ *
+ * Every method may be called from any number of threads at once, and
+ * nothing is kept beyond the journals, not even the views, so a context can
+ * sit under a load test indefinitely. exit() only records the request; it
+ * never stops the VM. </P>
+ *
+ * @author daibheid
+ */
+public class HeadlessContext extends ViewContext {
+
+    public static final int DEFAULT_JOURNAL_CAPACITY = 1024;
+
+    private final Journal views;
+    private final Journal errors;
+    private final Journal progress;
+
+    private final AtomicInteger progressDepth = new AtomicInteger();
+
+    private volatile boolean exitRequested;
+
+    public HeadlessContext() {
+        this(DEFAULT_JOURNAL_CAPACITY);
+    }
+
+    /**
+     * @param journalCapacity The number of entries each journal keeps
+     */
+    public HeadlessContext(int journalCapacity) {
+        views = new Journal(journalCapacity);
+        errors = new Journal(journalCapacity);
+        progress = new Journal(journalCapacity);
+    }
+
+    public void showView(View view) {
+        if(view == null)
+            throw new IllegalArgumentException("can't show a null view");
+        views.record(Journal.SHOW_VIEW, describe(view), null);
+    }
+
+    public void hideView(View view) {
+        if(view == null)
+            return;
+        views.record(Journal.HIDE_VIEW, describe(view), null);
+    }
+
+    public void showError(String errorTitle, String errorMessage) {
+        errors.record(Journal.SHOW_ERROR, errorTitle, errorMessage);
+    }
+
+    public void exit() {
+        exitRequested = true;
+        progress.record(Journal.EXIT, null, null);
+    }
+
+    public void startProgress() {
+        progressDepth.incrementAndGet();
+        progress.record(Journal.START_PROGRESS, null, null);
+    }
+
+    public void stopProgress() {
+        if(progressDepth.decrementAndGet() < 0)
+            progressDepth.incrementAndGet();
+        progress.record(Journal.STOP_PROGRESS, null, null);
+    }
+
+    public Journal getViewJournal() {
+        return views;
+    }
+
+    public Journal getErrorJournal() {
+        return errors;
+    }
+
+    public Journal getProgressJournal() {
+        return progress;
+    }
+
+    public boolean isInProgress() {
+        return progressDepth.get() > 0;
+    }
+
+    public boolean isExitRequested() {
+        return exitRequested;
+    }
+
+    /**
+     * Forget everything recorded so far, for reuse between runs.
+     */
+    public void reset() {
+        views.clear();
+        errors.clear();
+        progress.clear();
+        progressDepth.set(0);
+        exitRequested = false;
+    }
+
+    /**
+     * Views are journalled by name so the journal doesn't keep them alive.
+     */
+    protected String describe(View view) {
+        return view.getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(view));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.controller.headless;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <P>
+ *
+ * A bounded, lock-free record of what a {@link HeadlessContext} was asked to
+ * do. Writers claim a sequence number with one atomic increment and publish
+ * their entry into the slot it maps to, overwriting the oldest; nothing
+ * blocks and nothing grows, however many threads record. </P> <P>
+ *
+ * {@link #getEntries} returns the entries still in the ring, oldest first.
+ * An entry being overwritten while it is read is skipped rather than
+ * returned out of order. </P>
+ *
+ * @author daibheid
+ */
+public final class Journal {
+
+    public static final int SHOW_VIEW = 0;
+    public static final int HIDE_VIEW = 1;
+    public static final int SHOW_ERROR = 2;
+    public static final int START_PROGRESS = 3;
+    public static final int STOP_PROGRESS = 4;
+    public static final int EXIT = 5;
+
+    private static final String[] KIND_NAMES = {
+        "showView", "hideView", "showError", "startProgress", "stopProgress", "exit"
+    };
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * @param capacity The number of entries kept, rounded up to a power of two
+     */
+    public Journal(int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("bad journal capacity " + capacity);
+        int size = 1;
+        while(size < capacity)
+            size <<= 1;
+        slots = new AtomicReferenceArray<Entry>(size);
+        mask = size - 1;
+    }
+
+    public void record(int kind, String subject, String detail) {
+        long sequence = next.getAndIncrement();
+        slots.lazySet((int)(sequence & mask), new Entry(sequence, kind, subject, detail));
+    }
+
+    /**
+     * @return the number of entries ever recorded, including overwritten ones
+     */
+    public long getRecordedCount() {
+        return next.get();
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    public List<Entry> getEntries() {
+        long end = next.get();
+        long start = Math.max(0, end - slots.length());
+        List<Entry> result = new ArrayList<Entry>((int)(end - start));
+        for(long s = start; s < end; ++s) {
+            Entry e = slots.get((int)(s & mask));
+            // not yet published, or already overwritten by a later lap
+            if(e != null && e.sequence == s)
+                result.add(e);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    public void clear() {
+        for(int i = 0; i < slots.length(); ++i)
+            slots.set(i, null);
+    }
+
+    public static String getKindName(int kind) {
+        return KIND_NAMES[kind];
+    }
+
+    public static final class Entry {
+        private final long sequence;
+        private final long nanoTime;
+        private final long threadId;
+        private final int kind;
+        private final String subject;
+        private final String detail;
+
+        Entry(long sequence, int kind, String subject, String detail) {
+            this.sequence = sequence;
+            this.nanoTime = System.nanoTime();
+            this.threadId = Thread.currentThread().getId();
+            this.kind = kind;
+            this.subject = subject;
+            this.detail = detail;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getNanoTime() {
+            return nanoTime;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public int getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the view, or the error title
+         */
+        public String getSubject() {
+            return subject;
+        }
+
+        /**
+         * @return the error message, or null
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            result.append('#').append(sequence).append(' ').append(KIND_NAMES[kind]);
+            if(subject != null)
+                result.append(' ').append(subject);
+            if(detail != null)
+                result.append(": ").append(detail);
+            return result.toString();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.controller.headless;
+
+import com.ts.scope.controller.AbstractController;
+import com.ts.scope.controller.ViewContext;
+import com.ts.scope.core.Controller;
+import com.ts.scope.util.LatencyHistogram;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <P>
+ *
+ * Measures how many controller operations per second the framework sustains.
+ * Each worker thread gets its own root controller and, in a loop, has it
+ * execute a fresh child which is then halted, with a shared
+ * {@link HeadlessContext} as the thread's ViewContext. After a warm-up the
+ * operations completed in the measured window are counted and each one's
+ * latency is recorded. </P> <P>
+ *
+ * Roots aren't shared between threads because controller trees aren't
+ * thread-safe; the context, the journals and anything the controllers share
+ * through their models are. </P>
+ *
+ * @author daibheid
+ */
+public class ThroughputHarness {
+
+    /**
+     * Creates the controllers the harness drives.
+     */
+    public interface ControllerFactory {
+
+        /**
+         * @param thread The worker, from 0
+         */
+        public AbstractController createRoot(int thread);
+
+        /**
+         * @param thread The worker, from 0
+         * @param iteration The operation number within the worker
+         */
+        public Controller createChild(int thread, long iteration);
+    }
+
+    private final HeadlessContext context;
+    private final ControllerFactory factory;
+
+    public ThroughputHarness(HeadlessContext context, ControllerFactory factory) {
+        if(context == null || factory == null)
+            throw new IllegalArgumentException("the harness needs a context and a factory");
+        this.context = context;
+        this.factory = factory;
+    }
+
+    public HeadlessContext getContext() {
+        return context;
+    }
+
+    /**
+     * Run the workers for warmupMillis, then count for measureMillis.
+     *
+     * @throws IllegalStateException if a worker's root can't be created;
+     *      the other workers are stopped first
+     */
+    public Result run(int threads, long warmupMillis, long measureMillis) throws InterruptedException {
+        if(threads < 1 || warmupMillis < 0 || measureMillis < 1)
+            throw new IllegalArgumentException("bad run of " + threads + " threads, " + warmupMillis + "/" + measureMillis + "ms");
+        final Phase phase = new Phase();
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final Worker[] workers = new Worker[threads];
+        Thread[] running = new Thread[threads];
+        for(int i = 0; i < threads; ++i) {
+            workers[i] = new Worker(i, phase, ready);
+            running[i] = new Thread(workers[i], "ThroughputHarness-" + i);
+            running[i].setDaemon(true);
+            running[i].start();
+        }
+        ready.await();
+        for(int i = 0; i < threads; ++i) {
+            if(workers[i].setupFailure != null) {
+                phase.state = Phase.STOP;
+                for(int j = 0; j < threads; ++j)
+                    running[j].join();
+                throw new IllegalStateException("can't create the root of worker " + i, workers[i].setupFailure);
+            }
+        }
+
+        phase.state = Phase.WARMUP;
+        Thread.sleep(warmupMillis);
+        long start = System.nanoTime();
+        phase.state = Phase.MEASURE;
+        Thread.sleep(measureMillis);
+        phase.state = Phase.STOP;
+        long elapsed = System.nanoTime() - start;
+        for(int i = 0; i < threads; ++i)
+            running[i].join();
+
+        return new Result(workers, elapsed);
+    }
+
+    static final class Phase {
+        static final int READY = 0;
+        static final int WARMUP = 1;
+        static final int MEASURE = 2;
+        static final int STOP = 3;
+
+        volatile int state = READY;
+    }
+
+    class Worker implements Runnable {
+        final int thread;
+        final Phase phase;
+        final CountDownLatch ready;
+        final LatencyHistogram latency = new LatencyHistogram();
+        long operations;
+        long failures;
+        Throwable firstFailure;
+        // set before the ready count down, so seen after the await
+        Throwable setupFailure;
+
+        Worker(int thread, Phase phase, CountDownLatch ready) {
+            this.thread = thread;
+            this.phase = phase;
+            this.ready = ready;
+        }
+
+        public void run() {
+            ViewContext.setThreadContext(context);
+            try {
+                AbstractController root;
+                try {
+                    root = factory.createRoot(thread);
+                } catch (RuntimeException e) {
+                    setupFailure = e;
+                    return;
+                } catch (Error e) {
+                    setupFailure = e;
+                    throw e;
+                } finally {
+                    ready.countDown();
+                }
+                while(phase.state == Phase.READY)
+                    Thread.yield();
+
+                long iteration = 0;
+                int state;
+                while((state = phase.state) != Phase.STOP) {
+                    long start = System.nanoTime();
+                    boolean ok = operate(root, iteration++);
+                    if(state == Phase.MEASURE) {
+                        latency.record(System.nanoTime() - start);
+                        if(ok)
+                            ++operations;
+                    }
+                }
+            } finally {
+                ViewContext.clearThreadContext();
+            }
+        }
+
+        private boolean operate(AbstractController root, long iteration) {
+            Controller child = null;
+            try {
+                child = factory.createChild(thread, iteration);
+                root.execute(child);
+                return true;
+            } catch (RuntimeException e) {
+                recordFailure(e);
+                return false;
+            } finally {
+                if(child instanceof AbstractController) {
+                    try {
+                        ((AbstractController)child).halt();
+                    } catch (RuntimeException e) {
+                        recordFailure(e);
+                    }
+                }
+            }
+        }
+
+        private void recordFailure(Throwable t) {
+            if(phase.state == Phase.MEASURE)
+                ++failures;
+            if(firstFailure == null)
+                firstFailure = t;
+        }
+    }
+
+    public static final class Result {
+        private final long elapsedNanos;
+        private final long[] operations;
+        private final long failures;
+        private final List<Throwable> firstFailures;
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Result(Worker[] workers, long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+            operations = new long[workers.length];
+            long failed = 0;
+            List<Throwable> thrown = new ArrayList<Throwable>();
+            for(int i = 0; i < workers.length; ++i) {
+                operations[i] = workers[i].operations;
+                failed += workers[i].failures;
+                if(workers[i].firstFailure != null)
+                    thrown.add(workers[i].firstFailure);
+                latency.add(workers[i].latency);
+            }
+            failures = failed;
+            firstFailures = Collections.unmodifiableList(thrown);
+        }
+
+        public int getThreadCount() {
+            return operations.length;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public long getOperations() {
+            long result = 0;
+            for(int i = 0; i < operations.length; ++i)
+                result += operations[i];
+            return result;
+        }
+
+        public long getOperations(int thread) {
+            return operations[thread];
+        }
+
+        public double getOperationsPerSecond() {
+            return getOperations() * 1e9 / elapsedNanos;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the first exception of each worker that had any
+         */
+        public List<Throwable> getFirstFailures() {
+            return firstFailures;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public String toString() {
+            return String.format("%d threads: %.0f ops/s (%d ops, %d failed) in %dms, latency %s",
+                    operations.length, getOperationsPerSecond(), getOperations(), failures,
+                    elapsedNanos / 1000000L, latency);
+        }
+    }
+}
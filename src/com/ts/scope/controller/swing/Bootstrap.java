@@ -0,0 +1,481 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.controller.swing;
+
+import com.ts.scope.controller.LeakDetector;
+import com.ts.scope.controller.ViewContext;
+import com.ts.scope.util.ScopeConfig;
+import com.ts.scope.view.swing.ImageCache;
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * Starts the application's startup work as a graph of stages: each stage
+ * runs, on a pool thread or on the EDT, as soon as the stages it depends on
+ * are done, so independent work such as loading the Scope config, warming up
+ * the toolkit and decoding the window icon overlaps instead of queueing
+ * behind the first <code>new SwingView()</code>. </P> <P>
+ *
+ * {@link #standard} has the framework's own stages; applications add theirs,
+ * typically views built once off screen so their classes and UI delegates
+ * are loaded, with {@link #addViewPrewarm}. Every stage is timed, and so is
+ * the first window shown, for {@link #report}. A stage that fails is logged
+ * and the stages depending on it are skipped. </P>
+ *
+ * @author daibheid
+ */
+public final class Bootstrap {
+
+    public static final String CONFIG = "config";
+    public static final String TOOLKIT = "toolkit";
+    public static final String LOOK_AND_FEEL = "lookAndFeel";
+    public static final String WINDOW_ICON = "windowIcon";
+    public static final String VIEW_CONTEXT = "viewContext";
+
+    private static final Log LOG = LogFactory.getLog(Bootstrap.class);
+
+    private static volatile Bootstrap current;
+
+    private final Map<String, Stage> stages = new LinkedHashMap<String, Stage>();
+
+    private CountDownLatch done;
+
+    private ExecutorService pool;
+
+    private volatile long startNanos;
+
+    private volatile long firstWindowNanos;
+
+
+    /**
+     * @return a bootstrap with the framework's stages: config, toolkit,
+     *      lookAndFeel, windowIcon and viewContext
+     */
+    public static Bootstrap standard() {
+        Bootstrap result = new Bootstrap();
+        result.addStage(CONFIG, new Runnable() {
+            public void run() {
+                ScopeConfig.getInstance();
+                // before any view or controller registers a listener
+                LeakDetector.install();
+            }
+        });
+        result.addStage(TOOLKIT, new Runnable() {
+            public void run() {
+                if (!GraphicsEnvironment.isHeadless()) {
+                    Toolkit.getDefaultToolkit().getScreenSize();
+                    GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+                }
+            }
+        });
+        result.addEdtStage(LOOK_AND_FEEL, new Runnable() {
+            public void run() {
+                // installs the look and feel and loads a first UI delegate and font
+                UIManager.getLookAndFeelDefaults();
+                new JLabel("Scope").getPreferredSize();
+            }
+        }, new String[] {CONFIG, TOOLKIT});
+        result.addStage(WINDOW_ICON, new Runnable() {
+            public void run() {
+                String path = ScopeConfig.getString(ScopeConfig.SWINGCONTEXT_WINDOW_ICON_PROPERTY);
+                if (path != null && path.length() > 0) {
+                    // shares its decode with the one the context starts
+                    ImageCache.getDefault().getImage(path);
+                }
+            }
+        }, new String[] {CONFIG});
+        result.addStage(VIEW_CONTEXT, new Runnable() {
+            public void run() {
+                if (ViewContext.getViewContext() == null) {
+                    ViewContext.setGlobalContext(new SwingContext());
+                }
+            }
+        }, new String[] {CONFIG});
+        return result;
+    }
+
+
+    /**
+     * @return the bootstrap started last, or null
+     */
+    public static Bootstrap getCurrent() {
+        return current;
+    }
+
+
+    /**
+     * Record that a window has been shown, for the time to first window.
+     * Called by the SwingContext.
+     */
+    public static void windowShown() {
+        Bootstrap b = current;
+        if (b != null && b.firstWindowNanos == 0) {
+            b.firstWindowNanos = System.nanoTime();
+        }
+    }
+
+
+    /**
+     * Add a stage run on a pool thread.
+     *
+     * @param inName The stage name, unique in this bootstrap
+     * @param inTask The work
+     * @param inDependsOn The stages that must be done first
+     */
+    public Bootstrap addStage(String inName, Runnable inTask, String[] inDependsOn) {
+        return add(new Stage(inName, inTask, inDependsOn, false));
+    }
+
+
+    public Bootstrap addStage(String inName, Runnable inTask) {
+        return addStage(inName, inTask, new String[0]);
+    }
+
+
+    /**
+     * Add a stage run on the EDT.
+     *
+     * @param inName The stage name, unique in this bootstrap
+     * @param inTask The work
+     * @param inDependsOn The stages that must be done first
+     */
+    public Bootstrap addEdtStage(String inName, Runnable inTask, String[] inDependsOn) {
+        return add(new Stage(inName, inTask, inDependsOn, true));
+    }
+
+
+    /**
+     * Add a task that warms up a view on the EDT once the look and feel and
+     * the view context are ready, eg. by building it once off screen.
+     *
+     * @param inName The stage name
+     * @param inTask The work
+     */
+    public Bootstrap addViewPrewarm(String inName, Runnable inTask) {
+        return addEdtStage(inName, inTask, new String[] {LOOK_AND_FEEL, VIEW_CONTEXT});
+    }
+
+
+    /**
+     * Start every stage whose dependencies are met, and the others as they
+     * become so.
+     *
+     * @return this bootstrap
+     * @throws IllegalArgumentException if a dependency is unknown or the
+     *      stages depend on each other in a cycle
+     */
+    public synchronized Bootstrap start() {
+        if (done != null) {
+            throw new IllegalStateException("bootstrap already started");
+        }
+        for (Stage s : stages.values()) {
+            for (int i = 0; i < s.dependsOn.length; i++) {
+                Stage d = stages.get(s.dependsOn[i]);
+                if (d == null) {
+                    throw new IllegalArgumentException("stage " + s.name + " depends on unknown stage " + s.dependsOn[i]);
+                }
+                d.dependents.add(s);
+            }
+            s.waitingFor.set(s.dependsOn.length);
+        }
+        checkAcyclic();
+
+        final AtomicInteger count = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable inTask) {
+                        Thread result = new Thread(inTask, "Bootstrap-" + count.incrementAndGet());
+                        result.setDaemon(true);
+                        return result;
+                    }
+                });
+        done = new CountDownLatch(stages.size());
+        startNanos = System.nanoTime();
+        current = this;
+        for (int pass = 0; pass < 2; pass++) {
+            for (Stage s : stages.values()) {
+                if (s.dependsOn.length == 0 && s.edt == (pass == 1)) {
+                    submit(s);
+                }
+            }
+        }
+        return this;
+    }
+
+
+    /**
+     * Wait for every stage.
+     *
+     * @return false if the time ran out first
+     */
+    public boolean await(long inMillis) throws InterruptedException {
+        if (done == null) {
+            throw new IllegalStateException("bootstrap not started");
+        }
+        return done.await(inMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Wait for one stage. Must not be called on the EDT for a stage waiting
+     * for an EDT stage.
+     *
+     * @return false if the time ran out first
+     */
+    public boolean await(String inStage, long inMillis) throws InterruptedException {
+        Stage s = stages.get(inStage);
+        if (s == null) {
+            throw new IllegalArgumentException("no stage " + inStage);
+        }
+        return s.finished.await(inMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * @return the stages in the order they were added
+     */
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(new ArrayList<Stage>(stages.values()));
+    }
+
+
+    /**
+     * @return the time from start to the first window shown, or -1 if none
+     *      was shown yet
+     */
+    public long getTimeToFirstWindowMillis() {
+        long shown = firstWindowNanos;
+        return shown == 0 ? -1 : (shown - startNanos) / 1000000L;
+    }
+
+
+    /**
+     * Gets a printable summary of the timings.
+     *
+     * @return The report
+     */
+    public String report() {
+        StringBuffer result = new StringBuffer();
+        for (Stage s : stages.values()) {
+            result.append(s).append('\n');
+        }
+        result.append("first window: ");
+        long first = getTimeToFirstWindowMillis();
+        result.append(first < 0 ? "not shown" : first + "ms");
+        return result.toString();
+    }
+
+
+    private Bootstrap add(Stage inStage) {
+        if (done != null) {
+            throw new IllegalStateException("bootstrap already started");
+        }
+        if (stages.containsKey(inStage.name)) {
+            throw new IllegalArgumentException("duplicate stage " + inStage.name);
+        }
+        stages.put(inStage.name, inStage);
+        return this;
+    }
+
+
+    private void checkAcyclic() {
+        // Kahn's algorithm on a copy of the counts
+        Map<Stage, Integer> waiting = new LinkedHashMap<Stage, Integer>();
+        List<Stage> ready = new ArrayList<Stage>();
+        for (Stage s : stages.values()) {
+            waiting.put(s, Integer.valueOf(s.dependsOn.length));
+            if (s.dependsOn.length == 0) {
+                ready.add(s);
+            }
+        }
+        int visited = 0;
+        while (!ready.isEmpty()) {
+            Stage s = ready.remove(ready.size() - 1);
+            visited++;
+            for (Stage d : s.dependents) {
+                int left = waiting.get(d).intValue() - 1;
+                waiting.put(d, Integer.valueOf(left));
+                if (left == 0) {
+                    ready.add(d);
+                }
+            }
+        }
+        if (visited != stages.size()) {
+            throw new IllegalArgumentException("the bootstrap stages depend on each other in a cycle");
+        }
+    }
+
+
+    private void submit(final Stage inStage) {
+        inStage.queuedNanos = System.nanoTime();
+        Runnable run = new Runnable() {
+            public void run() {
+                runStage(inStage);
+            }
+        };
+        if (inStage.edt) {
+            SwingUtilities.invokeLater(run);
+        } else {
+            pool.execute(run);
+        }
+    }
+
+
+    private void runStage(Stage inStage) {
+        inStage.thread = Thread.currentThread().getName();
+        inStage.startNanos = System.nanoTime();
+        if (inStage.skipped == null) {
+            try {
+                inStage.task.run();
+            } catch (Throwable t) {
+                inStage.failure = t;
+                LOG.error("bootstrap stage " + inStage.name + " failed", t);
+            }
+        }
+        inStage.endNanos = System.nanoTime();
+        inStage.finished.countDown();
+        done.countDown();
+        List<Stage> ready = new ArrayList<Stage>();
+        for (Stage d : inStage.dependents) {
+            if (inStage.failure != null || inStage.skipped != null) {
+                d.skipped = inStage.skipped != null ? inStage.skipped : inStage.name;
+            }
+            if (d.waitingFor.decrementAndGet() == 0) {
+                ready.add(d);
+            }
+        }
+        // pool stages first: the first invokeLater may have to start the EDT
+        for (int pass = 0; pass < 2; pass++) {
+            for (Stage d : ready) {
+                if (d.edt == (pass == 1)) {
+                    submit(d);
+                }
+            }
+        }
+        if (done.getCount() == 0) {
+            pool.shutdown();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(report());
+            }
+        }
+    }
+
+
+    /**
+     * One stage of the bootstrap and its timings, relative to the start.
+     */
+    public final class Stage {
+        private final String name;
+        private final Runnable task;
+        private final String[] dependsOn;
+        private final boolean edt;
+        private final List<Stage> dependents = new ArrayList<Stage>();
+        private final AtomicInteger waitingFor = new AtomicInteger();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile long queuedNanos;
+        private volatile long startNanos;
+        private volatile long endNanos;
+        private volatile String thread;
+        private volatile Throwable failure;
+        private volatile String skipped;
+
+        Stage(String inName, Runnable inTask, String[] inDependsOn, boolean inEdt) {
+            if (inName == null || inTask == null) {
+                throw new IllegalArgumentException("a stage needs a name and a task");
+            }
+            name = inName;
+            task = inTask;
+            dependsOn = inDependsOn.clone();
+            edt = inEdt;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDone() {
+            return finished.getCount() == 0;
+        }
+
+        /**
+         * @return when the dependencies were met, -1 if not yet
+         */
+        public long getReadyMillis() {
+            return millis(queuedNanos);
+        }
+
+        /**
+         * @return when the stage started running, -1 if not yet
+         */
+        public long getStartMillis() {
+            return millis(startNanos);
+        }
+
+        /**
+         * @return when the stage finished, -1 if not yet
+         */
+        public long getEndMillis() {
+            return millis(endNanos);
+        }
+
+        /**
+         * @return the time the stage ran, -1 if not done
+         */
+        public long getDurationMillis() {
+            return endNanos == 0 ? -1 : (endNanos - startNanos) / 1000000L;
+        }
+
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return the failed stage this one was skipped for, or null
+         */
+        public String getSkippedFor() {
+            return skipped;
+        }
+
+        private long millis(long inNanos) {
+            return inNanos == 0 ? -1 : (inNanos - Bootstrap.this.startNanos) / 1000000L;
+        }
+
+        public String toString() {
+            StringBuffer result = new StringBuffer(name);
+            if (!isDone()) {
+                return result.append(": not done").toString();
+            }
+            result.append(": ready ").append(getReadyMillis()).append("ms, ran ").append(getStartMillis())
+                    .append("-").append(getEndMillis()).append("ms on ").append(thread);
+            if (failure != null) {
+                result.append(", failed: ").append(failure);
+            }
+            if (skipped != null) {
+                result.append(", skipped: ").append(skipped).append(" failed");
+            }
+            return result.toString();
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.controller.swing;
+
+import com.ts.common.AbstractBean;
+import com.ts.common.BeanMonitorAdapter;
+import com.ts.scope.util.LatencyHistogram;
+import com.ts.scope.util.ScopeConfig;
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * Watches the event-dispatch thread. Instrumented operations record their
+ * latency into a {@link LatencyHistogram} per operation, and a daemon thread
+ * samples the stack of the EDT whenever the operation it is running has taken
+ * longer than the configured threshold. </P> <P>
+ *
+ * The watchdog is switched on with the Scope property
+ * 'org.scopemvc.controller.swing.EdtWatchdog.enabled'. {@link #ENABLED} is a
+ * static final read once, so the JIT removes guarded call sites when it is
+ * off. When on, every event on the system event queue and every
+ * {@link AbstractBean} listener dispatch is timed as well. </P>
+ *
+ * @author daibheid
+ */
+public final class EdtWatchdog {
+
+    /**
+     * The property in ScopeConfig that switches the watchdog on, true or
+     * false. Default: false
+     */
+    public static final String ENABLED_PROPERTY =
+            "org.scopemvc.controller.swing.EdtWatchdog.enabled";
+
+    /**
+     * The property in ScopeConfig for the time an EDT operation may run
+     * before its stack is sampled, value in milliseconds. Default: 200
+     */
+    public static final String THRESHOLD_PROPERTY =
+            "org.scopemvc.controller.swing.EdtWatchdog.threshold";
+
+    public static final boolean ENABLED =
+            Boolean.valueOf(ScopeConfig.getString(ENABLED_PROPERTY)).booleanValue();
+
+    /**
+     * Operation name used for events dispatched by the system event queue
+     */
+    public static final String EVENT_DISPATCH = "EventQueue.dispatchEvent";
+
+    private static final Log LOG = LogFactory.getLog(EdtWatchdog.class);
+
+    private static final long DEFAULT_THRESHOLD = 200;
+
+    private static final int MAX_SAMPLES = 64;
+
+    private static final int MAX_NESTING = 32;
+
+    private static final ConcurrentMap<String, LatencyHistogram> HISTOGRAMS =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private static final ConcurrentMap<String, LatencyHistogram> DISPATCH_HISTOGRAMS =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private static final AtomicReferenceArray<Sample> SAMPLES = new AtomicReferenceArray<Sample>(MAX_SAMPLES);
+    private static final AtomicInteger SAMPLE_COUNT = new AtomicInteger();
+
+    private static volatile long thresholdNanos;
+
+    // Written by the EDT, read by the sampler
+    private static volatile Thread edt;
+    private static volatile Object runningOperation;
+    private static volatile long runningSince;
+    private static final Object[] nesting = new Object[MAX_NESTING];
+    private static int depth;
+
+    static {
+        if (ENABLED) {
+            Integer threshold = ScopeConfig.getInteger(THRESHOLD_PROPERTY);
+            setThresholdMillis(threshold == null ? DEFAULT_THRESHOLD : threshold.longValue());
+            start();
+        }
+    }
+
+    private EdtWatchdog() { }
+
+
+    /**
+     * Mark the start of an operation. Guard calls with {@link #ENABLED}.
+     * Operations may nest; a stall is reported against the innermost one and
+     * timed from the outermost.
+     *
+     * @param inOperation The operation name
+     * @return The start time to pass to {@link #end}
+     */
+    public static long begin(Object inOperation) {
+        long now = System.nanoTime();
+        if (isEdt()) {
+            if (depth < MAX_NESTING) {
+                nesting[depth] = inOperation;
+            }
+            if (depth++ == 0) {
+                runningSince = now;
+            }
+            runningOperation = inOperation;
+        }
+        return now;
+    }
+
+
+    /**
+     * Mark the end of an operation started with {@link #begin}.
+     *
+     * @param inOperation The operation name
+     * @param inStart The value returned by begin
+     */
+    public static void end(String inOperation, long inStart) {
+        getHistogram(inOperation).record(System.nanoTime() - inStart);
+        leave();
+    }
+
+
+    /**
+     * Wrap a task that will run on the EDT so it is timed as an operation.
+     *
+     * @param inOperation The operation name
+     * @param inTask The task
+     * @return The task itself when the watchdog is off
+     */
+    public static Runnable wrap(final String inOperation, final Runnable inTask) {
+        if (!ENABLED) {
+            return inTask;
+        }
+        return new Runnable() {
+            public void run() {
+                long start = begin(inOperation);
+                try {
+                    inTask.run();
+                } finally {
+                    end(inOperation, start);
+                }
+            }
+        };
+    }
+
+
+    /**
+     * Gets the histogram of an operation, creating it if needed.
+     *
+     * @param inOperation The operation name
+     * @return The histogram
+     */
+    public static LatencyHistogram getHistogram(String inOperation) {
+        return histogram(HISTOGRAMS, inOperation);
+    }
+
+
+    /**
+     * Gets the histograms of listener dispatch per property name.
+     *
+     * @return A sorted copy of the property name to histogram map
+     */
+    public static Map<String, LatencyHistogram> getDispatchHistograms() {
+        return new TreeMap<String, LatencyHistogram>(DISPATCH_HISTOGRAMS);
+    }
+
+
+    /**
+     * Gets the histograms of all instrumented operations.
+     *
+     * @return A sorted copy of the operation to histogram map
+     */
+    public static Map<String, LatencyHistogram> getHistograms() {
+        return new TreeMap<String, LatencyHistogram>(HISTOGRAMS);
+    }
+
+
+    /**
+     * Gets the most recent stack samples of the EDT, oldest first.
+     *
+     * @return The samples
+     */
+    public static List<Sample> getSamples() {
+        int count = SAMPLE_COUNT.get();
+        List<Sample> result = new ArrayList<Sample>();
+        for (int i = Math.max(0, count - MAX_SAMPLES); i < count; i++) {
+            Sample s = SAMPLES.get(i % MAX_SAMPLES);
+            if (s != null) {
+                result.add(s);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+
+    public static long getThresholdMillis() {
+        return thresholdNanos / 1000000L;
+    }
+
+
+    public static void setThresholdMillis(long inMillis) {
+        if (inMillis < 1) {
+            throw new IllegalArgumentException("threshold must be at least 1ms: " + inMillis);
+        }
+        thresholdNanos = inMillis * 1000000L;
+    }
+
+
+    /**
+     * Gets a printable summary of every histogram.
+     *
+     * @return The report
+     */
+    public static String report() {
+        StringBuffer result = new StringBuffer();
+        for (Map.Entry<String, LatencyHistogram> e : getHistograms().entrySet()) {
+            result.append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+        }
+        for (Map.Entry<String, LatencyHistogram> e : getDispatchHistograms().entrySet()) {
+            result.append("dispatch ").append(e.getKey()).append(": ").append(e.getValue()).append('\n');
+        }
+        result.append("samples over ").append(getThresholdMillis()).append("ms: ").append(SAMPLE_COUNT.get());
+        return result.toString();
+    }
+
+
+    private static void leave() {
+        if (Thread.currentThread() != edt || depth == 0) {
+            return;
+        }
+        if (--depth < MAX_NESTING) {
+            nesting[depth] = null;
+        }
+        if (depth == 0) {
+            runningSince = 0;
+            runningOperation = null;
+        } else {
+            runningOperation = nesting[Math.min(depth, MAX_NESTING) - 1];
+        }
+    }
+
+
+    private static boolean isEdt() {
+        Thread current = Thread.currentThread();
+        if (current == edt) {
+            return true;
+        }
+        if (EventQueue.isDispatchThread()) {
+            // The EDT is replaced after an uncaught exception or going idle
+            edt = current;
+            depth = 0;
+            return true;
+        }
+        return false;
+    }
+
+
+    private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> inMap, String inKey) {
+        LatencyHistogram result = inMap.get(inKey);
+        if (result == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            result = inMap.putIfAbsent(inKey, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+
+    private static void start() {
+        AbstractBean.addMonitor(new DispatchTimer());
+        if (!GraphicsEnvironment.isHeadless()) {
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(new TimingEventQueue());
+        }
+        Thread sampler = new Thread(new Sampler(), "EdtWatchdog");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+
+    /**
+     * A stack of the EDT taken while an operation overran the threshold.
+     */
+    public static final class Sample {
+        private final long timeMillis;
+        private final String operation;
+        private final long elapsedNanos;
+        private final StackTraceElement[] stack;
+
+        Sample(String inOperation, long inElapsedNanos, StackTraceElement[] inStack) {
+            timeMillis = System.currentTimeMillis();
+            operation = inOperation;
+            elapsedNanos = inElapsedNanos;
+            stack = inStack;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public StackTraceElement[] getStack() {
+            return stack.clone();
+        }
+
+        public String toString() {
+            StringBuffer result = new StringBuffer();
+            result.append("EDT blocked in ").append(operation).append(" for ")
+                    .append(elapsedNanos / 1000000L).append("ms");
+            for (int i = 0; i < stack.length; i++) {
+                result.append("\n\tat ").append(stack[i]);
+            }
+            return result.toString();
+        }
+    }
+
+
+    static class Sampler implements Runnable {
+        public void run() {
+            long reportedSince = 0;
+            while (true) {
+                try {
+                    Thread.sleep(Math.max(10, getThresholdMillis() / 2));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long since = runningSince;
+                Object operation = runningOperation;
+                Thread thread = edt;
+                if (since == 0 || thread == null) {
+                    continue;
+                }
+                long elapsed = System.nanoTime() - since;
+                if (elapsed < thresholdNanos) {
+                    continue;
+                }
+                Sample sample = new Sample(describe(operation), elapsed, thread.getStackTrace());
+                SAMPLES.set(SAMPLE_COUNT.getAndIncrement() % MAX_SAMPLES, sample);
+                if (since != reportedSince) {
+                    reportedSince = since;
+                    LOG.warn(sample);
+                }
+            }
+        }
+
+        private static String describe(Object inOperation) {
+            if (inOperation instanceof PropertyChangeEvent) {
+                PropertyChangeEvent e = (PropertyChangeEvent) inOperation;
+                return "dispatch of '" + e.getPropertyName() + "' from " + e.getSource().getClass().getName();
+            }
+            return String.valueOf(inOperation);
+        }
+    }
+
+
+    static class DispatchTimer extends BeanMonitorAdapter {
+        public void dispatchStarted(AbstractBean inSource, PropertyChangeEvent inEvent) {
+            begin(inEvent);
+        }
+
+        public void dispatchFinished(AbstractBean inSource, PropertyChangeEvent inEvent, long inElapsedNanos) {
+            String name = inEvent.getPropertyName();
+            histogram(DISPATCH_HISTOGRAMS, name == null ? "*" : name).record(inElapsedNanos);
+            leave();
+        }
+    }
+
+
+    static class TimingEventQueue extends EventQueue {
+        protected void dispatchEvent(AWTEvent inEvent) {
+            long start = begin(EVENT_DISPATCH);
+            try {
+                super.dispatchEvent(inEvent);
+            } finally {
+                end(EVENT_DISPATCH, start);
+            }
+        }
+    }
+}
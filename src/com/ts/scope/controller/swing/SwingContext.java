@@ -38,6 +38,8 @@
 package com.ts.scope.controller.swing;
 
 
+import com.ts.scope.util.FlightEvents;
+import com.ts.scope.view.swing.ImageCache;
 import java.awt.BorderLayout;
 import java.awt.Container;
 import java.awt.Cursor;
@@ -65,7 +67,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.scopemvc.core.View;
 import org.scopemvc.util.Debug;
-import org.scopemvc.util.ResourceLoader;
 import org.scopemvc.util.ScopeConfig;
 import org.scopemvc.view.awt.AWTUtilities;
 import org.scopemvc.view.swing.SMenuItem;
@@ -99,6 +100,17 @@ public class SwingContext extends ViewContext {
     public static final String PROGRESS_START_DELAY_PROPERTY =
             "org.scopemvc.controller.swing.SwingContext.progress_start_delay";
 
+    /**
+     * Names of the operations timed by the {@link EdtWatchdog}
+     */
+    public static final String OP_SHOW_VIEW = "SwingContext.showView";
+    public static final String OP_HIDE_VIEW = "SwingContext.hideView";
+    public static final String OP_HIDE_ALL_VIEWS = "SwingContext.hideAllViews";
+    public static final String OP_SETUP_WINDOW = "SwingContext.setupWindow";
+    public static final String OP_SHOW_ERROR = "SwingContext.showError";
+    public static final String OP_SHOW_WINDOW = "SwingContext.showWindow";
+    public static final String OP_HIDE_WINDOW = "SwingContext.hideWindow";
+
     private static final Log LOG = LogFactory.getLog(SwingContext.class);
 
     private static final long PROGRESS_START_DELAY =
@@ -133,7 +145,13 @@ public class SwingContext extends ViewContext {
     /**
      * Constructor for the SwingContext object
      */
-    public SwingContext() { }
+    public SwingContext() {
+        // decode the window icon before the first window needs it
+        String iconPath = getDefaultWindowIconPath();
+        if (iconPath != null) {
+            ImageCache.getDefault().load(iconPath, 1);
+        }
+    }
 
 
     /**
@@ -200,6 +218,29 @@ public class SwingContext extends ViewContext {
      * @param inView The view to show. Must be a subclass of SwingView
      */
     public void showView(View inView) {
+        if (!EdtWatchdog.ENABLED && !FlightEvents.VIEW_SHOW.isEnabled()) {
+            showViewImpl(inView);
+            return;
+        }
+        Object event = FlightEvents.VIEW_SHOW.begin();
+        long start = EdtWatchdog.ENABLED ? EdtWatchdog.begin(OP_SHOW_VIEW) : 0L;
+        try {
+            showViewImpl(inView);
+        } finally {
+            if (EdtWatchdog.ENABLED) {
+                EdtWatchdog.end(OP_SHOW_VIEW, start);
+            }
+            FlightEvents.VIEW_SHOW.commitView(event, inView);
+        }
+    }
+
+
+    /**
+     * Does the work of {@link #showView}.
+     *
+     * @param inView The view to show. Must be a subclass of SwingView
+     */
+    protected void showViewImpl(View inView) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("showView: " + inView);
         }
@@ -249,6 +290,29 @@ public class SwingContext extends ViewContext {
      * @param inView The view to hide. Must be a subclass of SwingView
      */
     public void hideView(View inView) {
+        if (!EdtWatchdog.ENABLED && !FlightEvents.VIEW_HIDE.isEnabled()) {
+            hideViewImpl(inView);
+            return;
+        }
+        Object event = FlightEvents.VIEW_HIDE.begin();
+        long start = EdtWatchdog.ENABLED ? EdtWatchdog.begin(OP_HIDE_VIEW) : 0L;
+        try {
+            hideViewImpl(inView);
+        } finally {
+            if (EdtWatchdog.ENABLED) {
+                EdtWatchdog.end(OP_HIDE_VIEW, start);
+            }
+            FlightEvents.VIEW_HIDE.commitView(event, inView);
+        }
+    }
+
+
+    /**
+     * Does the work of {@link #hideView}.
+     *
+     * @param inView The view to hide. Must be a subclass of SwingView
+     */
+    protected void hideViewImpl(View inView) {
         if (!(inView instanceof SwingView)) {
             throw new IllegalArgumentException("Can only hide SwingViews: " + inView);
         }
@@ -280,10 +344,17 @@ public class SwingContext extends ViewContext {
      * Hide all open Views.
      */
     public void hideAllViews() {
-        synchronized (rootpanes) {
-            while (!rootpanes.isEmpty()) {
-                JRootPane rootpane = (JRootPane) rootpanes.getLast();
-                hideRootPane(rootpane);
+        long start = EdtWatchdog.ENABLED ? EdtWatchdog.begin(OP_HIDE_ALL_VIEWS) : 0L;
+        try {
+            synchronized (rootpanes) {
+                while (!rootpanes.isEmpty()) {
+                    JRootPane rootpane = (JRootPane) rootpanes.getLast();
+                    hideRootPane(rootpane);
+                }
+            }
+        } finally {
+            if (EdtWatchdog.ENABLED) {
+                EdtWatchdog.end(OP_HIDE_ALL_VIEWS, start);
             }
         }
     }
@@ -299,6 +370,18 @@ public class SwingContext extends ViewContext {
     }
 
 
+    /**
+     * How many Frames and Dialogs are open?
+     *
+     * @return the number of tracked rootpanes
+     */
+    public int getOpenRootPaneCount() {
+        synchronized (rootpanes) {
+            return rootpanes.size();
+        }
+    }
+
+
     // ----------------- Message boxes ----------------
 
     /**
@@ -312,7 +395,7 @@ public class SwingContext extends ViewContext {
             LOG.debug("showError: " + inErrorTitle + ", " + inErrorMessage);
         }
 
-        SwingUtil.runFromSwingEventThread(
+        SwingUtil.runFromSwingEventThread(EdtWatchdog.wrap(OP_SHOW_ERROR,
             new Runnable() {
                 public void run() {
                     if (LOG.isDebugEnabled()) {
@@ -321,7 +404,7 @@ public class SwingContext extends ViewContext {
                     JOptionPane.showMessageDialog(getFocussedRootPane(), inErrorMessage, inErrorTitle,
                             JOptionPane.ERROR_MESSAGE);
                 }
-            });
+            }));
     }
 
 
@@ -373,7 +456,8 @@ public class SwingContext extends ViewContext {
      * running. <br>
      * In the SwingContext, the progress indicator is a wait cursor, and it is
      * displayed after a delay of n milliseconds defined in the Scope property
-     * 'org.scopemvc.controller.swing.SwingContext.progress_start_delay'
+     * 'org.scopemvc.controller.swing.SwingContext.progress_start_delay', as
+     * seen from the config scope of this context
      */
     public void startProgress() {
         if (task != null) {
@@ -385,7 +469,8 @@ public class SwingContext extends ViewContext {
                     getDefaultParentWindow().setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
                 }
             };
-        progressStartTimer.schedule(task, PROGRESS_START_DELAY);
+        Integer delay = getConfig().getInteger(PROGRESS_START_DELAY_PROPERTY);
+        progressStartTimer.schedule(task, delay == null ? PROGRESS_START_DELAY : delay.longValue());
     }
 
 
@@ -472,7 +557,7 @@ public class SwingContext extends ViewContext {
         if (sharedNullFrame == null) {
             try {
                 sharedNullFrame = new NullFrame();
-                sharedNullFrame.setIconImage(getDefaultWindowIcon());
+                setWindowIcon(sharedNullFrame);
                 AWTUtilities.centreOnScreen(sharedNullFrame);
             } catch (UnsupportedOperationException ignore) {
                 // thrown by JDK 1.4
@@ -487,18 +572,20 @@ public class SwingContext extends ViewContext {
      * The icon is initialised from the property
      * 'org.scopemvc.controller.swing.SwingContext.window_icon' defined in the
      * Scope configuration. This property should contain the location of the
-     * icon resource. The icon is loaded with the ResourceLoader.
+     * icon resource. The icon is decoded once, in the background, and then
+     * shared through the {@link ImageCache}. Until then this returns the
+     * cache's placeholder on the EDT.
      *
      * @return The defaultWindowIcon value
-     * @see org.scopemvc.util.ResourceLoader
+     * @see ImageCache
      */
     protected Image getDefaultWindowIcon() {
-        String iconPath = ScopeConfig.getString("org.scopemvc.controller.swing.SwingContext.window_icon");
-        if (iconPath == null || iconPath.length() < 1) {
+        String iconPath = getDefaultWindowIconPath();
+        if (iconPath == null) {
             return null;
         }
         try {
-            return ResourceLoader.getImage(iconPath);
+            return ImageCache.getDefault().getImage(iconPath);
         } catch (RuntimeException e) {
             LOG.warn("getDefaultWindowIconPath: (" + iconPath + ")", e);
             return null;
@@ -506,6 +593,35 @@ public class SwingContext extends ViewContext {
     }
 
 
+    private static String getDefaultWindowIconPath() {
+        String iconPath = ScopeConfig.getString("org.scopemvc.controller.swing.SwingContext.window_icon");
+        return iconPath == null || iconPath.length() < 1 ? null : iconPath;
+    }
+
+
+    /**
+     * Give a frame the default icon. A frame shown while the icon is still
+     * being decoded gets the placeholder, and the icon once it is ready.
+     */
+    private void setWindowIcon(final Frame inFrame) {
+        Image icon = getDefaultWindowIcon();
+        if (icon != null) {
+            inFrame.setIconImage(icon);
+        }
+        String iconPath = getDefaultWindowIconPath();
+        if (iconPath == null || (icon != null && icon != ImageCache.getDefault().getPlaceholder())) {
+            return;
+        }
+        ImageCache.getDefault().load(iconPath, 1, new ImageCache.Callback() {
+            public void imageLoaded(String inPath, double inScale, Image inImage) {
+                if (inImage != null) {
+                    inFrame.setIconImage(inImage);
+                }
+            }
+        });
+    }
+
+
     /**
      * <p>
      *
@@ -609,6 +725,32 @@ public class SwingContext extends ViewContext {
      *      parent window
      */
     protected void setupWindow(JRootPane inRootPane, SwingView inView, boolean inCentreWindow) {
+        if (!EdtWatchdog.ENABLED && !FlightEvents.WINDOW_SETUP.isEnabled()) {
+            setupWindowImpl(inRootPane, inView, inCentreWindow);
+            return;
+        }
+        Object event = FlightEvents.WINDOW_SETUP.begin();
+        long start = EdtWatchdog.ENABLED ? EdtWatchdog.begin(OP_SETUP_WINDOW) : 0L;
+        try {
+            setupWindowImpl(inRootPane, inView, inCentreWindow);
+        } finally {
+            if (EdtWatchdog.ENABLED) {
+                EdtWatchdog.end(OP_SETUP_WINDOW, start);
+            }
+            FlightEvents.WINDOW_SETUP.commitView(event, inView);
+        }
+    }
+
+
+    /**
+     * Does the work of {@link #setupWindow}.
+     *
+     * @param inRootPane The RootPane where to add the View
+     * @param inView The View to setup
+     * @param inCentreWindow If true, centre the window on the screen or on its
+     *      parent window
+     */
+    protected void setupWindowImpl(JRootPane inRootPane, SwingView inView, boolean inCentreWindow) {
 
         Container c = inRootPane.getParent();
         if (Debug.ON) {
@@ -660,12 +802,13 @@ public class SwingContext extends ViewContext {
         }
 
         // Display safely from event queue
-        SwingUtil.runFromSwingEventThread(
+        SwingUtil.runFromSwingEventThread(EdtWatchdog.wrap(OP_SHOW_WINDOW,
             new Runnable() {
                 public void run() {
                     window.setVisible(true);
+                    Bootstrap.windowShown();
                 }
-            });
+            }));
     }
 
 
@@ -699,12 +842,12 @@ public class SwingContext extends ViewContext {
      * @param inWindow The window to close
      */
     protected void hideWindow(final Window inWindow) {
-        SwingUtil.runFromSwingEventThread(
+        SwingUtil.runFromSwingEventThread(EdtWatchdog.wrap(OP_HIDE_WINDOW,
             new Runnable() {
                 public void run() {
                     inWindow.dispose();
                 }
-            });
+            }));
     }
 
     /**
@@ -763,10 +906,7 @@ public class SwingContext extends ViewContext {
             frame.setTitle(inView.getTitle());
         }
         // All JFrames take the same icon
-        Image icon = getDefaultWindowIcon();
-        if (icon != null) {
-            frame.setIconImage(icon);
-        }
+        setWindowIcon(frame);
         frame.setResizable(inView.isResizable());
 
         setupWindow(frame.getRootPane(), inView, false);
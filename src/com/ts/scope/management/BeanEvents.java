@@ -0,0 +1,214 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.management;
+
+import com.ts.common.AbstractBean;
+import com.ts.common.BeanMonitor;
+import com.ts.common.DirtyListener;
+import com.ts.scope.util.StripedCounter;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class BeanEvents: counts listener registrations per bean class and fires
+ * per property in striped counters, so beans firing on many threads don't
+ * serialize on the statistics. Fire rates are sampled every second by a
+ * daemon timer, so any number of clients can poll them.
+ *
+ * @author daibheid
+ */
+class BeanEvents implements BeanEventsMXBean, BeanMonitor {
+
+    private static final String ANY_PROPERTY = "*";
+
+    private static final long SAMPLE_MILLIS = 1000;
+
+    private final ConcurrentMap<Class, StripedCounter> listeners = new ConcurrentHashMap<Class, StripedCounter>();
+    private final ConcurrentMap<String, StripedCounter> fires = new ConcurrentHashMap<String, StripedCounter>();
+
+    // bean -> its listeners counted; a bean is seeded with the listeners it
+    // has when first seen, which takes those registered before install
+    private final ConcurrentMap<IdentityKey, IdentityKey> counted = new ConcurrentHashMap<IdentityKey, IdentityKey>();
+    private final ReferenceQueue<AbstractBean> collected = new ReferenceQueue<AbstractBean>();
+
+    // guarded by this; the counts at the last sample
+    private final Map<String, Long> lastCounts = new HashMap<String, Long>();
+    private long lastRateNanos = System.nanoTime();
+
+    private volatile Map<String, Double> rates = Collections.emptyMap();
+
+    private final Timer sampler = new Timer("BeanEvents", true);
+
+    BeanEvents() {
+        sampler.schedule(new TimerTask() {
+            public void run() {
+                sample();
+            }
+        }, SAMPLE_MILLIS, SAMPLE_MILLIS);
+    }
+
+    void stop() {
+        sampler.cancel();
+    }
+
+    public void dispatchStarted(AbstractBean source, PropertyChangeEvent event) {
+        String name = event.getPropertyName();
+        counter(fires, name == null ? ANY_PROPERTY : name).increment();
+    }
+
+    public void dispatchFinished(AbstractBean source, PropertyChangeEvent event, long elapsedNanos) {
+    }
+
+    public void listenerAdded(AbstractBean source, String propertyName, PropertyChangeListener listener) {
+        count(source, 1);
+    }
+
+    public void listenerRemoved(AbstractBean source, String propertyName, PropertyChangeListener listener) {
+        count(source, -1);
+    }
+
+    public void dirtyListenerAdded(AbstractBean source, DirtyListener listener) {
+        // counts are of property change listeners
+    }
+
+    public void dirtyListenerRemoved(AbstractBean source, DirtyListener listener) {
+    }
+
+    public Map<String, Long> getListenerCounts() {
+        expunge();
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for(Map.Entry<Class, StripedCounter> e : listeners.entrySet())
+            result.put(e.getKey().getName(), Long.valueOf(e.getValue().sum()));
+        return result;
+    }
+
+    public Map<String, Long> getFireCounts() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for(Map.Entry<String, StripedCounter> e : fires.entrySet())
+            result.put(e.getKey(), Long.valueOf(e.getValue().sum()));
+        return result;
+    }
+
+    public Map<String, Double> getFireRates() {
+        return rates;
+    }
+
+    synchronized void sample() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - lastRateNanos) / 1e9;
+        lastRateNanos = now;
+        Map<String, Double> result = new TreeMap<String, Double>();
+        for(Map.Entry<String, Long> e : getFireCounts().entrySet()) {
+            Long last = lastCounts.put(e.getKey(), e.getValue());
+            long delta = e.getValue().longValue() - (last == null ? 0 : last.longValue());
+            result.put(e.getKey(), Double.valueOf(Math.max(0, delta) / seconds));
+        }
+        rates = Collections.unmodifiableMap(result);
+    }
+
+    public long getTotalFires() {
+        long result = 0;
+        for(StripedCounter counter : fires.values())
+            result += counter.sum();
+        return result;
+    }
+
+    public synchronized void resetFireCounts() {
+        for(StripedCounter counter : fires.values())
+            counter.reset();
+        lastCounts.clear();
+        lastRateNanos = System.nanoTime();
+    }
+
+    /**
+     * Count a registration. The first time a bean is seen its listeners are
+     * counted in full, this one included, so those registered before install
+     * aren't lost; after that a registration costs a map lookup and two
+     * increments. A registration racing with the first sighting of its bean
+     * may be counted twice.
+     */
+    private void count(AbstractBean source, int delta) {
+        IdentityKey key = counted.get(new IdentityKey(source, null));
+        if(key == null) {
+            expunge();
+            IdentityKey created = new IdentityKey(source, collected);
+            int seed = source.getPropertyChangeListeners().length;
+            created.count.set(seed);
+            key = counted.putIfAbsent(created, created);
+            if(key == null) {
+                counter(listeners, created.type).add(seed);
+                return;
+            }
+        }
+        key.count.addAndGet(delta);
+        counter(listeners, key.type).add(delta);
+    }
+
+    /**
+     * A collected bean takes its listeners with it.
+     */
+    private void expunge() {
+        Reference<? extends AbstractBean> r;
+        while((r = collected.poll()) != null) {
+            IdentityKey gone = (IdentityKey)r;
+            if(counted.remove(gone) != null)
+                counter(listeners, gone.type).add(-gone.count.get());
+        }
+    }
+
+    private static <K> StripedCounter counter(ConcurrentMap<K, StripedCounter> map, K key) {
+        StripedCounter result = map.get(key);
+        if(result == null) {
+            StripedCounter created = new StripedCounter();
+            result = map.putIfAbsent(key, created);
+            if(result == null)
+                result = created;
+        }
+        return result;
+    }
+
+    /**
+     * A weak key compared by the identity of its bean, as beans may define
+     * equals, with the listeners counted for the bean.
+     */
+    static final class IdentityKey extends WeakReference<AbstractBean> {
+        final int hash;
+        final Class type;
+        final AtomicInteger count = new AtomicInteger();
+
+        IdentityKey(AbstractBean bean, ReferenceQueue<AbstractBean> queue) {
+            super(bean, queue);
+            hash = System.identityHashCode(bean);
+            type = bean.getClass();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if(o == this)
+                return true;
+            if(!(o instanceof IdentityKey))
+                return false;
+            Object bean = get();
+            return bean != null && bean == ((IdentityKey)o).get();
+        }
+    }
+}
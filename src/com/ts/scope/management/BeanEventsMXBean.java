@@ -0,0 +1,35 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.management;
+
+import java.util.Map;
+
+/**
+ * Management interface of the listener and property change statistics of
+ * every AbstractBean.
+ *
+ * @author daibheid
+ */
+public interface BeanEventsMXBean {
+
+    /**
+     * @return registered listeners per bean class, on the beans that have
+     *      gained or lost a listener since install
+     */
+    public Map<String, Long> getListenerCounts();
+
+    public Map<String, Long> getFireCounts();
+
+    /**
+     * @return fires per second per property over the last second
+     */
+    public Map<String, Double> getFireRates();
+
+    public long getTotalFires();
+
+    public void resetFireCounts();
+}
@@ -0,0 +1,131 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.management;
+
+import com.ts.common.AbstractBean;
+import com.ts.scope.controller.AbstractController;
+import com.ts.scope.core.View;
+import java.awt.Component;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class ControllerTrees: walks the tracked trees on every query, so nothing
+ * is added to the controllers' own paths.
+ *
+ * @author daibheid
+ */
+class ControllerTrees implements ControllerTreesMXBean {
+
+    public int getTreeCount() {
+        return ScopeManagement.getRoots().size();
+    }
+
+    public int getControllerCount() {
+        int result = 0;
+        for(AbstractController root : ScopeManagement.getRoots())
+            result += size(root);
+        return result;
+    }
+
+    public int getMaxDepth() {
+        int result = 0;
+        for(AbstractController root : ScopeManagement.getRoots())
+            result = Math.max(result, depth(root));
+        return result;
+    }
+
+    public List<String> getTrees() {
+        List<String> result = new ArrayList<String>();
+        List<AbstractController> roots = ScopeManagement.getRoots();
+        for(int i = 0; i < roots.size(); ++i) {
+            AbstractController root = roots.get(i);
+            result.add(i + ": " + root.getClass().getName() + " size=" + size(root) + " depth=" + depth(root));
+        }
+        return result;
+    }
+
+    public String dumpSubtree(int tree, String path) {
+        List<AbstractController> roots = ScopeManagement.getRoots();
+        if(tree < 0 || tree >= roots.size())
+            throw new IllegalArgumentException("no tree " + tree + ", there are " + roots.size());
+        AbstractController node = roots.get(tree);
+        int depth = 0;
+        if(path != null && path.trim().length() > 0) {
+            String[] steps = path.trim().split("/");
+            for(int i = 0; i < steps.length; ++i) {
+                Object[] children = children(node);
+                int index = Integer.parseInt(steps[i].trim());
+                if(index < 0 || index >= children.length || !(children[index] instanceof AbstractController))
+                    throw new IllegalArgumentException("no child " + index + " at step " + i + " of " + path);
+                node = (AbstractController)children[index];
+                ++depth;
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        dump(node, depth, "", result);
+        return result.toString();
+    }
+
+    private static void dump(AbstractController node, int depth, String indent, StringBuilder out) {
+        Object model = node.getModel();
+        View view = node.getView();
+        Object[] children = children(node);
+        out.append(indent).append(node.getClass().getName())
+                .append(" depth=").append(depth)
+                .append(" children=").append(children.length)
+                .append(" subtree=").append(size(node))
+                .append(" listeners=").append(node.getPropertyChangeListeners().length);
+        if(model != null) {
+            out.append(" model=").append(model.getClass().getName());
+            if(model instanceof AbstractBean)
+                out.append(" modelListeners=").append(((AbstractBean)model).getPropertyChangeListeners().length);
+        }
+        if(view != null) {
+            out.append(" view=").append(view.getClass().getName());
+            if(view instanceof Component)
+                out.append(((Component)view).isShowing() ? " showing" : " hidden");
+        }
+        out.append('\n');
+        for(int i = 0; i < children.length; ++i) {
+            if(children[i] instanceof AbstractController)
+                dump((AbstractController)children[i], depth + 1, indent + "  ", out);
+        }
+    }
+
+    private static int size(AbstractController node) {
+        int result = 1;
+        Object[] children = children(node);
+        for(int i = 0; i < children.length; ++i) {
+            if(children[i] instanceof AbstractController)
+                result += size((AbstractController)children[i]);
+        }
+        return result;
+    }
+
+    private static int depth(AbstractController node) {
+        int result = 0;
+        Object[] children = children(node);
+        for(int i = 0; i < children.length; ++i) {
+            if(children[i] instanceof AbstractController)
+                result = Math.max(result, 1 + depth((AbstractController)children[i]));
+        }
+        return result;
+    }
+
+    /**
+     * The children lists belong to the controllers' threads: copy them, and
+     * treat a list caught mid-update as empty rather than fail the query.
+     */
+    private static Object[] children(AbstractController node) {
+        try {
+            return node.getChildren().toArray();
+        } catch (RuntimeException e) {
+            return new Object[0];
+        }
+    }
+}
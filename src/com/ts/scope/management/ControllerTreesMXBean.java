@@ -0,0 +1,37 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.management;
+
+import java.util.List;
+
+/**
+ * Management interface of the tracked controller trees.
+ *
+ * @author daibheid
+ */
+public interface ControllerTreesMXBean {
+
+    public int getTreeCount();
+
+    public int getControllerCount();
+
+    public int getMaxDepth();
+
+    /**
+     * @return one line per tree: root class, size and depth
+     */
+    public List<String> getTrees();
+
+    /**
+     * Dump a subtree with per-node statistics.
+     *
+     * @param tree The index of the tree, as listed by getTrees()
+     * @param path Child indices from the root separated by '/', e.g. "0/2";
+     *      empty for the whole tree
+     */
+    public String dumpSubtree(int tree, String path);
+}
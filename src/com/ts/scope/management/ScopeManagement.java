@@ -0,0 +1,148 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.management;
+
+import com.ts.common.AbstractBean;
+import com.ts.scope.controller.AbstractController;
+import com.ts.scope.controller.ViewContext;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <P>
+ *
+ * Registers the framework MXBeans with the platform MBeanServer under the
+ * "com.ts.scope" domain and keeps weak track of the controller trees and
+ * view contexts they report on. </P> <P>
+ *
+ * Tracking any controller covers the whole tree it belongs to at the time of
+ * the query. The global ViewContext is always reported. </P>
+ *
+ * @author daibheid
+ */
+public final class ScopeManagement {
+
+    public static final String DOMAIN = "com.ts.scope";
+
+    private static final Map<Object, Boolean> controllers =
+            Collections.synchronizedMap(new WeakHashMap<Object, Boolean>());
+
+    private static final Map<Object, Boolean> contexts =
+            Collections.synchronizedMap(new WeakHashMap<Object, Boolean>());
+
+    private static BeanEvents beanEvents;
+
+    private ScopeManagement() {
+    }
+
+    /**
+     * Register the MXBeans and start counting listeners and property changes.
+     * Does nothing if already installed.
+     */
+    public static synchronized void install() {
+        if(beanEvents != null)
+            return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        BeanEvents events = new BeanEvents();
+        try {
+            server.registerMBean(new ControllerTrees(), name("ControllerTrees"));
+            server.registerMBean(events, name("BeanEvents"));
+            server.registerMBean(new ViewContexts(), name("ViewContexts"));
+        } catch (JMException e) {
+            events.stop();
+            unregister(server);
+            throw new IllegalStateException("can't register the Scope MXBeans", e);
+        }
+        AbstractBean.addMonitor(events);
+        beanEvents = events;
+    }
+
+    public static synchronized void uninstall() {
+        if(beanEvents == null)
+            return;
+        AbstractBean.removeMonitor(beanEvents);
+        beanEvents.stop();
+        beanEvents = null;
+        unregister(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public static synchronized boolean isInstalled() {
+        return beanEvents != null;
+    }
+
+    public static void track(AbstractController value) {
+        if(value == null)
+            throw new IllegalArgumentException("can't track a null controller");
+        controllers.put(value, Boolean.TRUE);
+    }
+
+    public static void track(ViewContext value) {
+        if(value == null)
+            throw new IllegalArgumentException("can't track a null ViewContext");
+        contexts.put(value, Boolean.TRUE);
+    }
+
+    /**
+     * @return the distinct top parents of the tracked controllers
+     */
+    static List<AbstractController> getRoots() {
+        Object[] tracked;
+        synchronized(controllers) {
+            tracked = controllers.keySet().toArray();
+        }
+        Map<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+        List<AbstractController> result = new ArrayList<AbstractController>();
+        for(int i = 0; i < tracked.length; ++i) {
+            Object root = ((AbstractController)tracked[i]).getTopParent();
+            if(root instanceof AbstractController && seen.put(root, Boolean.TRUE) == null)
+                result.add((AbstractController)root);
+        }
+        return result;
+    }
+
+    /**
+     * @return the global context, if any, followed by the tracked ones
+     */
+    static List<ViewContext> getContexts() {
+        List<ViewContext> result = new ArrayList<ViewContext>();
+        ViewContext global = ViewContext.getViewContext();
+        if(global != null)
+            result.add(global);
+        synchronized(contexts) {
+            for(Object context : contexts.keySet()) {
+                if(context != global)
+                    result.add((ViewContext)context);
+            }
+        }
+        return result;
+    }
+
+    private static ObjectName name(String type) throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + type);
+    }
+
+    private static void unregister(MBeanServer server) {
+        String[] types = { "ControllerTrees", "BeanEvents", "ViewContexts" };
+        for(int i = 0; i < types.length; ++i) {
+            try {
+                ObjectName name = name(types[i]);
+                if(server.isRegistered(name))
+                    server.unregisterMBean(name);
+            } catch (JMException ignore) {
+                // best effort
+            }
+        }
+    }
+}
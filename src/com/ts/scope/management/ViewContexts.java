@@ -0,0 +1,72 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.management;
+
+import com.ts.scope.controller.ViewContext;
+import com.ts.scope.controller.swing.SwingContext;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class ViewContexts
+ *
+ * @author daibheid
+ */
+class ViewContexts implements ViewContextsMXBean {
+
+    public int getContextCount() {
+        return ScopeManagement.getContexts().size();
+    }
+
+    public int getOpenRootPanes() {
+        int result = 0;
+        for(ViewContext context : ScopeManagement.getContexts()) {
+            if(context instanceof SwingContext)
+                result += ((SwingContext)context).getOpenRootPaneCount();
+        }
+        return result;
+    }
+
+    public List<String> getContexts() {
+        List<String> result = new ArrayList<String>();
+        for(ViewContext context : ScopeManagement.getContexts()) {
+            StringBuilder line = new StringBuilder(context.getClass().getName());
+            line.append('@').append(Integer.toHexString(System.identityHashCode(context)));
+            if(context instanceof SwingContext)
+                line.append(" rootpanes=").append(((SwingContext)context).getOpenRootPaneCount());
+            line.append(" properties=").append(context.getPropertyCount());
+            result.add(line.toString());
+        }
+        return result;
+    }
+
+    public Map<String, Integer> getPropertySizes() {
+        Map<String, Integer> result = new TreeMap<String, Integer>();
+        ViewContext context = ViewContext.getViewContext();
+        if(context == null)
+            return result;
+        for(String key : context.getPropertyKeys())
+            result.put(key, Integer.valueOf(sizeOf(context.getProperty(key))));
+        return result;
+    }
+
+    private static int sizeOf(Object value) {
+        if(value == null)
+            return 0;
+        if(value instanceof Collection)
+            return ((Collection)value).size();
+        if(value instanceof Map)
+            return ((Map)value).size();
+        if(value.getClass().isArray())
+            return Array.getLength(value);
+        return 1;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.management;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Management interface of the global and tracked ViewContexts.
+ *
+ * @author daibheid
+ */
+public interface ViewContextsMXBean {
+
+    public int getContextCount();
+
+    /**
+     * @return the open Frames and Dialogs of all SwingContexts
+     */
+    public int getOpenRootPanes();
+
+    /**
+     * @return one line per context: class, open rootpanes and property count
+     */
+    public List<String> getContexts();
+
+    /**
+     * @return the size of each property of the global context: the element
+     *      count of collections, maps and arrays, 1 for anything else
+     */
+    public Map<String, Integer> getPropertySizes();
+}
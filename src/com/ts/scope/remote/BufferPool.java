@@ -0,0 +1,87 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.remote;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of equally sized direct buffers. Direct buffers are expensive to
+ * allocate and are only reclaimed by the garbage collector, so connections
+ * take them from here and give them back once written. Buffers of another
+ * size, heap buffers and buffers past the pool's capacity are simply dropped.
+ *
+ * @author daibheid
+ */
+public final class BufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final BufferPool shared = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_CAPACITY);
+
+    private final int bufferSize;
+    private final int capacity;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger freeCount = new AtomicInteger();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    /**
+     * @param capacity The number of free buffers kept
+     */
+    public BufferPool(int bufferSize, int capacity) {
+        if(bufferSize < 64 || capacity < 0)
+            throw new IllegalArgumentException("bad pool of " + capacity + " x " + bufferSize);
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+    }
+
+    public static BufferPool getShared() {
+        return shared;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a cleared buffer
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer result = free.poll();
+        if(result == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        freeCount.decrementAndGet();
+        result.clear();
+        return result;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if(buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize)
+            return;
+        if(freeCount.incrementAndGet() > capacity) {
+            freeCount.decrementAndGet();
+            return;
+        }
+        free.offer(buffer);
+    }
+
+    /**
+     * @return the number of buffers ever allocated by the pool
+     */
+    public int getAllocatedCount() {
+        return allocated.get();
+    }
+
+    public int getFreeCount() {
+        return freeCount.get();
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.remote;
+
+import com.ts.scope.core.View;
+
+/**
+ * Receives the controls a remote client sends against the views shown to it.
+ * Called on the thread reading the connection, so implementations hand the
+ * control over to the thread that owns the view's controller.
+ *
+ * @author daibheid
+ */
+public interface ControlListener {
+
+    /**
+     * @param argument The control's argument, or null
+     */
+    public void controlReceived(View view, String controlId, Object argument);
+}
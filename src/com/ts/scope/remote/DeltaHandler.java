@@ -0,0 +1,43 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.remote;
+
+import com.ts.common.ListDelta;
+import java.util.List;
+
+/**
+ * Receives the messages decoded by a {@link DeltaReader}, on the reading
+ * thread, in stream order.
+ *
+ * @author daibheid
+ * @see DeltaAdapter
+ */
+public interface DeltaHandler {
+
+    public void showView(int viewId, String viewClass);
+
+    public void hideView(int viewId);
+
+    public void bind(int beanId, int viewId, String beanClass);
+
+    public void unbind(int beanId);
+
+    /**
+     * @param property The property, or null if any may have changed
+     */
+    public void property(int beanId, String property, Object value);
+
+    public void listDelta(int beanId, String property, List<ListDelta> deltas);
+
+    public void error(String title, String text);
+
+    public void progress(boolean started);
+
+    public void exit();
+
+    public void control(int viewId, String controlId, Object argument);
+}
@@ -0,0 +1,212 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.remote;
+
+import com.ts.common.ListDelta;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the frames of a blocking channel and passes their messages to a
+ * {@link DeltaHandler}. Frames are read into pooled direct buffers; the
+ * names the other end defines are kept for the life of the reader. Not
+ * thread-safe: one thread reads a channel.
+ *
+ * @author daibheid
+ * @see Wire
+ */
+public class DeltaReader {
+
+    private final ReadableByteChannel channel;
+    private final BufferPool pool;
+    private final DeltaHandler handler;
+
+    private final ByteBuffer header = ByteBuffer.allocate(Wire.HEADER_SIZE);
+    private final List<String> names = new ArrayList<String>();
+
+    private long messages;
+    private long frames;
+    private long bytes;
+
+    public DeltaReader(ReadableByteChannel channel, DeltaHandler handler) {
+        this(channel, BufferPool.getShared(), handler);
+    }
+
+    public DeltaReader(ReadableByteChannel channel, BufferPool pool, DeltaHandler handler) {
+        if(channel == null || pool == null || handler == null)
+            throw new IllegalArgumentException("a reader needs a channel, a pool and a handler");
+        this.channel = channel;
+        this.pool = pool;
+        this.handler = handler;
+    }
+
+    /**
+     * Read one frame and handle its messages.
+     *
+     * @return false at the end of the stream
+     */
+    public boolean readFrame() throws IOException {
+        header.clear();
+        if(!fill(header, true))
+            return false;
+        int length = header.getInt(0);
+        if(length < 0)
+            throw new IOException("bad frame length " + length);
+        ByteBuffer frame = length <= pool.getBufferSize() ? pool.acquire() : ByteBuffer.allocate(length);
+        try {
+            frame.limit(length);
+            fill(frame, false);
+            frame.flip();
+            ++frames;
+            bytes += length + Wire.HEADER_SIZE;
+            while(frame.hasRemaining())
+                decode(frame);
+        } finally {
+            pool.release(frame);
+        }
+        return true;
+    }
+
+    /**
+     * Handle frames until the end of the stream.
+     */
+    public void readAll() throws IOException {
+        while(readFrame())
+            ;
+    }
+
+    public long getMessageCount() {
+        return messages;
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    public long getByteCount() {
+        return bytes;
+    }
+
+    private boolean fill(ByteBuffer buffer, boolean eofAllowed) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer) < 0) {
+                if(eofAllowed && buffer.position() == 0)
+                    return false;
+                throw new EOFException("stream ended inside a frame");
+            }
+        }
+        return true;
+    }
+
+    private void decode(ByteBuffer in) throws IOException {
+        byte op = in.get();
+        if(op == Wire.STRING) {
+            int id = Wire.getVarint(in);
+            if(id != names.size())
+                throw new IOException("name " + id + " defined out of order");
+            names.add(Wire.getString(in));
+            return;
+        }
+        ++messages;
+        switch(op) {
+            case Wire.SHOW_VIEW: {
+                int viewId = Wire.getVarint(in);
+                handler.showView(viewId, name(in));
+                break;
+            }
+            case Wire.HIDE_VIEW:
+                handler.hideView(Wire.getVarint(in));
+                break;
+            case Wire.BIND: {
+                int beanId = Wire.getVarint(in);
+                int viewId = Wire.getVarint(in);
+                handler.bind(beanId, viewId, name(in));
+                break;
+            }
+            case Wire.UNBIND:
+                handler.unbind(Wire.getVarint(in));
+                break;
+            case Wire.PROPERTY: {
+                int beanId = Wire.getVarint(in);
+                String property = name(in);
+                handler.property(beanId, property, value(in));
+                break;
+            }
+            case Wire.LIST_DELTA: {
+                int beanId = Wire.getVarint(in);
+                String property = name(in);
+                int count = Wire.getVarint(in);
+                List<ListDelta> deltas = new ArrayList<ListDelta>(count);
+                for(int i = 0; i < count; ++i) {
+                    int type = in.get();
+                    int index = Wire.getVarint(in);
+                    deltas.add(new ListDelta(type, index, Wire.getVarint(in)));
+                }
+                handler.listDelta(beanId, property, deltas);
+                break;
+            }
+            case Wire.ERROR: {
+                String title = name(in);
+                handler.error(title, name(in));
+                break;
+            }
+            case Wire.PROGRESS:
+                handler.progress(in.get() == Wire.TRUE);
+                break;
+            case Wire.EXIT:
+                handler.exit();
+                break;
+            case Wire.CONTROL: {
+                int viewId = Wire.getVarint(in);
+                String controlId = name(in);
+                handler.control(viewId, controlId, value(in));
+                break;
+            }
+            default:
+                throw new IOException("unknown message " + op);
+        }
+    }
+
+    private String name(ByteBuffer in) throws IOException {
+        int ref = Wire.getVarint(in);
+        if(ref == 0)
+            return null;
+        if(ref == 1)
+            return Wire.getString(in);
+        if(ref - 2 >= names.size())
+            throw new IOException("undefined name " + (ref - 2));
+        return names.get(ref - 2);
+    }
+
+    private Object value(ByteBuffer in) throws IOException {
+        byte tag = in.get();
+        switch(tag) {
+            case Wire.NULL:
+                return null;
+            case Wire.FALSE:
+                return Boolean.FALSE;
+            case Wire.TRUE:
+                return Boolean.TRUE;
+            case Wire.INT:
+                return Integer.valueOf(Wire.unzigzag(Wire.getVarint(in)));
+            case Wire.LONG:
+                return Long.valueOf(Wire.unzigzag(Wire.getVarlong(in)));
+            case Wire.DOUBLE:
+                return Double.valueOf(in.getDouble());
+            case Wire.FLOAT:
+                return Float.valueOf(in.getFloat());
+            case Wire.TEXT:
+                return name(in);
+            default:
+                throw new IOException("unknown value tag " + tag);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.remote;
+
+import com.ts.common.ListDelta;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <P>
+ *
+ * Encodes protocol messages for one connection. Messages are appended to a
+ * frame in a pooled direct buffer; a full frame is sealed and queued, and
+ * {@link #flush} hands every queued frame to the channel in one gathering
+ * write. How often to flush is the caller's batching policy. </P> <P>
+ *
+ * Names are interned per connection, up to {@link #MAX_NAMES}; later names
+ * are sent inline. A writer is safe to use from several threads, one message
+ * at a time. </P> <P>
+ *
+ * A client that doesn't keep up is not buffered for without bound: when a
+ * non-blocking channel still leaves the maximum of frames queued after a
+ * flush, the write fails with an {@link IOException}, and so does any
+ * write after {@link #close}. </P>
+ *
+ * @author daibheid
+ * @see Wire
+ */
+public class DeltaWriter {
+
+    public static final int MAX_NAMES = 4096;
+
+    public static final int DEFAULT_MAX_PENDING_FRAMES = 64;
+
+    private final GatheringByteChannel channel;
+    private final BufferPool pool;
+    private final int maxPendingFrames;
+
+    private final Map<String, Integer> names = new HashMap<String, Integer>();
+
+    /** The message being encoded, copied into the frame when complete */
+    private ByteBuffer message = ByteBuffer.allocate(1024);
+
+    /** Names the message defines, copied into the frame ahead of it */
+    private ByteBuffer definitions = ByteBuffer.allocate(256);
+
+    private ByteBuffer frame;
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+
+    private long messages;
+    private long frames;
+    private long bytes;
+    private long writes;
+
+    private boolean closed;
+
+    public DeltaWriter(GatheringByteChannel channel) {
+        this(channel, BufferPool.getShared(), DEFAULT_MAX_PENDING_FRAMES);
+    }
+
+    /**
+     * @param maxPendingFrames The number of sealed frames after which the
+     *      writer flushes by itself rather than queue more, and the most it
+     *      holds for a channel that won't take them
+     */
+    public DeltaWriter(GatheringByteChannel channel, BufferPool pool, int maxPendingFrames) {
+        if(channel == null || pool == null || maxPendingFrames < 1)
+            throw new IllegalArgumentException("a writer needs a channel and a pool");
+        this.channel = channel;
+        this.pool = pool;
+        this.maxPendingFrames = maxPendingFrames;
+    }
+
+    public synchronized void showView(int viewId, String viewClass) throws IOException {
+        op(Wire.SHOW_VIEW);
+        varint(viewId);
+        name(viewClass);
+        commit();
+    }
+
+    public synchronized void hideView(int viewId) throws IOException {
+        op(Wire.HIDE_VIEW);
+        varint(viewId);
+        commit();
+    }
+
+    public synchronized void bind(int beanId, int viewId, String beanClass) throws IOException {
+        op(Wire.BIND);
+        varint(beanId);
+        varint(viewId);
+        name(beanClass);
+        commit();
+    }
+
+    public synchronized void unbind(int beanId) throws IOException {
+        op(Wire.UNBIND);
+        varint(beanId);
+        commit();
+    }
+
+    /**
+     * @param property The property, or null if any may have changed
+     */
+    public synchronized void property(int beanId, String property, Object value) throws IOException {
+        op(Wire.PROPERTY);
+        varint(beanId);
+        name(property);
+        value(value);
+        commit();
+    }
+
+    public synchronized void listDelta(int beanId, String property, List<ListDelta> deltas) throws IOException {
+        op(Wire.LIST_DELTA);
+        varint(beanId);
+        name(property);
+        varint(deltas.size());
+        for(int i = 0; i < deltas.size(); ++i) {
+            ListDelta d = deltas.get(i);
+            ensure(11);
+            message.put((byte)d.getType());
+            varint(d.getIndex());
+            varint(d.getCount());
+        }
+        commit();
+    }
+
+    public synchronized void error(String title, String text) throws IOException {
+        op(Wire.ERROR);
+        inline(title);
+        inline(text);
+        commit();
+    }
+
+    public synchronized void progress(boolean started) throws IOException {
+        op(Wire.PROGRESS);
+        message.put(started ? Wire.TRUE : Wire.FALSE);
+        commit();
+    }
+
+    public synchronized void exit() throws IOException {
+        op(Wire.EXIT);
+        commit();
+    }
+
+    public synchronized void control(int viewId, String controlId, Object argument) throws IOException {
+        op(Wire.CONTROL);
+        varint(viewId);
+        name(controlId);
+        value(argument);
+        commit();
+    }
+
+    /**
+     * Write every complete message to the channel.
+     *
+     * @return false if a non-blocking channel didn't take everything; the
+     *      rest goes with the next flush
+     */
+    public synchronized boolean flush() throws IOException {
+        seal();
+        while(!pending.isEmpty()) {
+            ByteBuffer[] buffers = pending.toArray(new ByteBuffer[pending.size()]);
+            long n = channel.write(buffers);
+            ++writes;
+            while(!pending.isEmpty() && !pending.peekFirst().hasRemaining())
+                pool.release(pending.pollFirst());
+            if(n == 0 && !pending.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    public synchronized boolean hasPending() {
+        return !pending.isEmpty() || (frame != null && frame.position() > Wire.HEADER_SIZE);
+    }
+
+    public synchronized long getMessageCount() {
+        return messages;
+    }
+
+    public synchronized long getFrameCount() {
+        return frames;
+    }
+
+    public synchronized long getByteCount() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of gathering writes made, each possibly many frames
+     */
+    public synchronized long getWriteCount() {
+        return writes;
+    }
+
+    /**
+     * Give the buffers back to the pool, dropping anything not flushed.
+     */
+    public synchronized void close() {
+        closed = true;
+        if(frame != null)
+            pool.release(frame);
+        frame = null;
+        while(!pending.isEmpty())
+            pool.release(pending.pollFirst());
+    }
+
+    private void op(byte opcode) {
+        definitions.clear();
+        message.clear();
+        message.put(opcode);
+    }
+
+    private void commit() throws IOException {
+        if(closed)
+            throw new IOException("writer is closed");
+        definitions.flip();
+        message.flip();
+        int size = definitions.remaining() + message.remaining();
+        if(frame != null && frame.remaining() < size)
+            seal();
+        if(frame == null) {
+            if(size > pool.getBufferSize() - Wire.HEADER_SIZE)
+                frame = ByteBuffer.allocate(size + Wire.HEADER_SIZE);
+            else
+                frame = pool.acquire();
+            frame.position(Wire.HEADER_SIZE);
+        }
+        frame.put(definitions);
+        frame.put(message);
+        ++messages;
+        bytes += size;
+    }
+
+    private void seal() throws IOException {
+        if(frame == null || frame.position() == Wire.HEADER_SIZE)
+            return;
+        frame.putInt(0, frame.position() - Wire.HEADER_SIZE);
+        frame.flip();
+        pending.addLast(frame);
+        frame = null;
+        ++frames;
+        bytes += Wire.HEADER_SIZE;
+        if(pending.size() >= maxPendingFrames && !flush() && pending.size() >= maxPendingFrames)
+            throw new IOException("client isn't reading: " + pending.size() + " frames pending");
+    }
+
+    private void ensure(int size) {
+        message = ensure(message, size);
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer, int size) {
+        if(buffer.remaining() >= size)
+            return buffer;
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private void varint(int value) {
+        ensure(5);
+        Wire.putVarint(message, value);
+    }
+
+    private void inline(String value) {
+        if(value == null) {
+            varint(0);
+            return;
+        }
+        byte[] utf = value.getBytes(Wire.UTF8);
+        ensure(10 + utf.length);
+        Wire.putVarint(message, 1);
+        Wire.putVarint(message, utf.length);
+        message.put(utf);
+    }
+
+    private void name(String value) {
+        if(value == null) {
+            varint(0);
+            return;
+        }
+        Integer id = names.get(value);
+        if(id == null) {
+            if(names.size() >= MAX_NAMES) {
+                inline(value);
+                return;
+            }
+            byte[] utf = value.getBytes(Wire.UTF8);
+            id = Integer.valueOf(names.size());
+            names.put(value, id);
+            definitions = ensure(definitions, 11 + utf.length);
+            definitions.put(Wire.STRING);
+            Wire.putVarint(definitions, id.intValue());
+            Wire.putVarint(definitions, utf.length);
+            definitions.put(utf);
+        }
+        varint(id.intValue() + 2);
+    }
+
+    private void value(Object value) {
+        ensure(11);
+        if(value == null) {
+            message.put(Wire.NULL);
+        } else if(value instanceof Boolean) {
+            message.put(((Boolean)value).booleanValue() ? Wire.TRUE : Wire.FALSE);
+        } else if(value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            message.put(Wire.INT);
+            Wire.putVarint(message, Wire.zigzag(((Number)value).intValue()));
+        } else if(value instanceof Long) {
+            message.put(Wire.LONG);
+            Wire.putVarlong(message, Wire.zigzag(((Long)value).longValue()));
+        } else if(value instanceof Double) {
+            message.put(Wire.DOUBLE);
+            message.putDouble(((Double)value).doubleValue());
+        } else if(value instanceof Float) {
+            message.put(Wire.FLOAT);
+            message.putFloat(((Float)value).floatValue());
+        } else {
+            message.put(Wire.TEXT);
+            inline(value.toString());
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.remote;
+
+import com.ts.common.ListDelta;
+import java.io.IOException;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * Stands in for a thin client in the same VM, for tests and benchmarks. Two
+ * NIO pipes connect it to a {@link RemoteViewContext}: it decodes the
+ * server's stream on a thread of its own into a mirror of the shown views
+ * and their beans' properties, and sends controls back, which the server
+ * side reads on another thread and passes to the given
+ * {@link ControlListener}. </P>
+ *
+ * @author daibheid
+ */
+public class LoopbackClient extends DeltaAdapter {
+
+    private static final Log LOG = LogFactory.getLog(LoopbackClient.class);
+
+    private static final Object NULL = new Object();
+
+    private final RemoteViewContext context;
+    private final Pipe toClient;
+    private final Pipe toServer;
+    private final DeltaReader reader;
+    private final DeltaWriter controls;
+
+    private final ConcurrentMap<Integer, String> viewClasses = new ConcurrentHashMap<Integer, String>();
+    private final ConcurrentMap<Integer, Integer> beanViews = new ConcurrentHashMap<Integer, Integer>();
+    private final ConcurrentMap<Integer, ConcurrentMap<String, Object>> beans =
+            new ConcurrentHashMap<Integer, ConcurrentMap<String, Object>>();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+    // guarded by this
+    private long handled;
+    private long deltas;
+    private boolean inProgress;
+    private boolean exited;
+    private boolean closed;
+
+    private LoopbackClient(int batchMillis, final ControlListener listener) throws IOException {
+        toClient = Pipe.open();
+        toServer = Pipe.open();
+        context = new RemoteViewContext(new DeltaWriter(toClient.sink()), batchMillis);
+        reader = new DeltaReader(toClient.source(), this);
+        controls = new DeltaWriter(toServer.sink());
+
+        start("LoopbackClient-read", new Runnable() {
+            public void run() {
+                try {
+                    reader.readAll();
+                } catch (IOException e) {
+                    if(!isClosed())
+                        LOG.error("loopback client failed", e);
+                } finally {
+                    synchronized(LoopbackClient.this) {
+                        closed = true;
+                        LoopbackClient.this.notifyAll();
+                    }
+                }
+            }
+        });
+        start("LoopbackClient-serve", new Runnable() {
+            public void run() {
+                try {
+                    context.serve(toServer.source(), listener);
+                } catch (IOException e) {
+                    if(!isClosed())
+                        LOG.error("loopback server failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param listener Receives the controls sent with {@link #sendControl}
+     */
+    public static LoopbackClient open(int batchMillis, ControlListener listener) throws IOException {
+        return new LoopbackClient(batchMillis, listener);
+    }
+
+    /**
+     * @return the server side of the connection
+     */
+    public RemoteViewContext getContext() {
+        return context;
+    }
+
+    public void sendControl(int viewId, String controlId, Object argument) throws IOException {
+        controls.control(viewId, controlId, argument);
+        controls.flush();
+    }
+
+    /**
+     * Wait until the client has handled at least count messages.
+     *
+     * @return false on timeout or if the connection closed first
+     */
+    public synchronized boolean awaitMessages(long count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while(handled < count && !closed) {
+            long wait = deadline - System.currentTimeMillis();
+            if(wait <= 0)
+                return false;
+            wait(wait);
+        }
+        return handled >= count;
+    }
+
+    public synchronized long getMessageCount() {
+        return handled;
+    }
+
+    /**
+     * @return the list deltas received, counted one by one
+     */
+    public synchronized long getDeltaCount() {
+        return deltas;
+    }
+
+    public synchronized boolean isInProgress() {
+        return inProgress;
+    }
+
+    public synchronized boolean isExited() {
+        return exited;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public long getByteCount() {
+        return reader.getByteCount();
+    }
+
+    public long getFrameCount() {
+        return reader.getFrameCount();
+    }
+
+    public Map<Integer, String> getViews() {
+        return Collections.unmodifiableMap(viewClasses);
+    }
+
+    /**
+     * @return the view the bean was bound with, or null
+     */
+    public Integer getViewOf(int beanId) {
+        return beanViews.get(Integer.valueOf(beanId));
+    }
+
+    /**
+     * @return the last value received for the property, or null
+     */
+    public Object getProperty(int beanId, String property) {
+        Map<String, Object> properties = beans.get(Integer.valueOf(beanId));
+        Object result = properties == null ? null : properties.get(property);
+        return result == NULL ? null : result;
+    }
+
+    public List<String> getErrors() {
+        return new ArrayList<String>(errors);
+    }
+
+    public void close() throws IOException {
+        synchronized(this) {
+            closed = true;
+            notifyAll();
+        }
+        context.close();
+        controls.close();
+        toClient.sink().close();
+        toServer.sink().close();
+    }
+
+    public void showView(int viewId, String viewClass) {
+        viewClasses.put(Integer.valueOf(viewId), viewClass);
+        handled();
+    }
+
+    public void hideView(int viewId) {
+        viewClasses.remove(Integer.valueOf(viewId));
+        handled();
+    }
+
+    public void bind(int beanId, int viewId, String beanClass) {
+        beanViews.put(Integer.valueOf(beanId), Integer.valueOf(viewId));
+        beans.put(Integer.valueOf(beanId), new ConcurrentHashMap<String, Object>());
+        handled();
+    }
+
+    public void unbind(int beanId) {
+        beanViews.remove(Integer.valueOf(beanId));
+        beans.remove(Integer.valueOf(beanId));
+        handled();
+    }
+
+    public void property(int beanId, String property, Object value) {
+        Map<String, Object> properties = beans.get(Integer.valueOf(beanId));
+        if(properties != null && property != null)
+            properties.put(property, value == null ? NULL : value);
+        handled();
+    }
+
+    public void listDelta(int beanId, String property, List<ListDelta> received) {
+        synchronized(this) {
+            deltas += received.size();
+        }
+        handled();
+    }
+
+    public void error(String title, String text) {
+        errors.add(title + ": " + text);
+        handled();
+    }
+
+    public synchronized void progress(boolean started) {
+        inProgress = started;
+        handled();
+    }
+
+    public synchronized void exit() {
+        exited = true;
+        handled();
+    }
+
+    private synchronized void handled() {
+        ++handled;
+        notifyAll();
+    }
+
+    private static void start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
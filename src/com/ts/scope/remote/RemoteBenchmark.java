@@ -0,0 +1,137 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.remote;
+
+import com.ts.common.AbstractBean;
+import com.ts.scope.core.Controller;
+import com.ts.scope.core.View;
+
+/**
+ * <P>
+ *
+ * Benchmark of the remote view protocol over a {@link LoopbackClient}: shows
+ * a view, fires property changes on its model as fast as it can and times
+ * how long the client takes to have them all, for several batch windows.
+ * Prints changes per second, bytes per change and the frames and writes the
+ * batching produced. </P> <P>
+ *
+ * Usage: RemoteBenchmark [changes], default 1000000. </P>
+ *
+ * @author daibheid
+ */
+public class RemoteBenchmark {
+
+    private static final int[] BATCHES = { 0, 1, 5, 20 };
+
+    public static void main(String[] args) throws Exception {
+        int changes = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        // warm up
+        run(0, changes / 10);
+        run(5, changes / 10);
+        System.out.println("batch  changes/s  bytes/change  frames  writes");
+        for(int i = 0; i < BATCHES.length; ++i)
+            run(BATCHES[i], changes).print();
+    }
+
+    static Result run(int batchMillis, int changes) throws Exception {
+        LoopbackClient client = LoopbackClient.open(batchMillis, null);
+        try {
+            Model model = new Model();
+            BenchView view = new BenchView(model);
+            client.getContext().showView(view);
+            // the view, its bind and the snapshot of both properties
+            client.awaitMessages(4, 10000);
+            long before = client.getMessageCount();
+            long bytesBefore = client.getByteCount();
+            long start = System.nanoTime();
+            for(int i = 0; i < changes; ++i) {
+                model.setValue(i + 1);
+                if((i & 15) == 0)
+                    model.setLabel("row " + i);
+            }
+            client.getContext().flush();
+            int expected = changes + (changes + 15) / 16;
+            if(!client.awaitMessages(before + expected, 60000))
+                throw new IllegalStateException("client got " + (client.getMessageCount() - before) + " of " + expected);
+            long elapsed = System.nanoTime() - start;
+            DeltaWriter writer = client.getContext().getWriter();
+            return new Result(batchMillis, expected, elapsed, client.getByteCount() - bytesBefore,
+                    writer.getFrameCount(), writer.getWriteCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    static class Result {
+        final int batchMillis;
+        final long changes;
+        final long elapsedNanos;
+        final long bytes;
+        final long frames;
+        final long writes;
+
+        Result(int batchMillis, long changes, long elapsedNanos, long bytes, long frames, long writes) {
+            this.batchMillis = batchMillis;
+            this.changes = changes;
+            this.elapsedNanos = elapsedNanos;
+            this.bytes = bytes;
+            this.frames = frames;
+            this.writes = writes;
+        }
+
+        void print() {
+            System.out.println(String.format("%3dms %10.0f %13.2f %7d %7d", batchMillis,
+                    changes * 1e9 / elapsedNanos, (double)bytes / changes, frames, writes));
+        }
+    }
+
+    public static class Model extends AbstractBean {
+        private int value;
+        private String label = "";
+
+        public int getValue() {
+            return value;
+        }
+
+        public void setValue(int newValue) {
+            firePropertyChange("value", value, value = newValue);
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public void setLabel(String newLabel) {
+            firePropertyChange("label", label, label = newLabel);
+        }
+    }
+
+    static class BenchView implements View<Model, Controller> {
+        private Model model;
+        private Controller controller;
+
+        BenchView(Model model) {
+            this.model = model;
+        }
+
+        public Controller getController() {
+            return controller;
+        }
+
+        public void setController(Controller value) {
+            controller = value;
+        }
+
+        public Model getBoundModel() {
+            return model;
+        }
+
+        public void setBoundModel(Model value) {
+            model = value;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.remote;
+
+import com.ts.common.AbstractBean;
+import com.ts.common.ListDeltaEvent;
+import com.ts.common.PropertyAccessor;
+import com.ts.scope.controller.ViewContext;
+import com.ts.scope.core.View;
+import java.beans.IndexedPropertyChangeEvent;
+import java.beans.IndexedPropertyDescriptor;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * A ViewContext whose views are rendered by a thin client at the other end
+ * of a channel. Showing a view sends its class and binds its model: the
+ * model's readable properties are sent once, then every change it fires is
+ * streamed as a delta, list changes as their {@link ListDeltaEvent} ranges.
+ * Errors, progress and exit are forwarded as they are. {@link #serve} reads
+ * the controls the client sends back. </P> <P>
+ *
+ * Messages are batched: the first message after a flush schedules the next
+ * one batchMillis later, so a burst of changes goes out as a few large
+ * frames in one write. With a batch of 0 every message is flushed at once.
+ * The first I/O error closes the context; later calls are ignored and the
+ * error is available from {@link #getFailure}. So are calls after
+ * {@link #close}. </P>
+ *
+ * @author daibheid
+ */
+public class RemoteViewContext extends ViewContext {
+
+    public static final int DEFAULT_BATCH_MILLIS = 5;
+
+    private static final Log LOG = LogFactory.getLog(RemoteViewContext.class);
+
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread result = new Thread(r, "RemoteViewContext-flush");
+            result.setDaemon(true);
+            return result;
+        }
+    });
+
+    private static final ConcurrentMap<Class, String[]> snapshotProperties = new ConcurrentHashMap<Class, String[]>();
+
+    private final DeltaWriter writer;
+    private final int batchMillis;
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            flushScheduled.set(false);
+            flush();
+        }
+    };
+
+    // guarded by this
+    private final Map<View, Integer> viewIds = new IdentityHashMap<View, Integer>();
+    private final Map<Integer, View> views = new HashMap<Integer, View>();
+    private final Map<AbstractBean, BeanLink> beans = new IdentityHashMap<AbstractBean, BeanLink>();
+    private int nextViewId = 1;
+    private int nextBeanId = 1;
+    private volatile boolean closed;
+
+    private volatile IOException failure;
+
+    public RemoteViewContext(DeltaWriter writer) {
+        this(writer, DEFAULT_BATCH_MILLIS);
+    }
+
+    /**
+     * @param batchMillis How long messages may wait to be batched, 0 to
+     *      send each one immediately
+     */
+    public RemoteViewContext(DeltaWriter writer, int batchMillis) {
+        if(writer == null || batchMillis < 0)
+            throw new IllegalArgumentException("bad writer or batch " + batchMillis + "ms");
+        this.writer = writer;
+        this.batchMillis = batchMillis;
+    }
+
+    public void showView(View view) {
+        if(view == null)
+            throw new IllegalArgumentException("can't show a null view");
+        synchronized(this) {
+            if(!isLive() || viewIds.containsKey(view))
+                return;
+            int viewId = nextViewId++;
+            viewIds.put(view, Integer.valueOf(viewId));
+            views.put(Integer.valueOf(viewId), view);
+            try {
+                writer.showView(viewId, view.getClass().getName());
+                if(view.getBoundModel() instanceof AbstractBean)
+                    bind(viewId, (AbstractBean)view.getBoundModel());
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+        sent();
+    }
+
+    public void hideView(View view) {
+        synchronized(this) {
+            Integer viewId = viewIds.remove(view);
+            if(viewId == null)
+                return;
+            views.remove(viewId);
+            try {
+                for(Iterator<BeanLink> i = beans.values().iterator(); i.hasNext(); ) {
+                    BeanLink link = i.next();
+                    // a bean stays bound while another view shows it
+                    if(link.viewIds.remove(viewId) && link.viewIds.isEmpty()) {
+                        i.remove();
+                        link.bean.removePropertyChangeListener(link);
+                        if(isLive())
+                            writer.unbind(link.beanId);
+                    }
+                }
+                if(isLive())
+                    writer.hideView(viewId.intValue());
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+        sent();
+    }
+
+    /**
+     * Stream the changes of another bean to the client, as part of a view
+     * already shown. It is unbound when the last view showing it is hidden.
+     *
+     * @return the id of the bean on the wire, or -1 if the context is
+     *      closed
+     */
+    public int bind(View view, AbstractBean bean) {
+        int result;
+        synchronized(this) {
+            if(!isLive())
+                return -1;
+            Integer viewId = viewIds.get(view);
+            if(viewId == null)
+                throw new IllegalStateException("view isn't shown: " + view);
+            try {
+                result = bind(viewId.intValue(), bean);
+            } catch (IOException e) {
+                failed(e);
+                return -1;
+            }
+        }
+        sent();
+        return result;
+    }
+
+    public void showError(String errorTitle, String errorMessage) {
+        synchronized(this) {
+            try {
+                if(isLive())
+                    writer.error(errorTitle, errorMessage);
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+        sent();
+    }
+
+    public void exit() {
+        synchronized(this) {
+            try {
+                if(isLive()) {
+                    writer.exit();
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+    }
+
+    public void startProgress() {
+        progress(true);
+    }
+
+    public void stopProgress() {
+        progress(false);
+    }
+
+    /**
+     * Read the client's controls until the channel ends or fails, passing
+     * them to the listener, if any. Blocks; run it on a thread of its own.
+     */
+    public void serve(ReadableByteChannel in, final ControlListener listener) throws IOException {
+        new DeltaReader(in, new DeltaAdapter() {
+            public void control(int viewId, String controlId, Object argument) {
+                View view;
+                synchronized(RemoteViewContext.this) {
+                    view = views.get(Integer.valueOf(viewId));
+                }
+                // controls racing the hiding of their view are dropped
+                if(view != null && listener != null)
+                    listener.controlReceived(view, controlId, argument);
+            }
+        }).readAll();
+    }
+
+    /**
+     * Send everything batched so far.
+     */
+    public void flush() {
+        if(!isLive())
+            return;
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    public int getBatchMillis() {
+        return batchMillis;
+    }
+
+    public DeltaWriter getWriter() {
+        return writer;
+    }
+
+    public synchronized int getShownCount() {
+        return viewIds.size();
+    }
+
+    /**
+     * @return the error that closed the context, or null
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Unbind every bean, send what is batched and give the writer's buffers
+     * back. Later calls are ignored.
+     */
+    public void close() {
+        synchronized(this) {
+            if(closed)
+                return;
+            closed = true;
+            for(BeanLink link : beans.values())
+                link.bean.removePropertyChangeListener(link);
+            beans.clear();
+            viewIds.clear();
+            views.clear();
+            try {
+                if(failure == null)
+                    writer.flush();
+            } catch (IOException e) {
+                failed(e);
+            }
+            writer.close();
+        }
+    }
+
+    private boolean isLive() {
+        return failure == null && !closed;
+    }
+
+    private int bind(int viewId, AbstractBean bean) throws IOException {
+        BeanLink link = beans.get(bean);
+        if(link != null) {
+            link.viewIds.add(Integer.valueOf(viewId));
+            return link.beanId;
+        }
+        link = new BeanLink(nextBeanId++, viewId, bean);
+        beans.put(bean, link);
+        writer.bind(link.beanId, viewId, bean.getClass().getName());
+        // listen first: a change fired meanwhile waits for our lock and
+        // follows the snapshot, rather than falling between the two
+        bean.addPropertyChangeListener(link);
+        sendSnapshot(link);
+        return link.beanId;
+    }
+
+    /**
+     * Send every property of the snapshot of a bean.
+     */
+    private void sendSnapshot(BeanLink link) throws IOException {
+        String[] properties = getSnapshotProperties(link.bean.getClass());
+        for(int i = 0; i < properties.length; ++i)
+            sendProperty(link, properties[i]);
+    }
+
+    /**
+     * Read a property and send its whole value.
+     */
+    private void sendProperty(BeanLink link, String property) throws IOException {
+        Object value;
+        try {
+            value = PropertyAccessor.forProperty(link.bean.getClass(), property).get(link.bean);
+        } catch (RuntimeException e) {
+            LOG.debug("can't read " + property + " of " + link.bean.getClass().getName(), e);
+            return;
+        }
+        writer.property(link.beanId, property, value);
+    }
+
+    private static boolean isSnapshotProperty(Class beanClass, String property) {
+        String[] properties = getSnapshotProperties(beanClass);
+        for(int i = 0; i < properties.length; ++i) {
+            if(properties[i].equals(property))
+                return true;
+        }
+        return false;
+    }
+
+    private void progress(boolean started) {
+        synchronized(this) {
+            try {
+                if(isLive())
+                    writer.progress(started);
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+        sent();
+    }
+
+    private void sent() {
+        if(!isLive())
+            return;
+        if(batchMillis == 0)
+            flush();
+        else if(flushScheduled.compareAndSet(false, true))
+            flusher.schedule(flushTask, batchMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void failed(IOException e) {
+        if(failure == null) {
+            failure = e;
+            LOG.error("remote view connection failed", e);
+        }
+    }
+
+    private static String[] getSnapshotProperties(Class beanClass) {
+        String[] result = snapshotProperties.get(beanClass);
+        if(result != null)
+            return result;
+        List<String> names = new ArrayList<String>();
+        try {
+            // not AbstractBean's own propertyChangeListeners
+            PropertyDescriptor[] descriptors = beanClass == AbstractBean.class ? new PropertyDescriptor[0]
+                    : Introspector.getBeanInfo(beanClass, AbstractBean.class).getPropertyDescriptors();
+            for(int i = 0; i < descriptors.length; ++i) {
+                if(descriptors[i].getReadMethod() != null && !(descriptors[i] instanceof IndexedPropertyDescriptor))
+                    names.add(descriptors[i].getName());
+            }
+        } catch (IntrospectionException e) {
+            LOG.warn("can't introspect " + beanClass.getName(), e);
+        }
+        result = names.toArray(new String[names.size()]);
+        snapshotProperties.putIfAbsent(beanClass, result);
+        return result;
+    }
+
+    class BeanLink implements PropertyChangeListener {
+        final int beanId;
+        // the views showing the bean; guarded by the context
+        final Set<Integer> viewIds = new HashSet<Integer>();
+        final AbstractBean bean;
+
+        BeanLink(int beanId, int viewId, AbstractBean bean) {
+            this.beanId = beanId;
+            this.viewIds.add(Integer.valueOf(viewId));
+            this.bean = bean;
+        }
+
+        public void propertyChange(PropertyChangeEvent event) {
+            // under the context's lock, so deltas keep their place after the
+            // snapshot and stop with the unbind
+            synchronized(RemoteViewContext.this) {
+                if(!isLive() || beans.get(bean) != this)
+                    return;
+                try {
+                    String property = event.getPropertyName();
+                    if(property == null) {
+                        // anything may have changed
+                        sendSnapshot(this);
+                    } else if(event instanceof ListDeltaEvent) {
+                        writer.listDelta(beanId, property, ((ListDeltaEvent)event).getDeltas());
+                    } else if(event instanceof IndexedPropertyChangeEvent) {
+                        // the client holds the whole value, if it is in the snapshot at all
+                        if(isSnapshotProperty(bean.getClass(), property))
+                            sendProperty(this, property);
+                    } else {
+                        writer.property(beanId, property, event.getNewValue());
+                    }
+                } catch (IOException e) {
+                    failed(e);
+                }
+            }
+            sent();
+        }
+    }
+}
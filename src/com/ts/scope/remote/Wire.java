@@ -0,0 +1,133 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.remote;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * <P>
+ *
+ * Constants and primitive encodings of the remote view protocol. A stream is
+ * a sequence of frames, each a 4-byte big-endian length followed by that many
+ * bytes of messages. A message is an opcode byte followed by its fields. </P> <P>
+ *
+ * Integers are unsigned LEB128 varints, zigzag-encoded when they may be
+ * negative. Names (properties, classes, controls) are interned: the first
+ * use of a name defines it with a {@link #STRING} message and later uses send
+ * its id. A name reference is a varint n: 0 is null, 1 is followed by an
+ * inline string, anything else is the id n - 2. Strings are a varint byte
+ * length and UTF-8. </P>
+ *
+ * @author daibheid
+ */
+public final class Wire {
+
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // server to client
+    public static final byte STRING = 1;
+    public static final byte SHOW_VIEW = 2;
+    public static final byte HIDE_VIEW = 3;
+    public static final byte BIND = 4;
+    public static final byte UNBIND = 5;
+    public static final byte PROPERTY = 6;
+    public static final byte LIST_DELTA = 7;
+    public static final byte ERROR = 8;
+    public static final byte PROGRESS = 9;
+    public static final byte EXIT = 10;
+
+    // client to server
+    public static final byte CONTROL = 32;
+
+    // value tags
+    public static final byte NULL = 0;
+    public static final byte FALSE = 1;
+    public static final byte TRUE = 2;
+    public static final byte INT = 3;
+    public static final byte LONG = 4;
+    public static final byte DOUBLE = 5;
+    public static final byte FLOAT = 6;
+    public static final byte TEXT = 7;
+
+    public static final int HEADER_SIZE = 4;
+
+    private Wire() {
+    }
+
+    public static void putVarint(ByteBuffer buffer, int value) {
+        while((value & ~0x7F) != 0) {
+            buffer.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+
+    public static void putVarlong(ByteBuffer buffer, long value) {
+        while((value & ~0x7FL) != 0) {
+            buffer.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+
+    public static int getVarint(ByteBuffer buffer) {
+        int result = 0;
+        for(int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            if(b >= 0)
+                return result;
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+
+    public static long getVarlong(ByteBuffer buffer) {
+        long result = 0;
+        for(int shift = 0; shift < 70; shift += 7) {
+            byte b = buffer.get();
+            result |= (long)(b & 0x7F) << shift;
+            if(b >= 0)
+                return result;
+        }
+        throw new IllegalStateException("malformed varlong");
+    }
+
+    public static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    public static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(UTF8);
+        putVarint(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        int length = getVarint(buffer);
+        if(buffer.hasArray()) {
+            String result = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF8);
+            buffer.position(buffer.position() + length);
+            return result;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
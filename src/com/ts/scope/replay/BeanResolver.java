@@ -0,0 +1,25 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.replay;
+
+import com.ts.common.AbstractBean;
+
+/**
+ * Finds the bean a recorded change should be replayed against.
+ *
+ * @author daibheid
+ * @see TreeResolver
+ */
+public interface BeanResolver {
+
+    /**
+     * @param change A change, with the id, class and tree path of the
+     *      recorded bean
+     * @return the bean to replay against, or null to skip the change
+     */
+    public AbstractBean resolve(EventLog.Change change);
+}
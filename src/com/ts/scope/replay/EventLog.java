@@ -0,0 +1,280 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.replay;
+
+import com.ts.scope.remote.Wire;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <P>
+ *
+ * Reads a log written by {@link EventRecorder}, one change at a time. </P> <P>
+ *
+ * The log is a 32-byte header (magic, version, wall-clock start, end
+ * position and change count, the last two only once the recorder stopped)
+ * followed by records, each an int length and that many bytes; a zero
+ * length ends the log of a recorder that didn't stop. A record is a type
+ * byte then: for a name, its id and the string; for a bean, its id, class
+ * name and place in the recorded tree (0 if none, else the number of child
+ * indices plus one, the indices from the root down and 1 for the model of
+ * that controller, 0 for the controller itself); for a change, the nanoseconds since the start, the bean id,
+ * the property, the index plus one or 0, then the old and new values.
+ * Names and values are encoded as in {@link Wire}. </P>
+ *
+ * @author daibheid
+ */
+public class EventLog implements Closeable {
+
+    private final RandomAccessFile raf;
+    private final ByteBuffer buffer;
+    private final long startMillis;
+    private final long changeCount;
+
+    private final List<String> names = new ArrayList<String>();
+    private final Map<Integer, Bean> beans = new HashMap<Integer, Bean>();
+
+    private EventLog(File file) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        try {
+            long size = raf.length();
+            if(size < EventRecorder.HEADER_SIZE)
+                throw new IOException(file + " isn't an event log");
+            if(size > Integer.MAX_VALUE)
+                throw new IOException(file + " is too large to read");
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if(buffer.getInt() != EventRecorder.MAGIC)
+                throw new IOException(file + " isn't an event log");
+            int version = buffer.getInt();
+            if(version != EventRecorder.VERSION)
+                throw new IOException(file + " is version " + version + " of the event log");
+            startMillis = buffer.getLong();
+            long end = buffer.getLong();
+            long count = buffer.getLong();
+            changeCount = end == 0 ? -1 : count;
+            if(end != 0 && end <= size)
+                buffer.limit((int)end);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    public static EventLog open(File file) throws IOException {
+        return new EventLog(file);
+    }
+
+    /**
+     * @return the wall-clock time recording started
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return the number of changes, or -1 if the recorder didn't stop cleanly
+     */
+    public long getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * @return the next change, or null at the end of the log
+     */
+    public Change next() throws IOException {
+        while(buffer.remaining() >= 4) {
+            int length = buffer.getInt();
+            if(length == 0)
+                break;
+            if(length < 0 || length > buffer.remaining())
+                throw new IOException("truncated record of " + length + " bytes");
+            int end = buffer.position() + length;
+            byte type = buffer.get();
+            Change result = null;
+            if(type == EventRecorder.NAME) {
+                int id = Wire.getVarint(buffer);
+                if(id != names.size())
+                    throw new IOException("name " + id + " defined out of order");
+                names.add(Wire.getString(buffer));
+            } else if(type == EventRecorder.BEAN) {
+                int id = Wire.getVarint(buffer);
+                String beanClass = name();
+                int[] path = null;
+                boolean model = false;
+                int n = Wire.getVarint(buffer);
+                if(n > 0) {
+                    path = new int[n - 1];
+                    for(int i = 0; i < path.length; ++i)
+                        path[i] = Wire.getVarint(buffer);
+                    model = buffer.get() != 0;
+                }
+                beans.put(Integer.valueOf(id), new Bean(beanClass, path, model));
+            } else if(type == EventRecorder.CHANGE) {
+                long nanos = Wire.getVarlong(buffer);
+                int beanId = Wire.getVarint(buffer);
+                String property = name();
+                int index = Wire.getVarint(buffer) - 1;
+                Object oldValue = value();
+                Object newValue = value();
+                Bean bean = beans.get(Integer.valueOf(beanId));
+                if(bean == null)
+                    throw new IOException("undefined bean " + beanId);
+                result = new Change(nanos, beanId, bean, property, index, oldValue, newValue);
+            } else {
+                throw new IOException("unknown record " + type);
+            }
+            buffer.position(end);
+            if(result != null)
+                return result;
+        }
+        buffer.position(buffer.limit());
+        return null;
+    }
+
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    private String name() throws IOException {
+        int ref = Wire.getVarint(buffer);
+        if(ref == 0)
+            return null;
+        if(ref == 1)
+            return Wire.getString(buffer);
+        if(ref - 2 >= names.size())
+            throw new IOException("undefined name " + (ref - 2));
+        return names.get(ref - 2);
+    }
+
+    private Object value() throws IOException {
+        byte tag = buffer.get();
+        switch(tag) {
+            case Wire.NULL:
+                return null;
+            case Wire.FALSE:
+                return Boolean.FALSE;
+            case Wire.TRUE:
+                return Boolean.TRUE;
+            case Wire.INT:
+                return Integer.valueOf(Wire.unzigzag(Wire.getVarint(buffer)));
+            case Wire.LONG:
+                return Long.valueOf(Wire.unzigzag(Wire.getVarlong(buffer)));
+            case Wire.DOUBLE:
+                return Double.valueOf(buffer.getDouble());
+            case Wire.FLOAT:
+                return Float.valueOf(buffer.getFloat());
+            case Wire.TEXT:
+                return name();
+            default:
+                throw new IOException("unknown value tag " + tag);
+        }
+    }
+
+    /**
+     * What the log says about a bean.
+     */
+    static final class Bean {
+        final String beanClass;
+        final int[] path;
+        final boolean model;
+
+        Bean(String beanClass, int[] path, boolean model) {
+            this.beanClass = beanClass;
+            this.path = path;
+            this.model = model;
+        }
+    }
+
+    /**
+     * One recorded property change.
+     */
+    public static final class Change {
+        private final long nanos;
+        private final int beanId;
+        private final Bean bean;
+        private final String property;
+        private final int index;
+        private final Object oldValue;
+        private final Object newValue;
+
+        Change(long nanos, int beanId, Bean bean, String property, int index, Object oldValue, Object newValue) {
+            this.nanos = nanos;
+            this.beanId = beanId;
+            this.bean = bean;
+            this.property = property;
+            this.index = index;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        /**
+         * @return the nanoseconds since recording started
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getBeanId() {
+            return beanId;
+        }
+
+        public String getBeanClass() {
+            return bean.beanClass;
+        }
+
+        /**
+         * @return the child indices from the root of the recorded tree down
+         *      to the bean's controller, or null if the bean wasn't in it
+         */
+        public int[] getTreePath() {
+            return bean.path == null ? null : bean.path.clone();
+        }
+
+        /**
+         * @return true if the bean is the model of the controller at the
+         *      tree path, false if it is the controller
+         */
+        public boolean isModel() {
+            return bean.model;
+        }
+
+        /**
+         * @return the property, or null for a whole-bean change
+         */
+        public String getProperty() {
+            return property;
+        }
+
+        /**
+         * @return the index of an indexed change, or -1
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public Object getOldValue() {
+            return oldValue;
+        }
+
+        public Object getNewValue() {
+            return newValue;
+        }
+
+        public String toString() {
+            return nanos + "ns #" + beanId + " " + bean.beanClass + "." + property
+                    + (index >= 0 ? "[" + index + "]" : "") + ": " + oldValue + " -> " + newValue;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.replay;
+
+import com.ts.common.AbstractBean;
+import com.ts.common.BeanMonitorAdapter;
+import com.ts.scope.controller.AbstractController;
+import com.ts.scope.core.Controller;
+import com.ts.scope.remote.Wire;
+import java.beans.IndexedPropertyChangeEvent;
+import java.beans.PropertyChangeEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * Records every property change fired by any {@link AbstractBean} to an
+ * append-only log file, for reproducing a problem seen in the field with
+ * {@link EventReplayer}. Installed as a bean monitor, it sees changes in the
+ * order they are fired, whether or not anything listens to them. </P> <P>
+ *
+ * The log is written through memory-mapped segments, so recording a change
+ * is an encode into memory under an uncontended lock; the OS writes the pages
+ * back. Each change keeps its time, an id for the bean, the property and the
+ * old and new values. The first time a bean is seen its class is recorded,
+ * and, given the root of the controller tree, its place in the tree: the
+ * child indices from the root down to the controller that is the bean or
+ * whose model it is, for {@link TreeResolver}. Finding a model's controller
+ * walks the tree, once per bean. Beans are
+ * identified weakly so recording doesn't keep them alive. Values other than
+ * strings, booleans and numbers are recorded as their toString(). Past
+ * maxBytes further changes are counted and dropped. See {@link EventLog} for
+ * the format. </P>
+ *
+ * @author daibheid
+ */
+public class EventRecorder extends BeanMonitorAdapter {
+
+    public static final long DEFAULT_MAX_BYTES = 1L << 30;
+
+    static final int MAGIC = 0x54534556;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 32;
+
+    static final byte NAME = 1;
+    static final byte BEAN = 2;
+    static final byte CHANGE = 3;
+
+    static final int MAX_NAMES = 65536;
+
+    private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final Log LOG = LogFactory.getLog(EventRecorder.class);
+
+    private final File file;
+    private final long maxBytes;
+    private final AbstractController root;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long startNanos;
+
+    // guarded by this
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private long position = HEADER_SIZE;
+    private ByteBuffer record = ByteBuffer.allocate(512);
+    private final Map<String, Integer> names = new HashMap<String, Integer>();
+    private final Map<BeanKey, Integer> beanIds = new HashMap<BeanKey, Integer>();
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+    private final BeanKey probe = new BeanKey();
+    private WeakReference<Object> lastBean = new WeakReference<Object>(null);
+    private int lastBeanId;
+    private int nextBeanId = 1;
+    private long recorded;
+    private long dropped;
+    private boolean full;
+    private boolean open = true;
+    private boolean closed;
+
+    public EventRecorder(File file) throws IOException {
+        this(file, DEFAULT_MAX_BYTES, null);
+    }
+
+    public EventRecorder(File file, AbstractController root) throws IOException {
+        this(file, DEFAULT_MAX_BYTES, root);
+    }
+
+    /**
+     * Create the log, replacing any file of that name. Call {@link #start}
+     * to begin recording.
+     *
+     * @param root The tree whose beans are recorded with their place in it,
+     *      or null to record none
+     */
+    public EventRecorder(File file, long maxBytes, AbstractController root) throws IOException {
+        if(maxBytes <= HEADER_SIZE)
+            throw new IllegalArgumentException("log limit too small: " + maxBytes);
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.root = root;
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        channel = raf.getChannel();
+        startNanos = System.nanoTime();
+        map(0, HEADER_SIZE);
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+        segment.putLong(System.currentTimeMillis());
+        segment.putLong(0);
+        segment.putLong(0);
+    }
+
+    /**
+     * Create a log and start recording into it.
+     */
+    public static EventRecorder start(File file) throws IOException {
+        return start(file, null);
+    }
+
+    /**
+     * Create a log and start recording into it, with the place of each bean
+     * in a controller tree.
+     */
+    public static EventRecorder start(File file, AbstractController root) throws IOException {
+        EventRecorder result = new EventRecorder(file, root);
+        result.start();
+        return result;
+    }
+
+    public void start() {
+        AbstractBean.addMonitor(this);
+    }
+
+    /**
+     * Stop recording and close the log, trimming it to what was written.
+     * The file is closed even if recording failed or finishing it does.
+     */
+    public void stop() throws IOException {
+        AbstractBean.removeMonitor(this);
+        synchronized(this) {
+            if(closed)
+                return;
+            closed = true;
+            open = false;
+            try {
+                ByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                header.putLong(16, position);
+                header.putLong(24, recorded);
+                segment.force();
+                try {
+                    channel.truncate(position);
+                } catch (IOException e) {
+                    // some platforms refuse while pages are still mapped; the
+                    // header and the zero record mark the end anyway
+                    LOG.debug("can't trim " + file, e);
+                }
+            } finally {
+                segment = null;
+                raf.close();
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized long getRecordedCount() {
+        return recorded;
+    }
+
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    public synchronized long getByteCount() {
+        return position;
+    }
+
+    public void dispatchStarted(AbstractBean source, PropertyChangeEvent event) {
+        record(source, event);
+    }
+
+    private synchronized void record(AbstractBean source, PropertyChangeEvent event) {
+        if(!open)
+            return;
+        try {
+            Integer id = lastBean.get() == source ? Integer.valueOf(lastBeanId) : lookup(source);
+            if(id == null) {
+                id = Integer.valueOf(nextBeanId++);
+                beanIds.put(new BeanKey(source, collected), id);
+                start(BEAN);
+                Wire.putVarint(record, id.intValue());
+                name(source.getClass().getName());
+                path(source);
+                if(!commit()) {
+                    ++dropped;
+                    return;
+                }
+            }
+            if(lastBean.get() != source) {
+                lastBean = new WeakReference<Object>(source);
+                lastBeanId = id.intValue();
+            }
+            start(CHANGE);
+            Wire.putVarlong(record, System.nanoTime() - startNanos);
+            Wire.putVarint(record, id.intValue());
+            name(event.getPropertyName());
+            Wire.putVarint(record, event instanceof IndexedPropertyChangeEvent
+                    ? ((IndexedPropertyChangeEvent)event).getIndex() + 1 : 0);
+            value(event.getOldValue());
+            value(event.getNewValue());
+            if(commit())
+                ++recorded;
+            else
+                ++dropped;
+        } catch (IOException e) {
+            LOG.error("event log " + file + " failed, recording stopped", e);
+            open = false;
+        }
+    }
+
+    private Integer lookup(AbstractBean source) {
+        expunge();
+        probe.set(source);
+        Integer result = beanIds.get(probe);
+        probe.set(null);
+        return result;
+    }
+
+    /**
+     * Append the place of a bean in the tree: 0 if it isn't in it, else the
+     * number of child indices plus one, the indices from the root down, and
+     * 1 if the bean is the model of the controller found, 0 if it is the
+     * controller.
+     */
+    private void path(AbstractBean bean) {
+        AbstractController controller = null;
+        if(root != null) {
+            if(bean instanceof AbstractController)
+                controller = (AbstractController)bean;
+            else
+                controller = findOwner(bean);
+        }
+        List<Integer> indices = controller == null ? null : indices(controller);
+        if(indices == null) {
+            ensure(1);
+            Wire.putVarint(record, 0);
+            return;
+        }
+        ensure(6 + 5 * indices.size());
+        Wire.putVarint(record, indices.size() + 1);
+        for(int i = indices.size() - 1; i >= 0; --i)
+            Wire.putVarint(record, indices.get(i).intValue());
+        record.put(controller == bean ? (byte)0 : (byte)1);
+    }
+
+    /**
+     * @return the child indices from the controller up to the root, or null
+     *      if the controller isn't in the tree
+     */
+    private List<Integer> indices(AbstractController controller) {
+        List<Integer> result = new ArrayList<Integer>();
+        for(Controller c = controller; c != root; c = c.getParent()) {
+            if(!(c.getParent() instanceof AbstractController))
+                return null;
+            result.add(Integer.valueOf(((AbstractController)c.getParent()).getChildren().indexOf(c)));
+        }
+        return result;
+    }
+
+    /**
+     * @return the first controller in a depth-first walk whose model is the
+     *      bean, or null
+     */
+    private AbstractController findOwner(AbstractBean bean) {
+        List<AbstractController> todo = new ArrayList<AbstractController>();
+        todo.add(root);
+        while(!todo.isEmpty()) {
+            AbstractController c = todo.remove(todo.size() - 1);
+            if(c.getModel() == bean)
+                return c;
+            List<Controller> children = c.getChildren();
+            for(int i = children.size() - 1; i >= 0; --i) {
+                if(children.get(i) instanceof AbstractController)
+                    todo.add((AbstractController)children.get(i));
+            }
+        }
+        return null;
+    }
+
+    private void start(byte type) {
+        record.clear();
+        record.put(type);
+    }
+
+    private void name(String value) throws IOException {
+        if(value == null) {
+            ensure(1);
+            Wire.putVarint(record, 0);
+            return;
+        }
+        Integer id = names.get(value);
+        if(id == null && names.size() < MAX_NAMES) {
+            id = Integer.valueOf(names.size());
+            names.put(value, id);
+            // the definition goes out first, as a record of its own
+            ByteBuffer pendingRecord = record;
+            record = ByteBuffer.allocate(16 + 3 * value.length());
+            record.put(NAME);
+            Wire.putVarint(record, id.intValue());
+            Wire.putString(record, value);
+            commit();
+            record = pendingRecord;
+        }
+        if(id == null) {
+            inline(value);
+        } else {
+            ensure(5);
+            Wire.putVarint(record, id.intValue() + 2);
+        }
+    }
+
+    private void inline(String value) {
+        byte[] utf = value.getBytes(Wire.UTF8);
+        ensure(10 + utf.length);
+        Wire.putVarint(record, 1);
+        Wire.putVarint(record, utf.length);
+        record.put(utf);
+    }
+
+    private void value(Object value) {
+        ensure(11);
+        if(value == null) {
+            record.put(Wire.NULL);
+        } else if(value instanceof Boolean) {
+            record.put(((Boolean)value).booleanValue() ? Wire.TRUE : Wire.FALSE);
+        } else if(value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            record.put(Wire.INT);
+            Wire.putVarint(record, Wire.zigzag(((Number)value).intValue()));
+        } else if(value instanceof Long) {
+            record.put(Wire.LONG);
+            Wire.putVarlong(record, Wire.zigzag(((Long)value).longValue()));
+        } else if(value instanceof Double) {
+            record.put(Wire.DOUBLE);
+            record.putDouble(((Double)value).doubleValue());
+        } else if(value instanceof Float) {
+            record.put(Wire.FLOAT);
+            record.putFloat(((Float)value).floatValue());
+        } else {
+            record.put(Wire.TEXT);
+            inline(value.toString());
+        }
+    }
+
+    private void ensure(int size) {
+        if(record.remaining() >= size)
+            return;
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + size));
+        record.flip();
+        larger.put(record);
+        record = larger;
+    }
+
+    /**
+     * Append the record as its length and bytes.
+     *
+     * @return false if the log is full
+     */
+    private boolean commit() throws IOException {
+        int length = record.position();
+        long end = position + 4 + length;
+        // once a record is refused so are all later ones, which may need
+        // the names and beans it defined
+        if(full || end + 4 > maxBytes) {
+            full = true;
+            return false;
+        }
+        if(end + 4 > segmentStart + segment.capacity())
+            map(position, Math.max(SEGMENT_SIZE, 8 + length));
+        record.flip();
+        segment.position((int)(position - segmentStart));
+        segment.putInt(length);
+        segment.put(record);
+        position = end;
+        return true;
+    }
+
+    private void map(long start, long size) throws IOException {
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        segmentStart = start;
+    }
+
+    private void expunge() {
+        Object ref;
+        while((ref = collected.poll()) != null)
+            beanIds.remove(ref);
+    }
+
+    /**
+     * Weak identity key of a bean; the probe is a strong one used for
+     * lookups.
+     */
+    static final class BeanKey extends WeakReference<Object> {
+        private Object strong;
+        private int hash;
+
+        BeanKey() {
+            super(null);
+        }
+
+        BeanKey(Object bean, ReferenceQueue<Object> queue) {
+            super(bean, queue);
+            hash = System.identityHashCode(bean);
+        }
+
+        void set(Object bean) {
+            strong = bean;
+            hash = System.identityHashCode(bean);
+        }
+
+        Object bean() {
+            return strong != null ? strong : get();
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if(o == this)
+                return true;
+            if(!(o instanceof BeanKey))
+                return false;
+            Object bean = bean();
+            return bean != null && bean == ((BeanKey)o).bean();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.replay;
+
+import com.ts.common.AbstractBean;
+import com.ts.common.PropertyAccessor;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * Replays a recorded {@link EventLog} by setting each change's new value on
+ * the bean its {@link BeanResolver} picks, typically in a controller tree
+ * running on a {@link com.ts.scope.controller.headless.HeadlessContext}.
+ * Replay runs on the calling thread, at the recorded pace scaled by a speed
+ * factor, or as fast as possible for benchmarking. </P> <P>
+ *
+ * Changes to beans that can't be resolved, to properties that can't be set,
+ * whole-bean changes and values recorded only as text for properties that
+ * aren't strings are skipped and counted. </P>
+ *
+ * @author daibheid
+ */
+public class EventReplayer {
+
+    /**
+     * Speed for replaying as fast as possible
+     */
+    public static final double UNTIMED = 0;
+
+    private static final Log LOG = LogFactory.getLog(EventReplayer.class);
+
+    private static final Object SKIP = new Object();
+
+    private final BeanResolver resolver;
+    private double speed = 1;
+
+    public EventReplayer(BeanResolver resolver) {
+        if(resolver == null)
+            throw new IllegalArgumentException("a replayer needs a resolver");
+        this.resolver = resolver;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * @param value 1 for the recorded pace, 2 for twice as fast...
+     *      {@link #UNTIMED} for as fast as possible
+     */
+    public void setSpeed(double value) {
+        if(value < 0 || Double.isNaN(value))
+            throw new IllegalArgumentException("bad replay speed " + value);
+        speed = value;
+    }
+
+    /**
+     * Replay a log from its current position to its end.
+     */
+    public Result replay(EventLog log) throws IOException {
+        Result result = new Result();
+        long start = System.nanoTime();
+        long first = -1;
+        EventLog.Change change;
+        while((change = log.next()) != null) {
+            if(first < 0)
+                first = change.getNanos();
+            if(speed != UNTIMED) {
+                long due = start + (long)((change.getNanos() - first) / speed);
+                long wait;
+                while((wait = due - System.nanoTime()) > 0)
+                    LockSupport.parkNanos(wait);
+                result.maxLagNanos = Math.max(result.maxLagNanos, -wait);
+            }
+            apply(change, result);
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void apply(EventLog.Change change, Result result) {
+        AbstractBean bean = change.getProperty() == null ? null : resolver.resolve(change);
+        if(bean == null) {
+            ++result.skipped;
+            return;
+        }
+        PropertyAccessor accessor;
+        try {
+            accessor = PropertyAccessor.forProperty(bean.getClass(), change.getProperty());
+        } catch (IllegalArgumentException e) {
+            ++result.skipped;
+            return;
+        }
+        int index = change.getIndex();
+        if(index >= 0 ? !accessor.isIndexedWritable() : !accessor.isWritable()) {
+            ++result.skipped;
+            return;
+        }
+        Object value = coerce(change.getNewValue(), index >= 0 && accessor.getType().isArray()
+                ? accessor.getType().getComponentType() : accessor.getType());
+        if(value == SKIP) {
+            ++result.skipped;
+            return;
+        }
+        try {
+            if(index >= 0)
+                accessor.setIndexed(bean, index, value);
+            else
+                accessor.set(bean, value);
+            ++result.applied;
+        } catch (RuntimeException e) {
+            if(result.failed++ == 0)
+                LOG.warn("replaying " + change + " failed", e);
+        }
+    }
+
+    /**
+     * Convert a recorded value to the type of the property it is set on.
+     */
+    private static Object coerce(Object value, Class type) {
+        if(value == null)
+            return type.isPrimitive() ? SKIP : null;
+        if(value instanceof Number && !type.isInstance(value)) {
+            Number n = (Number)value;
+            if(type == int.class || type == Integer.class)
+                return Integer.valueOf(n.intValue());
+            if(type == long.class || type == Long.class)
+                return Long.valueOf(n.longValue());
+            if(type == short.class || type == Short.class)
+                return Short.valueOf(n.shortValue());
+            if(type == byte.class || type == Byte.class)
+                return Byte.valueOf(n.byteValue());
+            if(type == double.class || type == Double.class)
+                return Double.valueOf(n.doubleValue());
+            if(type == float.class || type == Float.class)
+                return Float.valueOf(n.floatValue());
+        }
+        if(value instanceof String && (type == char.class || type == Character.class))
+            return ((String)value).length() == 1 ? Character.valueOf(((String)value).charAt(0)) : SKIP;
+        // text stands for any object, so only a string property can take it
+        if(value instanceof String && type != String.class && type != CharSequence.class)
+            return SKIP;
+        return value;
+    }
+
+    public static final class Result {
+        long applied;
+        long skipped;
+        long failed;
+        long elapsedNanos;
+        long maxLagNanos;
+
+        public long getApplied() {
+            return applied;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return how far behind the recorded pace replay fell at worst
+         */
+        public long getMaxLagNanos() {
+            return maxLagNanos;
+        }
+
+        public double getChangesPerSecond() {
+            return elapsedNanos == 0 ? 0 : (applied + skipped + failed) * 1e9 / elapsedNanos;
+        }
+
+        public String toString() {
+            return String.format("%d applied, %d skipped, %d failed in %dms (%.0f/s), max lag %dus",
+                    applied, skipped, failed, elapsedNanos / 1000000L, getChangesPerSecond(), maxLagNanos / 1000L);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.replay;
+
+import com.ts.common.AbstractBean;
+import com.ts.scope.controller.AbstractController;
+import com.ts.scope.core.Controller;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves recorded beans against a controller tree rebuilt the way it was
+ * recorded, by the place each bean had in the recorded tree: the controller
+ * reached by the same child indices from the root, or its model. A bean is
+ * looked up when its first change is replayed, and skipped if it wasn't in
+ * the recorded tree or the place now holds a bean of another class.
+ *
+ * @author daibheid
+ * @see EventRecorder#start(java.io.File, AbstractController)
+ */
+public class TreeResolver implements BeanResolver {
+
+    private final AbstractController root;
+
+    private final Map<Integer, AbstractBean> resolved = new HashMap<Integer, AbstractBean>();
+
+    public TreeResolver(AbstractController root) {
+        if(root == null)
+            throw new IllegalArgumentException("no tree to resolve against");
+        this.root = root;
+    }
+
+    public AbstractBean resolve(EventLog.Change change) {
+        Integer key = Integer.valueOf(change.getBeanId());
+        if(resolved.containsKey(key))
+            return resolved.get(key);
+        AbstractBean result = find(change.getTreePath(), change.isModel());
+        if(result != null && !result.getClass().getName().equals(change.getBeanClass()))
+            result = null;
+        resolved.put(key, result);
+        return result;
+    }
+
+    private AbstractBean find(int[] path, boolean model) {
+        if(path == null)
+            return null;
+        AbstractController controller = root;
+        for(int i = 0; i < path.length; ++i) {
+            List<Controller> children = controller.getChildren();
+            if(path[i] < 0 || path[i] >= children.size() || !(children.get(path[i]) instanceof AbstractController))
+                return null;
+            controller = (AbstractController)children.get(path[i]);
+        }
+        if(!model)
+            return controller;
+        return controller.getModel() instanceof AbstractBean ? (AbstractBean)controller.getModel() : null;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.session;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * Runs tasks one at a time, in submission order, on threads borrowed from a
+ * shared pool. Each task happens-before the next, so state touched only by
+ * the tasks of one executor needs no locks, and thousands of executors can
+ * share a pool the size of the machine. </P> <P>
+ *
+ * A drain runs at most {@link #BATCH} tasks before giving its thread back, so
+ * a busy executor can't starve the others. A task that throws is logged and
+ * the next one runs; an Error goes on to the pool thread, after the drain
+ * has rescheduled itself for the tasks behind it. </P>
+ *
+ * @author daibheid
+ */
+public class SerialExecutor implements Executor {
+
+    public static final int BATCH = 64;
+
+    private static final Log LOG = LogFactory.getLog(SerialExecutor.class);
+
+    private final Executor pool;
+
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final Runnable drain = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    public SerialExecutor(Executor pool) {
+        if(pool == null)
+            throw new IllegalArgumentException("a serial executor needs a pool");
+        this.pool = pool;
+    }
+
+    /**
+     * @throws java.util.concurrent.RejectedExecutionException if the pool
+     *      won't take a drain; the task is not queued then
+     */
+    public void execute(Runnable task) {
+        if(task == null)
+            throw new NullPointerException("null task");
+        tasks.offer(task);
+        try {
+            schedule();
+        } catch (RuntimeException e) {
+            // reported as rejected, so it mustn't run with a later drain
+            tasks.remove(task);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of tasks waiting, not counting a running one
+     */
+    public int getQueuedCount() {
+        return tasks.size();
+    }
+
+    /**
+     * Called on the pool thread before a batch of tasks.
+     */
+    protected void beforeDrain() {
+    }
+
+    /**
+     * Called on the pool thread after a batch of tasks, even if one threw.
+     */
+    protected void afterDrain() {
+    }
+
+    private void schedule() {
+        if(!scheduled.compareAndSet(false, true))
+            return;
+        try {
+            pool.execute(drain);
+        } catch (RuntimeException e) {
+            scheduled.set(false);
+            throw e;
+        }
+    }
+
+    private void drain() {
+        beforeDrain();
+        try {
+            for(int n = 0; n < BATCH; ++n) {
+                Runnable task = tasks.poll();
+                if(task == null)
+                    break;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.error("task failed: " + task, e);
+                }
+            }
+        } finally {
+            try {
+                afterDrain();
+            } finally {
+                scheduled.set(false);
+                // a task offered after our last poll saw scheduled still set,
+                // and one that threw an Error left the rest of the batch
+                if(!tasks.isEmpty())
+                    schedule();
+            }
+        }
+    }
+}
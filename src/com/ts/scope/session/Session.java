@@ -0,0 +1,145 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.session;
+
+import com.ts.scope.controller.AbstractController;
+import com.ts.scope.controller.ViewContext;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <P>
+ *
+ * One user session: a controller tree and the ViewContext it shows views in,
+ * confined to a single-threaded executor. Controllers, models and
+ * AbstractController's child lists aren't thread-safe, so everything that
+ * touches the tree goes through {@link #execute} or {@link #submit}; tasks
+ * of one session run one after the other, tasks of different sessions in
+ * parallel. </P> <P>
+ *
+ * While a task runs, {@link ViewContext#getViewContext} returns the session's
+ * context and {@link #current} the session. </P>
+ *
+ * @author daibheid
+ * @see SessionManager
+ */
+public class Session {
+
+    private static final ThreadLocal<Session> current = new ThreadLocal<Session>();
+
+    private final String id;
+    private final ViewContext context;
+    private final SessionManager manager;
+    private final SerialExecutor executor;
+
+    private volatile AbstractController root;
+    private volatile boolean open = true;
+
+    // guarded by this; the halt of the first close
+    private Future<Void> closing;
+
+    Session(String id, ViewContext context, SessionManager manager, Executor pool) {
+        this.id = id;
+        this.context = context;
+        this.manager = manager;
+        this.executor = new SerialExecutor(pool) {
+            protected void beforeDrain() {
+                current.set(Session.this);
+                ViewContext.setThreadContext(Session.this.context);
+            }
+
+            protected void afterDrain() {
+                ViewContext.clearThreadContext();
+                current.remove();
+            }
+        };
+    }
+
+    /**
+     * @return the session whose task is running on this thread, or null
+     */
+    public static Session current() {
+        return current.get();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public ViewContext getContext() {
+        return context;
+    }
+
+    /**
+     * Only read or change the tree from the session's tasks.
+     */
+    public AbstractController getRoot() {
+        return root;
+    }
+
+    public void setRoot(AbstractController value) {
+        root = value;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueuedCount();
+    }
+
+    public void execute(Runnable task) {
+        // under the lock of close(), so no task is queued after the halt
+        synchronized(this) {
+            if(!open)
+                throw new RejectedExecutionException("session " + id + " is closed");
+            executor.execute(task);
+        }
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        FutureTask<T> result = new FutureTask<T>(task);
+        execute(result);
+        return result;
+    }
+
+    /**
+     * Halt the tree on the session's executor and forget the session. Tasks
+     * already queued still run; later ones are rejected. Closing again
+     * returns the future of the first close.
+     *
+     * @return completes once the tree is halted
+     */
+    public Future<Void> close() {
+        FutureTask<Void> result = new FutureTask<Void>(new Runnable() {
+            public void run() {
+                AbstractController r = root;
+                root = null;
+                if(r != null)
+                    r.halt();
+                context.clearProperties();
+            }
+        }, null);
+        synchronized(this) {
+            if(!open)
+                return closing;
+            executor.execute(result);
+            open = false;
+            closing = result;
+        }
+        manager.remove(this);
+        return result;
+    }
+
+    public String toString() {
+        return "Session[" + id + (open ? "" : ", closed") + "]";
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.session;
+
+import com.ts.scope.controller.ViewContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <P>
+ *
+ * Hosts any number of independent {@link Session}s in one VM. Sessions share
+ * a fixed pool of threads, by default one per processor, and are kept in a
+ * concurrent map: opening, finding and closing sessions takes no global lock,
+ * and neither does running their tasks. </P> <P>
+ *
+ * Each session brings its own ViewContext, typically a
+ * {@link com.ts.scope.controller.headless.HeadlessContext} or a context
+ * talking to a remote client. The global context is never used by session
+ * tasks. </P>
+ *
+ * @author daibheid
+ */
+public class SessionManager {
+
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+
+    private final ExecutorService pool;
+
+    private final boolean ownsPool;
+
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+    public SessionManager() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads The size of the pool the sessions share
+     */
+    public SessionManager(int threads) {
+        this(Executors.newFixedThreadPool(threads, new PoolThreadFactory()), true);
+    }
+
+    /**
+     * Run sessions on a pool managed elsewhere; {@link #shutdown} won't stop it.
+     */
+    public SessionManager(ExecutorService pool) {
+        this(pool, false);
+    }
+
+    private SessionManager(ExecutorService pool, boolean ownsPool) {
+        if(pool == null)
+            throw new IllegalArgumentException("a session manager needs a pool");
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
+
+    /**
+     * @throws IllegalStateException if a session with that id is open
+     */
+    public Session open(String id, ViewContext context) {
+        if(id == null || context == null)
+            throw new IllegalArgumentException("a session needs an id and a context");
+        Session result = new Session(id, context, this, pool);
+        if(sessions.putIfAbsent(id, result) != null)
+            throw new IllegalStateException("session " + id + " is already open");
+        return result;
+    }
+
+    public Session get(String id) {
+        return id == null ? null : sessions.get(id);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public List<Session> getSessions() {
+        return new ArrayList<Session>(sessions.values());
+    }
+
+    /**
+     * Close a session if it is open.
+     */
+    public void close(String id) {
+        Session session = get(id);
+        if(session != null)
+            session.close();
+    }
+
+    /**
+     * Close every session, then stop the pool if this manager created it.
+     *
+     * @return false if the sessions didn't finish within the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        for(Session session : getSessions())
+            session.close();
+        if(!ownsPool)
+            return true;
+        pool.shutdown();
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    void remove(Session session) {
+        sessions.remove(session.getId(), session);
+    }
+
+    static class PoolThreadFactory implements ThreadFactory {
+        private final int pool = poolNumber.incrementAndGet();
+        private final AtomicInteger thread = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread result = new Thread(r, "Session-" + pool + "-" + thread.incrementAndGet());
+            result.setDaemon(true);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.session;
+
+import com.ts.scope.controller.AbstractController;
+import com.ts.scope.controller.ViewContext;
+import com.ts.scope.controller.headless.HeadlessContext;
+import com.ts.scope.core.View;
+import com.ts.scope.util.StripedCounter;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <P>
+ *
+ * Soak benchmark for {@link SessionManager}: opens many sessions, each with a
+ * {@link HeadlessContext} and its own controller tree, and keeps all of them
+ * busy executing and halting child controllers for a while. It does so with
+ * pools of 1, 2, 4... threads up to the processor count and prints the
+ * throughput of each, so scaling can be read off the speedup column. Every
+ * operation also checks it sees its own session's context; any crossing is
+ * reported as a violation. </P> <P>
+ *
+ * Usage: SessionSoak [sessions [seconds per run]], default 2000 sessions
+ * for 5 seconds. </P>
+ *
+ * @author daibheid
+ */
+public class SessionSoak {
+
+    private final int sessionCount;
+    private final long runMillis;
+
+    public SessionSoak(int sessionCount, long runMillis) {
+        this.sessionCount = sessionCount;
+        this.runMillis = runMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        new SessionSoak(sessions, seconds * 1000).runAll();
+    }
+
+    public void runAll() throws InterruptedException {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        // warm up the JIT before the first measured run
+        run(cpus, Math.min(runMillis, 2000));
+        double base = 0;
+        System.out.println("threads  ops/s  speedup  efficiency  violations");
+        for(int threads = 1; ; threads = Math.min(threads * 2, cpus)) {
+            Result r = run(threads, runMillis);
+            if(base == 0)
+                base = r.opsPerSecond;
+            double speedup = r.opsPerSecond / base;
+            System.out.println(String.format("%7d %8.0f %7.2fx %10.0f%% %11d",
+                    threads, r.opsPerSecond, speedup, 100 * speedup / threads, r.violations));
+            if(threads == cpus)
+                break;
+        }
+    }
+
+    /**
+     * One run with a pool of the given size.
+     */
+    public Result run(int threads, long millis) throws InterruptedException {
+        SessionManager manager = new SessionManager(threads);
+        final StripedCounter operations = new StripedCounter();
+        final AtomicLong violations = new AtomicLong();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+
+        long start = System.nanoTime();
+        for(int i = 0; i < sessionCount; ++i) {
+            final Session session = manager.open("soak-" + i, new HeadlessContext(16));
+            session.execute(new Runnable() {
+                public void run() {
+                    session.setRoot(new SoakController());
+                    session.execute(new Operation(session, operations, violations, deadline));
+                }
+            });
+        }
+        long remaining = deadline - System.nanoTime();
+        if(remaining > 0)
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        long elapsed = System.nanoTime() - start;
+        manager.shutdown(10, TimeUnit.SECONDS);
+
+        return new Result(operations.sum() * 1e9 / elapsed, violations.get());
+    }
+
+    public static final class Result {
+        public final double opsPerSecond;
+        public final long violations;
+
+        Result(double opsPerSecond, long violations) {
+            this.opsPerSecond = opsPerSecond;
+            this.violations = violations;
+        }
+    }
+
+    static class Operation implements Runnable {
+        final Session session;
+        final StripedCounter operations;
+        final AtomicLong violations;
+        final long deadline;
+        long iteration;
+
+        Operation(Session session, StripedCounter operations, AtomicLong violations, long deadline) {
+            this.session = session;
+            this.operations = operations;
+            this.violations = violations;
+            this.deadline = deadline;
+        }
+
+        public void run() {
+            if(ViewContext.getViewContext() != session.getContext() || Session.current() != session)
+                violations.incrementAndGet();
+            SoakController child = new SoakController();
+            session.getRoot().execute(child);
+            child.halt();
+            if(session.getRoot().getChildren().size() != 0)
+                violations.incrementAndGet();
+            operations.increment();
+            if(System.nanoTime() < deadline && session.isOpen()) {
+                try {
+                    session.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // closed by the shutdown since isOpen()
+                }
+            }
+        }
+    }
+
+    static class SoakController extends AbstractController<Long, View> {
+        public void execute() {
+            ViewContext context = ViewContext.getViewContext();
+            context.startProgress();
+            Long count = (Long)context.getProperty("count");
+            context.addProperty("count", Long.valueOf(count == null ? 1 : count.longValue() + 1));
+            setModel(count);
+            context.stopProgress();
+        }
+    }
+}
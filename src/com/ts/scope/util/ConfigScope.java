@@ -0,0 +1,248 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <P>
+ *
+ * A layer of configuration over {@link ScopeConfig}, eg. the tuning of one
+ * workspace. A scope holds only the keys it overrides and reads every other
+ * key from its parent, down to the global Scope config. </P> <P>
+ *
+ * Overrides are copied on write. Each scope keeps its keys flattened into
+ * one immutable snapshot, stamped with the generation of the scope, the
+ * snapshot of its parent and the version of the Scope config it was built
+ * from. A read checks the stamps up the chain of ancestors and rebuilds the
+ * snapshot when one moved on, so a change is never lost to a rebuild racing
+ * with it, and a scoped read costs a few volatile reads and a hash lookup.
+ * </P>
+ *
+ * @author daibheid
+ * @see com.ts.scope.controller.ViewContext#getConfig
+ */
+public final class ConfigScope {
+
+    private static final ConfigScope GLOBAL = new ConfigScope(null, "global");
+
+    private final ConfigScope parent;
+
+    private final String name;
+
+    // immutable, replaced on write
+    private volatile Map<String, Object> overrides = Collections.emptyMap();
+
+    // moves on with every change to the overrides
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile Snapshot snapshot;
+
+
+    private ConfigScope(ConfigScope inParent, String inName) {
+        parent = inParent;
+        name = inName;
+    }
+
+
+    /**
+     * Gets the scope without overrides, that reads the Scope config as is.
+     *
+     * @return The global scope
+     */
+    public static ConfigScope getGlobal() {
+        return GLOBAL;
+    }
+
+
+    /**
+     * Creates a scope over this one.
+     *
+     * @param inName A name for messages
+     * @return The new scope, without overrides
+     */
+    public ConfigScope createChild(String inName) {
+        return new ConfigScope(this, inName);
+    }
+
+
+    public ConfigScope getParent() {
+        return parent;
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * Overrides a key in this scope and the scopes over it.
+     *
+     * @param inKey The property name
+     * @param inValue The value, or null to read the key from the parent again
+     */
+    public void set(String inKey, Object inValue) {
+        if (inKey == null) {
+            throw new IllegalArgumentException("can't use a null key");
+        }
+        if (this == GLOBAL) {
+            throw new UnsupportedOperationException("the global scope reads the Scope config; override in a child");
+        }
+        synchronized (this) {
+            Map<String, Object> copy = new HashMap<String, Object>(overrides);
+            if (inValue == null) {
+                copy.remove(inKey);
+            } else {
+                copy.put(inKey, inValue);
+            }
+            overrides = Collections.unmodifiableMap(copy);
+            // after the overrides: a rebuild that read the old ones is stale
+            generation.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Overrides several keys at once, with a single rebuild.
+     *
+     * @param inValues The keys and values; null values remove the override
+     */
+    public void setAll(Map<String, ?> inValues) {
+        if (this == GLOBAL) {
+            throw new UnsupportedOperationException("the global scope reads the Scope config; override in a child");
+        }
+        synchronized (this) {
+            Map<String, Object> copy = new HashMap<String, Object>(overrides);
+            for (Map.Entry<String, ?> e : inValues.entrySet()) {
+                if (e.getValue() == null) {
+                    copy.remove(e.getKey());
+                } else {
+                    copy.put(e.getKey(), e.getValue());
+                }
+            }
+            overrides = Collections.unmodifiableMap(copy);
+            generation.incrementAndGet();
+        }
+    }
+
+
+    /**
+     * Gets the keys overridden in this scope itself.
+     *
+     * @return An immutable map of the overrides
+     */
+    public Map<String, Object> getOverrides() {
+        return overrides;
+    }
+
+
+    /**
+     * Gets the object value of the property as seen from this scope.
+     *
+     * @param inKey The property name
+     * @return The object value of the property
+     */
+    public Object getObject(String inKey) {
+        return values().get(inKey);
+    }
+
+
+    /**
+     * Gets the string value of the property as seen from this scope.
+     *
+     * @param inKey The property name
+     * @return The string value of the property
+     */
+    public String getString(String inKey) {
+        Object value = values().get(inKey);
+        return (value == null) ? null : value.toString();
+    }
+
+
+    /**
+     * Gets the integer value of the property as seen from this scope, read
+     * like {@link ScopeConfig#getInteger}.
+     *
+     * @param inKey The property name
+     * @return The integer value of the property
+     */
+    public Integer getInteger(String inKey) {
+        return ScopeConfig.toInteger(inKey, values().get(inKey));
+    }
+
+
+    /**
+     * Gets every key and value as seen from this scope.
+     *
+     * @return An immutable map
+     */
+    public Map<String, Object> getAll() {
+        return values();
+    }
+
+
+    public String toString() {
+        return parent == null ? name : parent + "/" + name;
+    }
+
+
+    private Map<String, Object> values() {
+        return current().values;
+    }
+
+
+    /**
+     * Gets the snapshot of this scope, rebuilt if the scope, an ancestor or
+     * the Scope config changed since it was built.
+     */
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        Snapshot parentSnapshot = (parent == null) ? null : parent.current();
+        if (s == null || s.generation != generation.get() || s.parent != parentSnapshot
+                || s.configVersion != ScopeConfig.getVersion()) {
+            s = flatten(parentSnapshot);
+        }
+        return s;
+    }
+
+
+    private Snapshot flatten(Snapshot inParentSnapshot) {
+        // read the stamps first: a change meanwhile makes the next read rebuild
+        long gen = generation.get();
+        int version = ScopeConfig.getVersion();
+        Map<String, Object> values;
+        if (inParentSnapshot == null) {
+            values = new HashMap<String, Object>(ScopeConfig.getProperties());
+        } else {
+            values = new HashMap<String, Object>(inParentSnapshot.values);
+        }
+        values.putAll(overrides);
+        Snapshot result = new Snapshot(Collections.unmodifiableMap(values), gen, inParentSnapshot, version);
+        snapshot = result;
+        return result;
+    }
+
+
+    static final class Snapshot {
+        final Map<String, Object> values;
+        final long generation;
+        // the snapshot of the parent this one was built on, or null on the global scope
+        final Snapshot parent;
+        final int configVersion;
+
+        Snapshot(Map<String, Object> inValues, long inGeneration, Snapshot inParent, int inConfigVersion) {
+            values = inValues;
+            generation = inGeneration;
+            parent = inParent;
+            configVersion = inConfigVersion;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.util;
+
+import com.ts.common.AbstractBean;
+import com.ts.common.BeanMonitorAdapter;
+import com.ts.scope.core.Controller;
+import com.ts.scope.core.View;
+import java.beans.PropertyChangeEvent;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * Java Flight Recorder events of the framework: controller lifecycle, view
+ * display and property change dispatch, each carrying the controller, view
+ * or bean class and the depth in the controller tree. Their settings ship in
+ * 'com/ts/scope/util/scope.jfc'. </P> <P>
+ *
+ * The event types are built through jdk.jfr.EventFactory by reflection, so
+ * the framework still runs on VMs without JFR. A listener on the flight
+ * recorder keeps {@link Type#isEnabled} up to date as recordings start and
+ * stop; while nothing records, an instrumented call site costs a volatile
+ * read and no {@link AbstractBean} monitor is installed. </P>
+ *
+ * @author daibheid
+ */
+public final class FlightEvents {
+
+    private static final Log LOG = LogFactory.getLog(FlightEvents.class);
+
+    private static final int CONTROLLER_CLASS = 0;
+    private static final int VIEW_CLASS = 1;
+    private static final int BEAN_CLASS = 2;
+    private static final int PROPERTY = 3;
+    private static final int DEPTH = 4;
+    private static final int NESTING = 5;
+
+    private static final List<Type> TYPES = new ArrayList<Type>();
+
+    public static final Type CONTROLLER_EXECUTE = new Type("ControllerExecute", "Controller Execute", "Controller", true);
+    public static final Type CONTROLLER_HALT = new Type("ControllerHalt", "Controller Halt", "Controller", true);
+    public static final Type CONTROLLER_SET_PARENT = new Type("ControllerSetParent", "Controller Set Parent", "Controller", true);
+    public static final Type VIEW_SHOW = new Type("ViewShow", "Show View", "View", true);
+    public static final Type VIEW_HIDE = new Type("ViewHide", "Hide View", "View", true);
+    public static final Type WINDOW_SETUP = new Type("WindowSetup", "Setup Window", "View", true);
+    /**
+     * A property change fired outside any other dispatch, with every change
+     * its listeners fired in turn
+     */
+    public static final Type PROPERTY_FIRE = new Type("PropertyFire", "Property Fire", "Bean", false);
+    /**
+     * Every delivery of a property change to the listeners of a bean
+     */
+    public static final Type PROPERTY_DISPATCH = new Type("PropertyDispatch", "Property Dispatch", "Bean", false);
+
+    private static final DispatchRecorder dispatchRecorder = new DispatchRecorder();
+    private static boolean dispatchRecorderInstalled;
+
+    private static Method begin;
+    private static Method commit;
+    private static Method set;
+    private static Method isEnabled;
+
+    static {
+        try {
+            install();
+        } catch (ClassNotFoundException e) {
+            LOG.debug("no flight recorder: " + e);
+        } catch (Exception e) {
+            LOG.warn("can't register the flight recorder events", e);
+        }
+    }
+
+    private FlightEvents() { }
+
+    /**
+     * @return the nesting depth of a controller, 0 for a root, -1 for none
+     */
+    public static int depthOf(Controller inController) {
+        int result = -1;
+        for (Controller c = inController; c != null; c = c.getParent()) {
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the VM has a flight recorder to record into
+     */
+    public static boolean isAvailable() {
+        return commit != null;
+    }
+
+    private static void install() throws Exception {
+        Class annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+        Class valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+        Class eventFactory = Class.forName("jdk.jfr.EventFactory");
+        Class event = Class.forName("jdk.jfr.Event");
+        Class eventType = Class.forName("jdk.jfr.EventType");
+        Class flightRecorder = Class.forName("jdk.jfr.FlightRecorder");
+        Class listener = Class.forName("jdk.jfr.FlightRecorderListener");
+
+        Constructor element = annotationElement.getConstructor(Class.class, Object.class);
+        Constructor field = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+        Method create = eventFactory.getMethod("create", List.class, List.class);
+        Method newEvent = eventFactory.getMethod("newEvent");
+        Method getEventType = eventFactory.getMethod("getEventType");
+        Method register = eventFactory.getMethod("register");
+
+        List fields = Arrays.asList(
+                field.newInstance(String.class, "controllerClass", labels(element, "Controller Class")),
+                field.newInstance(String.class, "viewClass", labels(element, "View Class")),
+                field.newInstance(String.class, "beanClass", labels(element, "Bean Class")),
+                field.newInstance(String.class, "property", labels(element, "Property")),
+                field.newInstance(int.class, "depth", labels(element, "Depth")),
+                field.newInstance(int.class, "nesting", labels(element, "Dispatch Nesting")));
+        for (Type t : TYPES) {
+            List<Object> annotations = new ArrayList<Object>();
+            annotations.add(element.newInstance(annotation("Name"), "com.ts.scope." + t.name));
+            annotations.add(element.newInstance(annotation("Label"), t.label));
+            annotations.add(element.newInstance(annotation("Category"), new String[] {"Scope", t.category}));
+            annotations.add(element.newInstance(annotation("Enabled"), Boolean.valueOf(t.enabledByDefault)));
+            annotations.add(element.newInstance(annotation("StackTrace"), Boolean.valueOf(t.enabledByDefault)));
+            t.factory = create.invoke(null, annotations, fields);
+            t.newEvent = newEvent;
+            t.eventType = getEventType.invoke(t.factory);
+            register.invoke(t.factory);
+        }
+        begin = event.getMethod("begin");
+        commit = event.getMethod("commit");
+        set = event.getMethod("set", int.class, Object.class);
+        isEnabled = eventType.getMethod("isEnabled");
+
+        Object proxy = Proxy.newProxyInstance(FlightEvents.class.getClassLoader(), new Class[] {listener},
+                new InvocationHandler() {
+                    public Object invoke(Object inProxy, Method inMethod, Object[] inArgs) {
+                        if (inMethod.getDeclaringClass() == Object.class) {
+                            return objectMethod(inProxy, inMethod, inArgs);
+                        }
+                        // recorderInitialized and recordingStateChanged
+                        refresh();
+                        return null;
+                    }
+                });
+        flightRecorder.getMethod("addListener", listener).invoke(null, proxy);
+        refresh();
+    }
+
+    private static Class annotation(String inName) throws ClassNotFoundException {
+        return Class.forName("jdk.jfr." + inName);
+    }
+
+    private static List labels(Constructor inElement, String inLabel) throws Exception {
+        return Arrays.asList(inElement.newInstance(annotation("Label"), inLabel));
+    }
+
+    private static Object objectMethod(Object inProxy, Method inMethod, Object[] inArgs) {
+        if (inMethod.getName().equals("equals")) {
+            return Boolean.valueOf(inProxy == inArgs[0]);
+        }
+        if (inMethod.getName().equals("hashCode")) {
+            return Integer.valueOf(System.identityHashCode(inProxy));
+        }
+        return "FlightEvents listener";
+    }
+
+    /**
+     * Reread which event types a running recording wants, and install the
+     * bean monitor only while one of them is a property event.
+     */
+    static synchronized void refresh() {
+        for (Type t : TYPES) {
+            try {
+                t.enabled = ((Boolean) isEnabled.invoke(t.eventType)).booleanValue();
+            } catch (Exception e) {
+                t.enabled = false;
+            }
+        }
+        boolean wanted = PROPERTY_FIRE.enabled || PROPERTY_DISPATCH.enabled;
+        if (wanted != dispatchRecorderInstalled) {
+            dispatchRecorderInstalled = wanted;
+            if (wanted) {
+                dispatchRecorder.reset();
+                AbstractBean.addMonitor(dispatchRecorder);
+            } else {
+                AbstractBean.removeMonitor(dispatchRecorder);
+            }
+        }
+    }
+
+
+    /**
+     * One event type. Call sites check {@link #isEnabled} or pass the null
+     * {@link #begin} returns when it isn't to one of the commit methods.
+     */
+    public static final class Type {
+        private final String name;
+        private final String label;
+        private final String category;
+        private final boolean enabledByDefault;
+        private volatile boolean enabled;
+        private Object factory;
+        private Method newEvent;
+        private Object eventType;
+
+        Type(String inName, String inLabel, String inCategory, boolean inEnabledByDefault) {
+            name = inName;
+            label = inLabel;
+            category = inCategory;
+            enabledByDefault = inEnabledByDefault;
+            TYPES.add(this);
+        }
+
+        /**
+         * @return true while a running recording records this type
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Start timing an event.
+         *
+         * @return The event to commit, or null when the type isn't recorded
+         */
+        public Object begin() {
+            if (!enabled) {
+                return null;
+            }
+            try {
+                Object result = newEvent.invoke(factory);
+                FlightEvents.begin.invoke(result);
+                return result;
+            } catch (Exception e) {
+                enabled = false;
+                LOG.warn("can't record " + name, e);
+                return null;
+            }
+        }
+
+        /**
+         * Commit an event about a controller.
+         *
+         * @param inEvent The value returned by begin, may be null
+         */
+        public void commitController(Object inEvent, Controller inController) {
+            if (inEvent != null) {
+                commitController(inEvent, inController, depthOf(inController));
+            }
+        }
+
+        /**
+         * Commit an event about a controller that has since left the tree.
+         *
+         * @param inEvent The value returned by begin, may be null
+         * @param inDepth The depth the controller had
+         */
+        public void commitController(Object inEvent, Controller inController, int inDepth) {
+            if (inEvent != null) {
+                commit(inEvent, inController, inController == null ? null : inController.getView(), null, null,
+                        inDepth, 0);
+            }
+        }
+
+        /**
+         * Commit an event about a view and the controller it belongs to.
+         *
+         * @param inEvent The value returned by begin, may be null
+         */
+        public void commitView(Object inEvent, Object inView) {
+            if (inEvent != null) {
+                Controller controller = inView instanceof View ? ((View) inView).getController() : null;
+                commit(inEvent, controller, inView, null, null, depthOf(controller), 0);
+            }
+        }
+
+        void commitBean(Object inEvent, AbstractBean inBean, String inProperty, int inNesting) {
+            if (inBean instanceof Controller) {
+                Controller controller = (Controller) inBean;
+                commit(inEvent, controller, controller.getView(), inProperty, null, depthOf(controller), inNesting);
+            } else {
+                commit(inEvent, null, null, inProperty, inBean, -1, inNesting);
+            }
+        }
+
+        private void commit(Object inEvent, Controller inController, Object inView, String inProperty, Object inBean,
+                int inDepth, int inNesting) {
+            try {
+                set.invoke(inEvent, Integer.valueOf(CONTROLLER_CLASS), className(inController));
+                set.invoke(inEvent, Integer.valueOf(VIEW_CLASS), className(inView));
+                set.invoke(inEvent, Integer.valueOf(BEAN_CLASS), className(inBean));
+                set.invoke(inEvent, Integer.valueOf(PROPERTY), inProperty);
+                set.invoke(inEvent, Integer.valueOf(DEPTH), Integer.valueOf(inDepth));
+                set.invoke(inEvent, Integer.valueOf(NESTING), Integer.valueOf(inNesting));
+                FlightEvents.commit.invoke(inEvent);
+            } catch (Exception e) {
+                enabled = false;
+                LOG.warn("can't record " + name, e);
+            }
+        }
+
+        private static String className(Object inObject) {
+            return inObject == null ? null : inObject.getClass().getName();
+        }
+
+        public String toString() {
+            return "com.ts.scope." + name;
+        }
+    }
+
+
+    /**
+     * Records property dispatch while installed as a bean monitor. Each
+     * thread keeps the events of the dispatches it is running, nested ones
+     * on top; a stack left unbalanced by an earlier installation, eg. a
+     * dispatch the recorder was removed during, is dropped the first time
+     * the thread dispatches after the recorder is installed again.
+     */
+    static class DispatchRecorder extends BeanMonitorAdapter {
+        private volatile int installation;
+
+        private final ThreadLocal<Stack> running = new ThreadLocal<Stack>() {
+            protected Stack initialValue() {
+                return new Stack();
+            }
+        };
+
+        /**
+         * Start a new installation, making every thread's stack stale.
+         */
+        void reset() {
+            ++installation;
+        }
+
+        public void dispatchStarted(AbstractBean inSource, PropertyChangeEvent inEvent) {
+            Stack stack = running.get();
+            if (stack.installation != installation) {
+                stack.events.clear();
+                stack.installation = installation;
+            }
+            List<Object> events = stack.events;
+            events.add(events.isEmpty() ? PROPERTY_FIRE.begin() : null);
+            events.add(PROPERTY_DISPATCH.begin());
+        }
+
+        public void dispatchFinished(AbstractBean inSource, PropertyChangeEvent inEvent, long inElapsedNanos) {
+            Stack stack = running.get();
+            List<Object> events = stack.events;
+            if (stack.installation != installation || events.size() < 2) {
+                // started before this installation
+                return;
+            }
+            Object dispatch = events.remove(events.size() - 1);
+            Object fire = events.remove(events.size() - 1);
+            if (dispatch != null) {
+                PROPERTY_DISPATCH.commitBean(dispatch, inSource, inEvent.getPropertyName(), events.size() / 2);
+            }
+            if (fire != null) {
+                PROPERTY_FIRE.commitBean(fire, inSource, inEvent.getPropertyName(), 0);
+            }
+        }
+    }
+
+
+    /**
+     * The events of one thread's running dispatches, and the installation
+     * they belong to.
+     */
+    static final class Stack {
+        int installation;
+        final List<Object> events = new ArrayList<Object>();
+    }
+}
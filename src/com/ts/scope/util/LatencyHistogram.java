@@ -0,0 +1,159 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <P>
+ *
+ * Lock-free latency histogram with log-linear buckets: exact below 16ns,
+ * then 8 buckets per power of two, so any recorded value is reported within
+ * 12.5% of its true value. Recording is a couple of atomic increments and
+ * never allocates. </P>
+ *
+ * @author daibheid
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR = 16;
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = LINEAR + (63 - 4) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record one observation.
+     *
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        total.addAndGet(nanos);
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * Add the observations of another histogram to this one.
+     *
+     * @param inOther The histogram to merge in
+     */
+    public void add(LatencyHistogram inOther) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = inOther.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        total.addAndGet(inOther.total.get());
+        long nanos = inOther.max.get();
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    public long getCount() {
+        long result = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            result += counts.get(i);
+        }
+        return result;
+    }
+
+    public long getTotalNanos() {
+        return total.get();
+    }
+
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    public double getMeanNanos() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) total.get() / count;
+    }
+
+    /**
+     * Gets the latency below which the given fraction of observations fall.
+     *
+     * @param inFraction A fraction between 0 and 1, eg. 0.99
+     * @return The upper bound of the matching bucket, in nanoseconds
+     */
+    public long getPercentileNanos(double inFraction) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.min(1, Math.max(0, inFraction)) * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] > 0) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clear all observations. Observations recorded concurrently may be
+     * partially lost.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        max.set(0);
+    }
+
+    public String toString() {
+        return "count=" + getCount()
+                + " mean=" + micros((long) getMeanNanos())
+                + " p50=" + micros(getPercentileNanos(0.5))
+                + " p99=" + micros(getPercentileNanos(0.99))
+                + " max=" + micros(getMaxNanos());
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < LINEAR) {
+            return (int) nanos;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (msb - SUB_BITS)) & (SUB - 1);
+        return LINEAR + (msb - 4) * SUB + sub;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int msb = (bucket - LINEAR) / SUB + 4;
+        long sub = (bucket - LINEAR) % SUB;
+        return ((SUB + sub + 1) << (msb - SUB_BITS)) - 1;
+    }
+
+    private static String micros(long nanos) {
+        return (nanos / 1000) + "us";
+    }
+}
@@ -38,11 +38,12 @@
 package com.ts.scope.util;
 
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Properties;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -66,7 +67,11 @@ import org.apache.commons.logging.LogFactory;
  *   <LI> scope.properties</LI>
  *   <LI> {@link DefaultScopeConfig}</LI>
  * </OL>
- * </P>
+ * </P> <P>
+ *
+ * The config is safe to read from any number of threads: the singleton is
+ * created once on first use without locking, and the properties are held in
+ * a concurrent map that setPropertiesName() updates in place. </P>
  *
  * @author <A HREF="mailto:smeyfroi@users.sourceforge.net">Steve Meyfroidt</A>
  * @version $Revision: 1.17 $ $Date: 2002/11/20 00:14:00 $
@@ -82,7 +87,8 @@ public final class ScopeConfig {
     /**
      * Property that defines defines the image resource used as the icon for
      * JDialogs and JFrames.<br>
-     * The value is a path to the icon image, using the ResourceLoader. <br>
+     * The value is a path to the icon image on the classpath, loaded through
+     * the ImageCache. <br>
      * Default: /org/scopemvc/images/window_icon.gif
      */
     public static final String SWINGCONTEXT_WINDOW_ICON_PROPERTY =
@@ -109,8 +115,17 @@ public final class ScopeConfig {
      *   <li> onlyOnChange: fires a control only if the value of the component
      *   changed and there was an event (enter pressed or lost focus) on the
      *   component</li>
+     *   <li> onChange: fires a control as the user types</li>
+     *   <li> debounce=N: with onChange, fires once the user stopped typing for
+     *   N milliseconds</li>
+     *   <li> throttle=N: with onChange, fires at most once every N milliseconds
+     *   while the user types</li>
+     *   <li> leading, trailing: fire at the start or the end of the debounce
+     *   or throttle window. Default: trailing for debounce, both for throttle
+     *   </li>
      * </ul>
      * or a combination of those values<br>
+     * eg. onEnter,onChange,debounce=300<br>
      * Default: onEnter,onLostFocus
      */
     public static final String STEXTFIELD_CONTROL_SETTINGS_PROPERTY =
@@ -128,8 +143,17 @@ public final class ScopeConfig {
      *   <li> onlyOnChange: fires a control only if the value of the component
      *   changed and there was an event (enter pressed or lost focus) on the
      *   component</li>
+     *   <li> onChange: fires a control as the user types</li>
+     *   <li> debounce=N: with onChange, fires once the user stopped typing for
+     *   N milliseconds</li>
+     *   <li> throttle=N: with onChange, fires at most once every N milliseconds
+     *   while the user types</li>
+     *   <li> leading, trailing: fire at the start or the end of the debounce
+     *   or throttle window. Default: trailing for debounce, both for throttle
+     *   </li>
      * </ul>
      * or a combination of those values<br>
+     * eg. onEnter,onChange,debounce=300<br>
      * Default: onEnter,onLostFocus
      */
     public static final String SPASSWORDFIELD_CONTROL_SETTINGS_PROPERTY =
@@ -145,6 +169,14 @@ public final class ScopeConfig {
      *   <li> onlyOnChange: fires a control only if the value of the component
      *   changed and there was an event (enter pressed or lost focus) on the
      *   component</li>
+     *   <li> onChange: fires a control as the user types</li>
+     *   <li> debounce=N: with onChange, fires once the user stopped typing for
+     *   N milliseconds</li>
+     *   <li> throttle=N: with onChange, fires at most once every N milliseconds
+     *   while the user types</li>
+     *   <li> leading, trailing: fire at the start or the end of the debounce
+     *   or throttle window. Default: trailing for debounce, both for throttle
+     *   </li>
      * </ul>
      * or a combination of those values<br>
      * Default: onLostFocus
@@ -179,14 +211,14 @@ public final class ScopeConfig {
     private static final String DEFAULT_CONFIG_NAME = "org.scopemvc.util.DefaultScopeConfig";
     private static final String DEFAULT_PROPERTY_PREFIX = "org.scopemvc.";
 
-    // -------------------- Initialisation ----------------------------------
+    private static final AtomicInteger version = new AtomicInteger();
 
-    private static ScopeConfig instance;
+    // -------------------- Initialisation ----------------------------------
 
     /**
      * The Scope config properties loaded at first access of config.
      */
-    private HashMap properties = new HashMap();
+    private final ConcurrentHashMap properties = new ConcurrentHashMap();
 
 
     private ScopeConfig() {
@@ -202,10 +234,7 @@ public final class ScopeConfig {
      * @return The singleton of the ScopeConfig
      */
     public static ScopeConfig getInstance() {
-        if (instance == null) {
-            instance = new ScopeConfig();
-        }
-        return instance;
+        return Holder.INSTANCE;
     }
 
 
@@ -308,8 +337,18 @@ public final class ScopeConfig {
      * @return The integer value of the property
      */
     public static Integer getInteger(String inKey) {
-        Object o = getProperties().get(inKey);
+        return toInteger(inKey, getProperties().get(inKey));
+    }
 
+
+    /**
+     * Reads a property value as an integer
+     *
+     * @param inKey The property name, for messages
+     * @param o The value: null, an Integer or a String
+     * @return The integer value, or null
+     */
+    static Integer toInteger(String inKey, Object o) {
         if (o == null) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("getInteger: " + inKey + ", result  null");
@@ -377,6 +416,18 @@ public final class ScopeConfig {
 
         // Load system properties over the top
         getInstance().loadSystemConfig();
+        version.incrementAndGet();
+    }
+
+
+    /**
+     * Gets the number of times the properties were reloaded, so
+     * {@link ConfigScope}s know their snapshots are stale.
+     *
+     * @return The version of the properties
+     */
+    public static int getVersion() {
+        return version.get();
     }
 
 
@@ -385,7 +436,7 @@ public final class ScopeConfig {
      *
      * @return The properties value
      */
-    protected static HashMap getProperties() {
+    protected static ConcurrentHashMap getProperties() {
         return getInstance().properties;
     }
 
@@ -503,4 +554,13 @@ public final class ScopeConfig {
             properties.put(key, value);
         }
     }
+
+
+    /**
+     * Creates the singleton when first referenced, which the class loader
+     * does exactly once without any lock on later accesses.
+     */
+    private static class Holder {
+        static final ScopeConfig INSTANCE = new ScopeConfig();
+    }
 }
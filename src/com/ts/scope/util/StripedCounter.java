@@ -0,0 +1,105 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <P>
+ *
+ * A counter spread over several cache-line padded cells so that threads
+ * updating it concurrently don't contend on one memory location. Each thread
+ * updates the cell picked by its id; reads sum the cells. </P> <P>
+ *
+ * This is the Java 7 stand-in for java.util.concurrent.atomic.LongAdder:
+ * {@link #sum} is not an atomic snapshot when updates are concurrent. </P>
+ *
+ * @author daibheid
+ */
+public final class StripedCounter {
+
+    /**
+     * Longs per cache line: cells are this far apart in the array
+     */
+    private static final int PAD = 8;
+
+    private static final int DEFAULT_STRIPES;
+
+    static {
+        int stripes = 1;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        while (stripes < cpus * 2 && stripes < 64) {
+            stripes <<= 1;
+        }
+        DEFAULT_STRIPES = stripes;
+    }
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public StripedCounter() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param inStripes The number of cells, rounded up to a power of two
+     */
+    public StripedCounter(int inStripes) {
+        int stripes = 1;
+        while (stripes < inStripes) {
+            stripes <<= 1;
+        }
+        mask = stripes - 1;
+        cells = new AtomicLongArray(stripes * PAD);
+    }
+
+    public void add(long inDelta) {
+        cells.addAndGet(cell(), inDelta);
+    }
+
+    public void increment() {
+        cells.incrementAndGet(cell());
+    }
+
+    public void decrement() {
+        cells.decrementAndGet(cell());
+    }
+
+    public long sum() {
+        long result = 0;
+        for (int i = 0; i <= mask; i++) {
+            result += cells.get(i * PAD);
+        }
+        return result;
+    }
+
+    /**
+     * Sum the cells, zeroing each one as it is read.
+     *
+     * @return The sum before the reset
+     */
+    public long sumThenReset() {
+        long result = 0;
+        for (int i = 0; i <= mask; i++) {
+            result += cells.getAndSet(i * PAD, 0);
+        }
+        return result;
+    }
+
+    public void reset() {
+        sumThenReset();
+    }
+
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    private int cell() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) & mask) * PAD;
+    }
+}
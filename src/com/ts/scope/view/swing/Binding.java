@@ -0,0 +1,160 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import com.ts.common.AbstractBean;
+import com.ts.common.PropertyAccessor;
+import java.awt.Component;
+import java.beans.IndexedPropertyChangeEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import javax.swing.SwingUtilities;
+
+/**
+ * <P>
+ *
+ * Binds a model property to a component property. The component accessor is
+ * resolved when the binding is made and the model accessor when a model of a
+ * new class is attached; after that updates go straight from the new value
+ * of the model's change event into the component setter. </P> <P>
+ *
+ * Model changes fired off the EDT reach the component through the
+ * {@link EdtPropertyBridge}, one update per frame. A two-way binding also
+ * writes bound property changes of the component back into the model. </P>
+ *
+ * @author daibheid
+ * @see BindingGroup
+ */
+public class Binding {
+
+    private final String modelProperty;
+    private final Component component;
+    private final PropertyAccessor componentAccessor;
+    private final Converter converter;
+    private final boolean twoWay;
+
+    private Object model;
+    private PropertyAccessor modelAccessor;
+    private boolean updating;
+
+    private final PropertyChangeListener modelListener = new PropertyChangeListener() {
+        public void propertyChange(PropertyChangeEvent event) {
+            if(event.getSource() != model)
+                return;
+            // an indexed event carries one element, not the property
+            if(event.getPropertyName() == null || event instanceof IndexedPropertyChangeEvent)
+                refresh();
+            else
+                toComponent(event.getNewValue());
+        }
+    };
+
+    private final PropertyChangeListener bridgedModelListener = EdtPropertyBridge.getDefault().wrap(modelListener);
+
+    private final PropertyChangeListener componentListener = new PropertyChangeListener() {
+        public void propertyChange(PropertyChangeEvent event) {
+            toModel(event.getNewValue());
+        }
+    };
+
+    /**
+     * @param converter Converts values between model and component, or null
+     * @param twoWay true to write component changes back into the model
+     */
+    public Binding(String modelProperty, Component component, String componentProperty, Converter converter, boolean twoWay) {
+        if(modelProperty == null || component == null || componentProperty == null)
+            throw new IllegalArgumentException("a binding needs a model property, a component and a component property");
+        this.modelProperty = modelProperty;
+        this.component = component;
+        this.componentAccessor = PropertyAccessor.forProperty(component.getClass(), componentProperty);
+        this.converter = converter;
+        this.twoWay = twoWay;
+        if(!componentAccessor.isWritable())
+            throw new IllegalArgumentException(componentAccessor + " isn't writable");
+    }
+
+    public String getModelProperty() {
+        return modelProperty;
+    }
+
+    public Component getComponent() {
+        return component;
+    }
+
+    public String getComponentProperty() {
+        return componentAccessor.getName();
+    }
+
+    public Object getModel() {
+        return model;
+    }
+
+    /**
+     * Attach to a model, replacing the current one, and push its value into
+     * the component.
+     */
+    public void bind(Object value) {
+        unbind();
+        if(value == null)
+            return;
+        model = value;
+        if(modelAccessor == null || modelAccessor.getBeanClass() != value.getClass())
+            modelAccessor = PropertyAccessor.forProperty(value.getClass(), modelProperty);
+        if(value instanceof AbstractBean)
+            ((AbstractBean)value).addPropertyChangeListener(modelProperty, bridgedModelListener);
+        if(twoWay)
+            component.addPropertyChangeListener(componentAccessor.getName(), componentListener);
+        refresh();
+    }
+
+    public void unbind() {
+        if(model instanceof AbstractBean)
+            ((AbstractBean)model).removePropertyChangeListener(modelProperty, bridgedModelListener);
+        if(model != null && twoWay)
+            component.removePropertyChangeListener(componentAccessor.getName(), componentListener);
+        model = null;
+    }
+
+    /**
+     * Read the model property and push it into the component, e.g. for
+     * models that don't fire change events.
+     */
+    public void refresh() {
+        if(model != null && modelAccessor.isReadable())
+            toComponent(modelAccessor.get(model));
+    }
+
+    void toComponent(final Object value) {
+        if(!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    toComponent(value);
+                }
+            });
+            return;
+        }
+        if(updating)
+            return;
+        updating = true;
+        try {
+            componentAccessor.set(component, converter == null ? value : converter.toComponent(value));
+        } finally {
+            updating = false;
+        }
+    }
+
+    void toModel(Object value) {
+        if(updating || model == null || !modelAccessor.isWritable())
+            return;
+        updating = true;
+        try {
+            modelAccessor.set(model, converter == null ? value : converter.toModel(value));
+        } finally {
+            updating = false;
+        }
+    }
+}
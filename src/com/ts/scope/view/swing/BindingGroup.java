@@ -0,0 +1,117 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import com.ts.common.AbstractBean;
+import com.ts.scope.core.Controller;
+import java.awt.Component;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <P>
+ *
+ * The bindings of a view, declared once and attached to whatever model the
+ * view is showing: </P>
+ * <PRE>
+ *     bindings = new BindingGroup()
+ *             .bind("name", nameLabel, "text")
+ *             .bindTwoWay("active", activeCheckBox, "selected", null);
+ *     bindings.attach(this);
+ * </PRE>
+ * <P>
+ *
+ * Attached to a {@link SwingView}, the group follows the bound model: when
+ * the view's controller gets a new model every binding moves to it. </P>
+ *
+ * @author daibheid
+ */
+public class BindingGroup {
+
+    private final List<Binding> bindings = new ArrayList<Binding>();
+
+    private Object model;
+
+    private AbstractBean controller;
+
+    private final PropertyChangeListener modelFollower = new PropertyChangeListener() {
+        public void propertyChange(PropertyChangeEvent event) {
+            // "model" or "modelAndView"
+            attach(((Controller)event.getSource()).getModel());
+        }
+    };
+
+    public BindingGroup bind(String modelProperty, Component component, String componentProperty) {
+        return add(new Binding(modelProperty, component, componentProperty, null, false));
+    }
+
+    public BindingGroup bind(String modelProperty, Component component, String componentProperty, Converter converter) {
+        return add(new Binding(modelProperty, component, componentProperty, converter, false));
+    }
+
+    public BindingGroup bindTwoWay(String modelProperty, Component component, String componentProperty, Converter converter) {
+        return add(new Binding(modelProperty, component, componentProperty, converter, true));
+    }
+
+    public BindingGroup add(Binding value) {
+        bindings.add(value);
+        if(model != null)
+            value.bind(model);
+        return this;
+    }
+
+    public List<Binding> getBindings() {
+        return Collections.unmodifiableList(bindings);
+    }
+
+    public Object getModel() {
+        return model;
+    }
+
+    /**
+     * Attach every binding to a model.
+     */
+    public void attach(Object value) {
+        model = value;
+        for(Binding binding : bindings)
+            binding.bind(value);
+    }
+
+    /**
+     * Attach to the bound model of a view and follow its controller's model
+     * from then on.
+     */
+    public void attach(SwingView view) {
+        detach();
+        Controller c = view.getController();
+        if(c instanceof AbstractBean) {
+            controller = (AbstractBean)c;
+            controller.addPropertyChangeListener("model", modelFollower);
+            controller.addPropertyChangeListener("modelAndView", modelFollower);
+        }
+        attach(c == null ? null : c.getModel());
+    }
+
+    public void detach() {
+        if(controller != null) {
+            controller.removePropertyChangeListener("model", modelFollower);
+            controller.removePropertyChangeListener("modelAndView", modelFollower);
+            controller = null;
+        }
+        model = null;
+        for(Binding binding : bindings)
+            binding.unbind();
+    }
+
+    public void refresh() {
+        for(Binding binding : bindings)
+            binding.refresh();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import com.ts.scope.controller.ViewContext;
+import java.util.StringTokenizer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * When a text component fires its control, parsed from a coma-separated
+ * list such as "onEnter,onLostFocus" or "onChange,debounce=300". </P> <P>
+ *
+ * onChange fires as the user types. Alone it fires on every edit. With
+ * debounce=N it fires once the user has stopped typing for N ms; with
+ * throttle=N it fires at most once every N ms while they type. leading and
+ * trailing choose the edges of the window that fire: a debounce fires on the
+ * trailing edge and a throttle on both unless told otherwise. </P>
+ *
+ * @author daibheid
+ * @see TextControlTrigger
+ */
+public final class ControlSettings {
+
+    public static final int IMMEDIATE = 0;
+    public static final int DEBOUNCE = 1;
+    public static final int THROTTLE = 2;
+
+    private static final Log LOG = LogFactory.getLog(ControlSettings.class);
+
+    private final boolean onEnter;
+    private final boolean onLostFocus;
+    private final boolean onlyOnChange;
+    private final boolean onChange;
+    private final int mode;
+    private final int windowMillis;
+    private final boolean leading;
+    private final boolean trailing;
+
+    private ControlSettings(boolean onEnter, boolean onLostFocus, boolean onlyOnChange, boolean onChange,
+            int mode, int windowMillis, boolean leading, boolean trailing) {
+        this.onEnter = onEnter;
+        this.onLostFocus = onLostFocus;
+        this.onlyOnChange = onlyOnChange;
+        this.onChange = onChange;
+        this.mode = mode;
+        this.windowMillis = windowMillis;
+        this.leading = leading;
+        this.trailing = trailing;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a window isn't a positive number
+     *      of milliseconds; unknown settings are logged and ignored
+     */
+    public static ControlSettings parse(String settings) {
+        boolean onEnter = false;
+        boolean onLostFocus = false;
+        boolean onlyOnChange = false;
+        boolean onChange = false;
+        int mode = IMMEDIATE;
+        int window = 0;
+        boolean leading = false;
+        boolean trailing = false;
+        boolean edges = false;
+        StringTokenizer tokens = new StringTokenizer(settings == null ? "" : settings, ",");
+        while(tokens.hasMoreTokens()) {
+            String token = tokens.nextToken().trim();
+            int eq = token.indexOf('=');
+            String name = eq < 0 ? token : token.substring(0, eq).trim();
+            if(name.equalsIgnoreCase("onEnter")) {
+                onEnter = true;
+            } else if(name.equalsIgnoreCase("onLostFocus")) {
+                onLostFocus = true;
+            } else if(name.equalsIgnoreCase("onlyOnChange")) {
+                onlyOnChange = true;
+            } else if(name.equalsIgnoreCase("onChange")) {
+                onChange = true;
+            } else if(name.equalsIgnoreCase("debounce") || name.equalsIgnoreCase("throttle")) {
+                mode = name.equalsIgnoreCase("debounce") ? DEBOUNCE : THROTTLE;
+                window = parseWindow(token, eq);
+            } else if(name.equalsIgnoreCase("leading")) {
+                leading = edges = true;
+            } else if(name.equalsIgnoreCase("trailing")) {
+                trailing = edges = true;
+            } else if(name.length() > 0) {
+                LOG.warn("unknown control setting '" + token + "' in '" + settings + "'");
+            }
+        }
+        if(!edges) {
+            leading = mode == THROTTLE;
+            trailing = true;
+        }
+        return new ControlSettings(onEnter, onLostFocus, onlyOnChange, onChange || mode != IMMEDIATE,
+                mode, window, leading, trailing);
+    }
+
+    /**
+     * Read the settings of a component kind from the config of the current
+     * ViewContext.
+     *
+     * @param property One of the *_CONTROL_SETTINGS_PROPERTY keys
+     * @param defaultSettings Used when the property isn't set
+     */
+    public static ControlSettings forProperty(String property, String defaultSettings) {
+        String value = ViewContext.getCurrentConfig().getString(property);
+        try {
+            return parse(value == null ? defaultSettings : value);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("bad " + property + ": " + e.getMessage());
+            return parse(defaultSettings);
+        }
+    }
+
+    public boolean isOnEnter() {
+        return onEnter;
+    }
+
+    public boolean isOnLostFocus() {
+        return onLostFocus;
+    }
+
+    public boolean isOnlyOnChange() {
+        return onlyOnChange;
+    }
+
+    public boolean isOnChange() {
+        return onChange;
+    }
+
+    /**
+     * @return IMMEDIATE, DEBOUNCE or THROTTLE
+     */
+    public int getMode() {
+        return mode;
+    }
+
+    public int getWindowMillis() {
+        return windowMillis;
+    }
+
+    public boolean isLeading() {
+        return leading;
+    }
+
+    public boolean isTrailing() {
+        return trailing;
+    }
+
+    public String toString() {
+        StringBuffer result = new StringBuffer();
+        if(onEnter)
+            result.append(",onEnter");
+        if(onLostFocus)
+            result.append(",onLostFocus");
+        if(onlyOnChange)
+            result.append(",onlyOnChange");
+        if(onChange)
+            result.append(",onChange");
+        if(mode != IMMEDIATE) {
+            result.append(mode == DEBOUNCE ? ",debounce=" : ",throttle=").append(windowMillis);
+            if(leading)
+                result.append(",leading");
+            if(trailing)
+                result.append(",trailing");
+        }
+        return result.length() == 0 ? "" : result.substring(1);
+    }
+
+    private static int parseWindow(String token, int eq) {
+        try {
+            int result = eq < 0 ? -1 : Integer.parseInt(token.substring(eq + 1).trim());
+            if(result > 0)
+                return result;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("'" + token + "' needs a window in milliseconds");
+    }
+}
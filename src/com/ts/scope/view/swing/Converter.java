@@ -0,0 +1,21 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+/**
+ * Converts values between a model property and the component property it is
+ * bound to.
+ *
+ * @author daibheid
+ * @see BindingGroup
+ */
+public interface Converter {
+
+    public Object toComponent(Object modelValue);
+
+    public Object toModel(Object componentValue);
+}
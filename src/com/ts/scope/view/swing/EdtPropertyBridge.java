@@ -0,0 +1,336 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import com.ts.common.AbstractBean;
+import com.ts.common.ListDeltaEvent;
+import com.ts.scope.util.StripedCounter;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.beans.IndexedPropertyChangeEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * <P>
+ *
+ * Marshals property changes fired on any thread onto the EDT, coalescing them
+ * per (listener, bean, property): the listener sees one event per frame
+ * carrying the first old value and the last new value. Changes that end up
+ * where they started aren't delivered at all. </P> <P>
+ *
+ * At most maxPending distinct changes wait for a flush. Past that a bean's
+ * further changes collapse into one event with a null property name, which
+ * by the java.beans convention means any property may have changed; past
+ * twice that they are dropped and counted. </P> <P>
+ *
+ * {@link ListDeltaEvent}s aren't reduced to their last value: their deltas
+ * are concatenated, so the listener can still replay every change. </P>
+ *
+ * @author daibheid
+ */
+public class EdtPropertyBridge {
+
+    public static final int DEFAULT_FRAME_MILLIS = 16;
+
+    public static final int DEFAULT_MAX_PENDING = 4096;
+
+    private static EdtPropertyBridge defaultBridge;
+
+    private final int frameMillis;
+
+    private final int maxPending;
+
+    private final ConcurrentHashMap<Key, PropertyChangeEvent> pending = new ConcurrentHashMap<Key, PropertyChangeEvent>();
+
+    private final ConcurrentLinkedQueue<Key> order = new ConcurrentLinkedQueue<Key>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private volatile long lastFlushNanos;
+
+    private final Timer timer;
+
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    private final StripedCounter received = new StripedCounter();
+    private final StripedCounter delivered = new StripedCounter();
+    private final StripedCounter coalesced = new StripedCounter();
+    private final StripedCounter collapsed = new StripedCounter();
+    private final StripedCounter dropped = new StripedCounter();
+    private final StripedCounter flushes = new StripedCounter();
+
+    public EdtPropertyBridge() {
+        this(DEFAULT_FRAME_MILLIS, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param frameMillis The minimum time between two flushes, 0 to flush as
+     *      soon as the EDT gets to it
+     * @param maxPending The number of distinct changes that may wait
+     */
+    public EdtPropertyBridge(int frameMillis, int maxPending) {
+        if(frameMillis < 0 || maxPending < 1)
+            throw new IllegalArgumentException("bad frame " + frameMillis + "ms or backlog " + maxPending);
+        this.frameMillis = frameMillis;
+        this.maxPending = maxPending;
+        timer = new Timer(frameMillis, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                flush();
+            }
+        });
+        timer.setRepeats(false);
+    }
+
+    /**
+     * @return a bridge with the default frame and backlog, shared by all views
+     */
+    public static synchronized EdtPropertyBridge getDefault() {
+        if(defaultBridge == null)
+            defaultBridge = new EdtPropertyBridge();
+        return defaultBridge;
+    }
+
+    /**
+     * Wrap a listener so it only ever sees coalesced events on the EDT.
+     * Register the result with the bean, and use it again to unregister.
+     */
+    public PropertyChangeListener wrap(PropertyChangeListener target) {
+        if(target == null)
+            throw new IllegalArgumentException("can't bridge a null listener");
+        return new BridgedListener(target);
+    }
+
+    /**
+     * Listen to a property of a bean through the bridge.
+     *
+     * @param property The property, or null for all of them
+     * @return the registered listener, for removePropertyChangeListener
+     */
+    public PropertyChangeListener listen(AbstractBean bean, String property, PropertyChangeListener target) {
+        PropertyChangeListener result = wrap(target);
+        if(property == null)
+            bean.addPropertyChangeListener(result);
+        else
+            bean.addPropertyChangeListener(property, result);
+        return result;
+    }
+
+    /**
+     * Deliver everything pending now. Must be called on the EDT.
+     */
+    public void flush() {
+        if(!SwingUtilities.isEventDispatchThread())
+            throw new IllegalStateException("EdtPropertyBridge.flush() must run on the EDT");
+        scheduled.set(false);
+        lastFlushNanos = System.nanoTime();
+        flushes.increment();
+        // only what is queued now: anything arriving meanwhile waits a frame
+        for(int n = pendingCount.get(); n > 0; --n) {
+            Key key = order.poll();
+            if(key == null)
+                break;
+            PropertyChangeEvent event = pending.remove(key);
+            pendingCount.decrementAndGet();
+            if(event != null)
+                deliver(key.target, event);
+        }
+    }
+
+    public int getFrameMillis() {
+        return frameMillis;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    /**
+     * @return events merged into a pending one or cancelled out by it
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return events folded into a whole-bean event because the backlog was full
+     */
+    public long getCollapsedCount() {
+        return collapsed.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    void enqueue(PropertyChangeListener target, PropertyChangeEvent event) {
+        received.increment();
+        Key key = new Key(target, event);
+        if(pendingCount.get() >= maxPending && !pending.containsKey(key)) {
+            if(pendingCount.get() >= 2 * maxPending) {
+                dropped.increment();
+                return;
+            }
+            collapsed.increment();
+            key = new Key(target, event.getSource());
+            event = new PropertyChangeEvent(event.getSource(), null, null, null);
+        }
+
+        PropertyChangeEvent previous = pending.putIfAbsent(key, event);
+        while(previous != null) {
+            if(pending.replace(key, previous, merge(previous, event))) {
+                coalesced.increment();
+                return;
+            }
+            previous = pending.putIfAbsent(key, event);
+        }
+        pendingCount.incrementAndGet();
+        order.offer(key);
+        schedule();
+    }
+
+    /**
+     * On the EDT: deliver straight away, after whatever is pending for the
+     * same key so the listener never goes back in time.
+     */
+    void deliverNow(PropertyChangeListener target, PropertyChangeEvent event) {
+        received.increment();
+        Key key = new Key(target, event);
+        PropertyChangeEvent previous = pending.remove(key);
+        if(previous != null) {
+            coalesced.increment();
+            event = merge(previous, event);
+        }
+        deliver(target, event);
+    }
+
+    private void deliver(PropertyChangeListener target, PropertyChangeEvent event) {
+        Object oldValue = event.getOldValue();
+        Object newValue = event.getNewValue();
+        if(event.getPropertyName() != null && oldValue != null && oldValue.equals(newValue)) {
+            coalesced.increment();
+            return;
+        }
+        delivered.increment();
+        target.propertyChange(event);
+    }
+
+    private void schedule() {
+        if(!scheduled.compareAndSet(false, true))
+            return;
+        long wait = frameMillis - (System.nanoTime() - lastFlushNanos) / 1000000L;
+        if(wait <= 0) {
+            SwingUtilities.invokeLater(flushTask);
+        } else {
+            timer.setInitialDelay((int)wait);
+            timer.restart();
+        }
+    }
+
+    private static PropertyChangeEvent merge(PropertyChangeEvent first, PropertyChangeEvent last) {
+        if(first.getPropertyName() == null)
+            return first;
+        if(first instanceof ListDeltaEvent && last instanceof ListDeltaEvent)
+            return ((ListDeltaEvent)first).concat((ListDeltaEvent)last);
+        PropertyChangeEvent result;
+        if(last instanceof IndexedPropertyChangeEvent) {
+            result = new IndexedPropertyChangeEvent(last.getSource(), last.getPropertyName(),
+                    first.getOldValue(), last.getNewValue(), ((IndexedPropertyChangeEvent)last).getIndex());
+        } else {
+            result = new PropertyChangeEvent(last.getSource(), last.getPropertyName(),
+                    first.getOldValue(), last.getNewValue());
+        }
+        result.setPropagationId(last.getPropagationId());
+        return result;
+    }
+
+    class BridgedListener implements PropertyChangeListener {
+        final PropertyChangeListener target;
+
+        BridgedListener(PropertyChangeListener target) {
+            this.target = target;
+        }
+
+        public void propertyChange(PropertyChangeEvent event) {
+            if(SwingUtilities.isEventDispatchThread())
+                deliverNow(target, event);
+            else
+                enqueue(target, event);
+        }
+    }
+
+    static final class Key {
+        final PropertyChangeListener target;
+        final Object source;
+        final String property;
+        final int index;
+        final int hash;
+
+        Key(PropertyChangeListener target, PropertyChangeEvent event) {
+            this(target, event.getSource(), event.getPropertyName(),
+                    event instanceof IndexedPropertyChangeEvent ? ((IndexedPropertyChangeEvent)event).getIndex() : -1);
+        }
+
+        /**
+         * The key of the whole-bean event of a source
+         */
+        Key(PropertyChangeListener target, Object source) {
+            this(target, source, null, -1);
+        }
+
+        private Key(PropertyChangeListener target, Object source, String property, int index) {
+            this.target = target;
+            this.source = source;
+            this.property = property;
+            this.index = index;
+            int h = System.identityHashCode(target);
+            h = 31 * h + System.identityHashCode(source);
+            h = 31 * h + (property == null ? 0 : property.hashCode());
+            hash = 31 * h + index;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if(!(o instanceof Key))
+                return false;
+            Key k = (Key)o;
+            return k.target == target && k.source == source && k.index == index
+                    && (property == null ? k.property == null : property.equals(k.property));
+        }
+    }
+}
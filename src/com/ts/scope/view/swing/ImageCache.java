@@ -0,0 +1,521 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import com.ts.scope.util.ScopeConfig;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * Decoded images shared by the whole application, keyed by resource path
+ * and scale. The most recently used images are held up to a byte budget;
+ * images pushed out of it are only held softly, so they come back for free
+ * until the VM needs the memory. </P> <P>
+ *
+ * Images are decoded by daemon threads. {@link #load} returns at once and
+ * concurrent requests for the same image share one decode; {@link #getImage}
+ * waits for it, except on the EDT, where it returns the placeholder while
+ * the image is decoded in the background. An image asked for at a scale
+ * other than 1 is read from the variant named with the scale, eg.
+ * 'icon@2x.png' for 'icon.png' at 2, and scaled from the base image if
+ * there is none. An image that can't be found or decoded is remembered as
+ * such, and asked for again only after {@link #clear}. </P>
+ *
+ * @author daibheid
+ */
+public final class ImageCache {
+
+    /**
+     * The property in ScopeConfig for the bytes of decoded images the
+     * default cache holds on to. Default: 16MB
+     */
+    public static final String MAX_BYTES_PROPERTY = "org.scopemvc.view.swing.ImageCache.max_bytes";
+
+    public static final int DEFAULT_MAX_BYTES = 16 << 20;
+
+    private static final Log LOG = LogFactory.getLog(ImageCache.class);
+
+    private static ImageCache defaultCache;
+
+    private final long maxBytes;
+
+    private final Executor decoder;
+
+    // access ordered: the eldest is the least recently used
+    private final LinkedHashMap<Key, BufferedImage> strong = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true);
+
+    private final Map<Key, SoftReference<BufferedImage>> soft = new LinkedHashMap<Key, SoftReference<BufferedImage>>();
+
+    private long strongBytes;
+
+    // images that can't be found or decoded; guarded by this
+    private final Set<Key> missing = new HashSet<Key>();
+
+    private volatile Image placeholder;
+
+    private final ConcurrentMap<Key, Decode> decoding = new ConcurrentHashMap<Key, Decode>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong softHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param decoder Runs the decodes
+     */
+    public ImageCache(long maxBytes, Executor decoder) {
+        if(maxBytes < 0 || decoder == null)
+            throw new IllegalArgumentException("bad budget " + maxBytes + " or no decoder");
+        this.maxBytes = maxBytes;
+        this.decoder = decoder;
+    }
+
+    /**
+     * @return the cache shared by the framework, with the budget configured
+     *      in ScopeConfig and two decoding threads
+     */
+    public static synchronized ImageCache getDefault() {
+        if(defaultCache == null) {
+            Integer max = ScopeConfig.getInteger(MAX_BYTES_PROPERTY);
+            final AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread result = new Thread(r, "ImageCache-" + count.incrementAndGet());
+                    result.setDaemon(true);
+                    result.setPriority(Thread.NORM_PRIORITY - 1);
+                    return result;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            defaultCache = new ImageCache(max == null ? DEFAULT_MAX_BYTES : max.intValue(), pool);
+        }
+        return defaultCache;
+    }
+
+    public Image getImage(String path) {
+        return getImage(path, 1);
+    }
+
+    /**
+     * Get an image, decoding it on the calling thread if it isn't cached,
+     * or waiting for the decode under way. On the EDT an image that isn't
+     * cached is decoded in the background, and the placeholder returned
+     * meanwhile; use {@link #load(String, double, Callback)} to hear when it
+     * is ready.
+     *
+     * @return the image, the placeholder, or null if it can't be found or
+     *      decoded
+     */
+    public Image getImage(String path, double scale) {
+        Key key = new Key(path, scale);
+        BufferedImage result = cached(key);
+        if(result != null || isMissing(key))
+            return result;
+        if(SwingUtilities.isEventDispatchThread()) {
+            decode(key, true);
+            return placeholder;
+        }
+        Decode decode = decode(key, false);
+        decode.run();
+        return await(decode);
+    }
+
+    /**
+     * @return what {@link #getImage} returns on the EDT for an image still
+     *      being decoded; null by default
+     */
+    public Image getPlaceholder() {
+        return placeholder;
+    }
+
+    public void setPlaceholder(Image value) {
+        placeholder = value;
+    }
+
+    /**
+     * Start decoding an image unless it is cached or being decoded.
+     *
+     * @return the image, once decoded; null if it can't be found or decoded
+     */
+    public Future<? extends Image> load(String path, double scale) {
+        Key key = new Key(path, scale);
+        BufferedImage result = cached(key);
+        if(result != null || isMissing(key)) {
+            FutureTask<BufferedImage> done = new FutureTask<BufferedImage>(new Decoded(result));
+            done.run();
+            return done;
+        }
+        return decode(key, true);
+    }
+
+    /**
+     * Decode an image off the EDT and hand it to a callback on the EDT, at
+     * once if it is cached.
+     */
+    public void load(final String path, final double scale, final Callback callback) {
+        final Key key = new Key(path, scale);
+        BufferedImage result = cached(key);
+        boolean known = result != null || isMissing(key);
+        if(known && SwingUtilities.isEventDispatchThread()) {
+            callback.imageLoaded(path, scale, result);
+            return;
+        }
+        final Decode decode = known ? null : decode(key, true);
+        final BufferedImage image = result;
+        Runnable deliver = new Runnable() {
+            public void run() {
+                callback.imageLoaded(path, scale, decode == null ? image : await(decode));
+            }
+        };
+        if(decode == null)
+            SwingUtilities.invokeLater(deliver);
+        else
+            decode.whenDone(deliver);
+    }
+
+    /**
+     * The images of a path at several scales, eg. for Window.setIconImages
+     * to pick from. Images that can't be loaded are left out.
+     */
+    public List<Image> getImages(String path, double[] scales) {
+        List<Future<? extends Image>> futures = new ArrayList<Future<? extends Image>>();
+        for(int i = 0; i < scales.length; ++i)
+            futures.add(load(path, scales[i]));
+        List<Image> result = new ArrayList<Image>();
+        for(Future<? extends Image> f : futures) {
+            Image image = await(f);
+            if(image != null)
+                result.add(image);
+        }
+        return result;
+    }
+
+    /**
+     * Drop every image; the soft ones go too, and images that couldn't be
+     * loaded are tried again.
+     */
+    public synchronized void clear() {
+        strong.clear();
+        soft.clear();
+        missing.clear();
+        strongBytes = 0;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the bytes of the images held strongly
+     */
+    public synchronized long getBytes() {
+        return strongBytes;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the hits on images that had been pushed out of the budget
+     */
+    public long getSoftHitCount() {
+        return softHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private synchronized BufferedImage cached(Key key) {
+        BufferedImage result = strong.get(key);
+        if(result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+        SoftReference<BufferedImage> ref = soft.remove(key);
+        result = ref == null ? null : ref.get();
+        if(result != null) {
+            softHits.incrementAndGet();
+            put(key, result);
+        }
+        return result;
+    }
+
+    private synchronized boolean isMissing(Key key) {
+        return missing.contains(key);
+    }
+
+    private synchronized void putMissing(Key key) {
+        missing.add(key);
+    }
+
+    private synchronized void put(Key key, BufferedImage image) {
+        BufferedImage old = strong.put(key, image);
+        if(old != null)
+            strongBytes -= bytesOf(old);
+        strongBytes += bytesOf(image);
+        Iterator<Map.Entry<Key, BufferedImage>> i = strong.entrySet().iterator();
+        while(strongBytes > maxBytes && i.hasNext()) {
+            Map.Entry<Key, BufferedImage> eldest = i.next();
+            if(eldest.getKey().equals(key) && strong.size() > 1)
+                continue;
+            i.remove();
+            strongBytes -= bytesOf(eldest.getValue());
+            soft.put(eldest.getKey(), new SoftReference<BufferedImage>(eldest.getValue()));
+        }
+        // drop the references the collector has cleared
+        for(Iterator<SoftReference<BufferedImage>> s = soft.values().iterator(); s.hasNext(); ) {
+            if(s.next().get() == null)
+                s.remove();
+        }
+    }
+
+    /**
+     * @param execute false to leave running the decode to the caller
+     */
+    private Decode decode(final Key key, boolean execute) {
+        Decode result = decoding.get(key);
+        if(result != null)
+            return result;
+        Decode created = new Decode(new Callable<BufferedImage>() {
+            public BufferedImage call() {
+                try {
+                    BufferedImage image = read(key);
+                    if(image != null)
+                        put(key, image);
+                    else
+                        putMissing(key);
+                    return image;
+                } finally {
+                    decoding.remove(key);
+                }
+            }
+        });
+        result = decoding.putIfAbsent(key, created);
+        if(result != null)
+            return result;
+        misses.incrementAndGet();
+        if(execute)
+            decoder.execute(created);
+        return created;
+    }
+
+    private BufferedImage read(Key key) {
+        try {
+            if(key.scale != 1) {
+                URL variant = find(variantPath(key.path, key.scale));
+                if(variant != null)
+                    return ImageIO.read(variant);
+                // the base image goes through the cache: other scales need it too.
+                // Running its decode here, or finding it running, never
+                // waits for a decoding thread that may be waiting itself.
+                BufferedImage base = cached(new Key(key.path, 1));
+                if(base == null) {
+                    Decode decode = decode(new Key(key.path, 1), false);
+                    decode.run();
+                    base = await(decode);
+                }
+                return base == null ? null : scale(base, key.scale);
+            }
+            URL url = find(key.path);
+            if(url == null) {
+                LOG.warn("no image " + key.path);
+                return null;
+            }
+            BufferedImage result = ImageIO.read(url);
+            if(result == null)
+                LOG.warn("can't decode image " + key.path);
+            return result;
+        } catch (IOException e) {
+            LOG.warn("can't read image " + key, e);
+            return null;
+        }
+    }
+
+    private static URL find(String path) {
+        String resource = path.startsWith("/") ? path.substring(1) : path;
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        URL result = loader == null ? null : loader.getResource(resource);
+        if(result == null)
+            result = ImageCache.class.getClassLoader().getResource(resource);
+        if(result == null && new File(path).isFile()) {
+            try {
+                result = new File(path).toURI().toURL();
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 'icons/open.png' at 2 is 'icons/open@2x.png', at 1.5 'icons/open@1.5x.png'
+     */
+    static String variantPath(String path, double scale) {
+        String suffix = "@" + (scale == Math.rint(scale) ? String.valueOf((long)scale) : String.valueOf(scale)) + "x";
+        int dot = path.lastIndexOf('.');
+        if(dot <= path.lastIndexOf('/'))
+            return path + suffix;
+        return path.substring(0, dot) + suffix + path.substring(dot);
+    }
+
+    private static BufferedImage scale(BufferedImage base, double scale) {
+        int width = Math.max(1, (int)Math.round(base.getWidth() * scale));
+        int height = Math.max(1, (int)Math.round(base.getHeight() * scale));
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = result.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(base, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return result;
+    }
+
+    private static long bytesOf(BufferedImage image) {
+        return (long)image.getWidth() * image.getHeight() * 4;
+    }
+
+    private static <T> T await(Future<T> future) {
+        boolean interrupted = false;
+        try {
+            while(true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            LOG.warn("image decoding failed", e.getCause());
+            return null;
+        } finally {
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Receives an image loaded with {@link ImageCache#load(String, double, Callback)}.
+     */
+    public interface Callback {
+
+        /**
+         * Called on the EDT.
+         *
+         * @param image The image, or null if it can't be loaded
+         */
+        public void imageLoaded(String path, double scale, Image image);
+    }
+
+    static final class Key {
+        final String path;
+        final double scale;
+
+        Key(String path, double scale) {
+            if(path == null || !(scale > 0))
+                throw new IllegalArgumentException("bad image " + path + " at " + scale);
+            this.path = path;
+            this.scale = scale;
+        }
+
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(scale);
+            return 31 * path.hashCode() + (int)(bits ^ (bits >>> 32));
+        }
+
+        public boolean equals(Object o) {
+            if(!(o instanceof Key))
+                return false;
+            Key k = (Key)o;
+            return k.scale == scale && k.path.equals(path);
+        }
+
+        public String toString() {
+            return path + "@" + scale;
+        }
+    }
+
+    static final class Decoded implements Callable<BufferedImage> {
+        final BufferedImage image;
+
+        Decoded(BufferedImage image) {
+            this.image = image;
+        }
+
+        public BufferedImage call() {
+            return image;
+        }
+    }
+
+    /**
+     * A decode that runs tasks on the EDT once done.
+     */
+    static final class Decode extends FutureTask<BufferedImage> {
+        private List<Runnable> whenDone = new ArrayList<Runnable>();
+
+        Decode(Callable<BufferedImage> decode) {
+            super(decode);
+        }
+
+        void whenDone(Runnable task) {
+            synchronized(this) {
+                if(whenDone != null) {
+                    whenDone.add(task);
+                    return;
+                }
+            }
+            SwingUtilities.invokeLater(task);
+        }
+
+        protected void done() {
+            List<Runnable> tasks;
+            synchronized(this) {
+                tasks = whenDone;
+                whenDone = null;
+            }
+            for(Runnable task : tasks)
+                SwingUtilities.invokeLater(task);
+        }
+    }
+}
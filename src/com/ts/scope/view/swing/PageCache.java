@@ -0,0 +1,252 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.SwingUtilities;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * The pages of a paged model: an LRU of loaded pages, at most a few fetches
+ * in flight on the background executor, and the pages asked for meanwhile,
+ * most recent first so fast scrolling fetches what is on screen now. A page
+ * that fails to fetch isn't asked for again until a delay has passed, which
+ * doubles with each failure; refresh forgets the failures. </P> <P>
+ *
+ * All state is owned by the EDT: fetch results are handed back with
+ * invokeLater, so nothing here ever waits. </P>
+ *
+ * @author daibheid
+ */
+final class PageCache<T> {
+
+    private static final Log LOG = LogFactory.getLog(PageCache.class);
+
+    private static final long FIRST_RETRY_MILLIS = 1000;
+    private static final long MAX_RETRY_MILLIS = 60000;
+
+    private static ExecutorService sharedExecutor;
+
+    interface Listener {
+        void sizeChanged(int oldSize, int newSize);
+
+        void rowsLoaded(int first, int last);
+    }
+
+    private final PageSource<T> source;
+    private final int pageSize;
+    private final int maxPages;
+    private final int maxInFlight;
+    private final Executor executor;
+    private final Listener listener;
+
+    private final Map<Integer, List<T>> pages;
+    // the pages of this generation being fetched
+    private final Set<Integer> inFlight = new HashSet<Integer>();
+    private final Deque<Integer> wanted = new ArrayDeque<Integer>();
+    private final Map<Integer, Failure> failures = new HashMap<Integer, Failure>();
+
+    // fetches of any generation not yet finished, held to maxInFlight
+    private int running;
+
+    private int size;
+    private int generation;
+
+    PageCache(PageSource<T> source, int pageSize, final int maxPages, int maxInFlight, Executor executor, Listener listener) {
+        if(source == null)
+            throw new IllegalArgumentException("a paged model needs a PageSource");
+        if(pageSize < 1 || maxPages < 1 || maxInFlight < 1)
+            throw new IllegalArgumentException("bad page size " + pageSize + ", page count " + maxPages + " or fetch count " + maxInFlight);
+        this.source = source;
+        this.pageSize = pageSize;
+        this.maxPages = maxPages;
+        this.maxInFlight = maxInFlight;
+        this.executor = executor == null ? getSharedExecutor() : executor;
+        this.listener = listener;
+        pages = new LinkedHashMap<Integer, List<T>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    /**
+     * A small daemon pool shared by paged models that don't bring their own.
+     */
+    static synchronized ExecutorService getSharedExecutor() {
+        if(sharedExecutor == null) {
+            sharedExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+                private int count;
+
+                public Thread newThread(Runnable r) {
+                    Thread result = new Thread(r, "PageCache-" + (++count));
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+        }
+        return sharedExecutor;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    int getLoadedPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Get a row, asking for its page if it isn't loaded.
+     *
+     * @return the row, or null if not loaded yet
+     */
+    T get(int row) {
+        Integer page = Integer.valueOf(row / pageSize);
+        List<T> rows = pages.get(page);
+        if(rows == null) {
+            request(page);
+            return null;
+        }
+        int index = row % pageSize;
+        return index < rows.size() ? rows.get(index) : null;
+    }
+
+    boolean isLoaded(int row) {
+        return pages.containsKey(Integer.valueOf(row / pageSize));
+    }
+
+    /**
+     * Forget every page and the size and fetch the size again.
+     */
+    void refresh() {
+        final int fetchGeneration = ++generation;
+        pages.clear();
+        wanted.clear();
+        inFlight.clear();
+        failures.clear();
+        executor.execute(new Runnable() {
+            public void run() {
+                int result;
+                try {
+                    result = source.getSize();
+                } catch (Exception e) {
+                    LOG.warn("can't get the size of " + source, e);
+                    return;
+                }
+                final int newSize = result;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if(fetchGeneration != generation)
+                            return;
+                        int oldSize = size;
+                        size = newSize;
+                        listener.sizeChanged(oldSize, newSize);
+                    }
+                });
+            }
+        });
+    }
+
+    private void request(Integer page) {
+        if(inFlight.contains(page) || isBackingOff(page))
+            return;
+        if(running >= maxInFlight) {
+            wanted.remove(page);
+            wanted.addFirst(page);
+            while(wanted.size() > maxPages)
+                wanted.removeLast();
+            return;
+        }
+        fetch(page);
+    }
+
+    private void fetch(final Integer page) {
+        final int fetchGeneration = generation;
+        inFlight.add(page);
+        ++running;
+        executor.execute(new Runnable() {
+            public void run() {
+                List<T> result = null;
+                try {
+                    result = source.fetch(page.intValue() * pageSize, pageSize);
+                } catch (Exception e) {
+                    LOG.warn("can't fetch page " + page + " of " + source, e);
+                }
+                final List<T> rows = result;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        loaded(fetchGeneration, page, rows);
+                    }
+                });
+            }
+        });
+    }
+
+    private void loaded(int fetchGeneration, Integer page, List<T> rows) {
+        --running;
+        if(fetchGeneration == generation) {
+            inFlight.remove(page);
+            if(rows == null) {
+                Failure failure = failures.get(page);
+                if(failure == null)
+                    failures.put(page, failure = new Failure());
+                failure.failed();
+            } else {
+                failures.remove(page);
+                pages.put(page, rows);
+                int first = page.intValue() * pageSize;
+                int last = Math.min(first + pageSize, size) - 1;
+                if(last >= first)
+                    listener.rowsLoaded(first, last);
+            }
+        }
+        // a stale fetch frees its slot too
+        while(running < maxInFlight && !wanted.isEmpty()) {
+            Integer next = wanted.removeFirst();
+            if(!pages.containsKey(next) && !inFlight.contains(next) && !isBackingOff(next))
+                fetch(next);
+        }
+    }
+
+    private boolean isBackingOff(Integer page) {
+        Failure failure = failures.get(page);
+        return failure != null && System.currentTimeMillis() < failure.retryMillis;
+    }
+
+    /**
+     * The failed fetches of a page, and when it may be fetched again.
+     */
+    static final class Failure {
+        int count;
+        long retryMillis;
+
+        void failed() {
+            long delay = Math.min(MAX_RETRY_MILLIS, FIRST_RETRY_MILLIS << Math.min(count, 16));
+            ++count;
+            retryMillis = System.currentTimeMillis() + delay;
+        }
+    }
+}
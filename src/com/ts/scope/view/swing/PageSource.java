@@ -0,0 +1,25 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import java.util.List;
+
+/**
+ * Supplies the rows of a {@link PagedListModel} or {@link PagedTableModel}.
+ * Both methods are called on a background thread, never on the EDT.
+ *
+ * @author daibheid
+ */
+public interface PageSource<T> {
+
+    public int getSize() throws Exception;
+
+    /**
+     * @return up to count rows starting at offset
+     */
+    public List<T> fetch(int offset, int count) throws Exception;
+}
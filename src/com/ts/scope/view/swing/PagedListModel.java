@@ -0,0 +1,90 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import java.util.concurrent.Executor;
+import javax.swing.AbstractListModel;
+
+/**
+ * <P>
+ *
+ * A ListModel over a {@link PageSource} too big to load: pages are fetched on
+ * a background executor as the list asks for rows, and only the most
+ * recently used ones are kept. Rows not loaded yet read as the placeholder.
+ * </P> <P>
+ *
+ * Set it as a controller's model and give it to the JList; like any Swing
+ * model it must only be used on the EDT. </P>
+ *
+ * @author daibheid
+ */
+public class PagedListModel<T> extends AbstractListModel {
+
+    public static final int DEFAULT_PAGE_SIZE = 200;
+
+    public static final int DEFAULT_MAX_PAGES = 50;
+
+    public static final int DEFAULT_MAX_FETCHES = 2;
+
+    public static final String DEFAULT_PLACEHOLDER = "...";
+
+    private final PageCache<T> cache;
+
+    private Object placeholder = DEFAULT_PLACEHOLDER;
+
+    public PagedListModel(PageSource<T> source) {
+        this(source, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES, null);
+    }
+
+    /**
+     * @param maxPages The number of pages kept in memory
+     * @param executor Runs the fetches, or null for a shared daemon pool
+     */
+    public PagedListModel(PageSource<T> source, int pageSize, int maxPages, Executor executor) {
+        cache = new PageCache<T>(source, pageSize, maxPages, DEFAULT_MAX_FETCHES, executor, new PageCache.Listener() {
+            public void sizeChanged(int oldSize, int newSize) {
+                if(oldSize > 0)
+                    fireIntervalRemoved(PagedListModel.this, 0, oldSize - 1);
+                if(newSize > 0)
+                    fireIntervalAdded(PagedListModel.this, 0, newSize - 1);
+            }
+
+            public void rowsLoaded(int first, int last) {
+                fireContentsChanged(PagedListModel.this, first, last);
+            }
+        });
+        cache.refresh();
+    }
+
+    public int getSize() {
+        return cache.getSize();
+    }
+
+    public Object getElementAt(int index) {
+        T row = cache.get(index);
+        return row == null && !cache.isLoaded(index) ? placeholder : row;
+    }
+
+    public boolean isLoaded(int index) {
+        return cache.isLoaded(index);
+    }
+
+    public Object getPlaceholder() {
+        return placeholder;
+    }
+
+    public void setPlaceholder(Object value) {
+        placeholder = value;
+    }
+
+    /**
+     * Drop every page and fetch the size again, e.g. after the data changed.
+     */
+    public void refresh() {
+        cache.refresh();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import java.util.concurrent.Executor;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * <P>
+ *
+ * A TableModel over a {@link PageSource} too big to load, paged like
+ * {@link PagedListModel}. Every cell of a row that isn't loaded yet reads as
+ * the placeholder, so columns are all of class Object. </P>
+ *
+ * @author daibheid
+ */
+public class PagedTableModel<T> extends AbstractTableModel {
+
+    /**
+     * Gets the cells of a loaded row.
+     */
+    public interface RowMapper<T> {
+        public Object getValueAt(T row, int column);
+    }
+
+    private final PageCache<T> cache;
+
+    private final String[] columnNames;
+
+    private final RowMapper<T> mapper;
+
+    private Object placeholder = PagedListModel.DEFAULT_PLACEHOLDER;
+
+    public PagedTableModel(PageSource<T> source, String[] columnNames, RowMapper<T> mapper) {
+        this(source, columnNames, mapper, PagedListModel.DEFAULT_PAGE_SIZE, PagedListModel.DEFAULT_MAX_PAGES, null);
+    }
+
+    /**
+     * @param maxPages The number of pages kept in memory
+     * @param executor Runs the fetches, or null for a shared daemon pool
+     */
+    public PagedTableModel(PageSource<T> source, String[] columnNames, RowMapper<T> mapper,
+            int pageSize, int maxPages, Executor executor) {
+        if(columnNames == null || mapper == null)
+            throw new IllegalArgumentException("a paged table needs column names and a RowMapper");
+        this.columnNames = columnNames.clone();
+        this.mapper = mapper;
+        cache = new PageCache<T>(source, pageSize, maxPages, PagedListModel.DEFAULT_MAX_FETCHES, executor, new PageCache.Listener() {
+            public void sizeChanged(int oldSize, int newSize) {
+                fireTableDataChanged();
+            }
+
+            public void rowsLoaded(int first, int last) {
+                fireTableRowsUpdated(first, last);
+            }
+        });
+        cache.refresh();
+    }
+
+    public int getRowCount() {
+        return cache.getSize();
+    }
+
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        T row = cache.get(rowIndex);
+        if(row == null)
+            return cache.isLoaded(rowIndex) ? null : placeholder;
+        return mapper.getValueAt(row, columnIndex);
+    }
+
+    /**
+     * @return the row object, or null if it isn't loaded yet
+     */
+    public T getRow(int rowIndex) {
+        return cache.get(rowIndex);
+    }
+
+    public boolean isRowLoaded(int rowIndex) {
+        return cache.isLoaded(rowIndex);
+    }
+
+    public Object getPlaceholder() {
+        return placeholder;
+    }
+
+    public void setPlaceholder(Object value) {
+        placeholder = value;
+    }
+
+    public void refresh() {
+        cache.refresh();
+    }
+}
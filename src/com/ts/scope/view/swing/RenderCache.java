@@ -0,0 +1,261 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import com.ts.scope.util.ScopeConfig;
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * <P>
+ *
+ * Snapshots of what views paint in {@link SwingView#paintView}, so a view
+ * whose model rarely changes is drawn once and then copied on every expose.
+ * A snapshot is painted again when the view's bound model fires a change,
+ * when the view is resized or when {@link SwingView#invalidateRenderCache} is
+ * called. </P> <P>
+ *
+ * Snapshots are kept in VolatileImages where the screen allows it, and in
+ * BufferedImages otherwise. The snapshots of all views share a byte budget;
+ * when a new one doesn't fit, the least recently painted ones are dropped
+ * and their views paint again the next time they are exposed. A view larger
+ * than the whole budget is never cached. The cache is used on the event
+ * dispatch thread only. </P>
+ *
+ * @author daibheid
+ * @see SwingView#setRenderCached
+ */
+public final class RenderCache {
+
+    /**
+     * The property in ScopeConfig for the bytes of snapshots the default
+     * cache holds on to. Default: 32MB
+     */
+    public static final String MAX_BYTES_PROPERTY = "org.scopemvc.view.swing.RenderCache.max_bytes";
+
+    public static final int DEFAULT_MAX_BYTES = 32 << 20;
+
+    private static RenderCache defaultCache;
+
+    private final long maxBytes;
+
+    // access ordered: the eldest is the least recently painted
+    private final LinkedHashMap<Entry, Boolean> entries = new LinkedHashMap<Entry, Boolean>(16, 0.75f, true);
+
+    private long bytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public RenderCache(long maxBytes) {
+        if(maxBytes < 0)
+            throw new IllegalArgumentException("bad budget " + maxBytes);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache shared by the framework, with the budget configured
+     *      in ScopeConfig
+     */
+    public static synchronized RenderCache getDefault() {
+        if(defaultCache == null) {
+            Integer max = ScopeConfig.getInteger(MAX_BYTES_PROPERTY);
+            defaultCache = new RenderCache(max == null ? DEFAULT_MAX_BYTES : max.intValue());
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Drop every snapshot; the views paint again when exposed.
+     */
+    public void clear() {
+        while(!entries.isEmpty())
+            entries.keySet().iterator().next().release();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the bytes of the snapshots held
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return the paints served from a snapshot
+     */
+    public long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the paints that had to paint the view
+     */
+    public long getMissCount() {
+        return misses;
+    }
+
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    Entry createEntry(SwingView view) {
+        return new Entry(view);
+    }
+
+    private void trim(Entry keep) {
+        for(Iterator<Entry> i = entries.keySet().iterator(); bytes > maxBytes && i.hasNext(); ) {
+            Entry eldest = i.next();
+            if(eldest == keep)
+                continue;
+            i.remove();
+            eldest.flush();
+            ++evictions;
+        }
+    }
+
+    /**
+     * The snapshot of one view.
+     */
+    final class Entry {
+        private final SwingView view;
+        private Image image;
+        private int width;
+        private int height;
+        private long size;
+        private volatile boolean valid;
+
+        Entry(SwingView view) {
+            this.view = view;
+        }
+
+        /**
+         * Paint the snapshot again the next time it is exposed; may be
+         * called from any thread.
+         */
+        void invalidate() {
+            valid = false;
+        }
+
+        /**
+         * Drop the snapshot and its share of the budget.
+         */
+        void release() {
+            if(image != null) {
+                entries.remove(this);
+                flush();
+            }
+        }
+
+        void paint(Graphics g) {
+            int w = view.getWidth();
+            int h = view.getHeight();
+            if(w <= 0 || h <= 0)
+                return;
+            if(4L * w * h > maxBytes) {
+                release();
+                paintDirect(g);
+                return;
+            }
+            if(image != null && (w != width || h != height))
+                release();
+            GraphicsConfiguration gc = view.getGraphicsConfiguration();
+            if(image == null)
+                create(gc, w, h);
+            else
+                entries.get(this);
+
+            if(image instanceof VolatileImage) {
+                VolatileImage volatileImage = (VolatileImage)image;
+                do {
+                    int status = volatileImage.validate(gc);
+                    if(status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                        release();
+                        create(gc, w, h);
+                        volatileImage = (VolatileImage)image;
+                    } else if(status == VolatileImage.IMAGE_RESTORED) {
+                        valid = false;
+                    }
+                    render();
+                    g.drawImage(volatileImage, 0, 0, null);
+                } while(volatileImage.contentsLost());
+            } else {
+                render();
+                g.drawImage(image, 0, 0, null);
+            }
+        }
+
+        private void create(GraphicsConfiguration gc, int w, int h) {
+            if(gc != null && !GraphicsEnvironment.isHeadless())
+                image = gc.createCompatibleVolatileImage(w, h, Transparency.TRANSLUCENT);
+            if(image == null)
+                image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+            width = w;
+            height = h;
+            size = 4L * w * h;
+            valid = false;
+            entries.put(this, Boolean.TRUE);
+            bytes += size;
+            trim(this);
+        }
+
+        private void render() {
+            if(valid) {
+                ++hits;
+                return;
+            }
+            ++misses;
+            // set first: a change while painting makes the next paint redo it
+            valid = true;
+            Graphics2D ig = (Graphics2D)image.getGraphics();
+            try {
+                ig.setComposite(AlphaComposite.Clear);
+                ig.fillRect(0, 0, width, height);
+                ig.setComposite(AlphaComposite.SrcOver);
+                ig.setFont(view.getFont());
+                ig.setColor(view.getForeground());
+                view.paintView(ig);
+            } finally {
+                ig.dispose();
+            }
+        }
+
+        private void paintDirect(Graphics g) {
+            Graphics2D g2 = (Graphics2D)g.create();
+            try {
+                view.paintView(g2);
+            } finally {
+                g2.dispose();
+            }
+        }
+
+        private void flush() {
+            bytes -= size;
+            size = 0;
+            image.flush();
+            image = null;
+            valid = false;
+        }
+    }
+}
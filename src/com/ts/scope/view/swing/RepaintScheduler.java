@@ -0,0 +1,258 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import com.ts.scope.util.ScopeConfig;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+/**
+ * <P>
+ *
+ * Collects repaint requests for views bound to models that change faster
+ * than a screen can show, and passes them on to Swing at most once per
+ * frame. Requests for a view are merged into one dirty region until its
+ * next frame; a view that isn't showing when its frame comes gets no
+ * repaint, as Swing paints it in full when it shows again. </P> <P>
+ *
+ * The frame cap is the Scope property
+ * 'org.scopemvc.view.swing.RepaintScheduler.max_fps'. A view whose paint
+ * is slow is held to a longer frame of its own, so its painting takes at
+ * most half of the event dispatch thread: the frame is stretched to twice
+ * its {@link SwingView#getPaintCostNanos paint cost}. Requests may come
+ * from any thread. </P>
+ *
+ * @author daibheid
+ * @see SwingView#scheduleRepaint
+ */
+public final class RepaintScheduler {
+
+    /**
+     * The property in ScopeConfig for the most repaints per second of a
+     * view. Default: 60
+     */
+    public static final String MAX_FPS_PROPERTY = "org.scopemvc.view.swing.RepaintScheduler.max_fps";
+
+    public static final int DEFAULT_MAX_FPS = 60;
+
+    // a view's frame is at least this many times its paint cost
+    private static final int PAINT_SHARE = 2;
+
+    private static RepaintScheduler defaultScheduler;
+
+    private static ScheduledExecutorService timer;
+
+    private final long frameNanos;
+
+    // guarded by this; no reference to the view, so views can go
+    private final Map<SwingView, State> states = new WeakHashMap<SwingView, State>();
+
+    // guarded by this
+    private final Map<SwingView, State> pending = new IdentityHashMap<SwingView, State>();
+
+    // guarded by this; when the earliest flush is due, or none
+    private long flushNanos = Long.MAX_VALUE;
+
+    private long requests;
+    private long repaints;
+    private long dropped;
+
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            flush();
+        }
+    };
+
+    private final Runnable edtFlushTask = new Runnable() {
+        public void run() {
+            SwingUtilities.invokeLater(flushTask);
+        }
+    };
+
+    public RepaintScheduler(int maxFps) {
+        if(maxFps <= 0)
+            throw new IllegalArgumentException("bad frame cap " + maxFps);
+        this.frameNanos = TimeUnit.SECONDS.toNanos(1) / maxFps;
+    }
+
+    /**
+     * @return the scheduler shared by the framework, with the frame cap
+     *      configured in ScopeConfig
+     */
+    public static synchronized RepaintScheduler getDefault() {
+        if(defaultScheduler == null) {
+            Integer max = ScopeConfig.getInteger(MAX_FPS_PROPERTY);
+            defaultScheduler = new RepaintScheduler(max == null ? DEFAULT_MAX_FPS : max.intValue());
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Repaint the whole view at its next frame.
+     */
+    public void schedule(SwingView view) {
+        schedule(view, null);
+    }
+
+    /**
+     * Repaint a region of the view at its next frame.
+     *
+     * @param region In the view's coordinates; null for the whole view
+     */
+    public void schedule(SwingView view, Rectangle region) {
+        if(view == null)
+            throw new IllegalArgumentException("no view to repaint");
+        long delay;
+        synchronized(this) {
+            ++requests;
+            State state = states.get(view);
+            if(state == null) {
+                state = new State();
+                states.put(view, state);
+            }
+            if(state.all || region == null) {
+                state.all = true;
+                state.dirty = null;
+            } else if(state.dirty == null) {
+                state.dirty = new Rectangle(region);
+            } else {
+                state.dirty.add(region);
+            }
+            pending.put(view, state);
+            long now = System.nanoTime();
+            long due = Math.max(now, state.nextNanos);
+            if(due >= flushNanos)
+                return;
+            // a later flush already scheduled finds nothing due and returns
+            flushNanos = due;
+            delay = due - now;
+        }
+        scheduleFlush(delay);
+    }
+
+    public long getFrameNanos() {
+        return frameNanos;
+    }
+
+    /**
+     * @return the repaints asked for, merged or not
+     */
+    public synchronized long getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * @return the repaints passed on to Swing
+     */
+    public synchronized long getRepaintCount() {
+        return repaints;
+    }
+
+    /**
+     * @return the repaints dropped because the view wasn't showing
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * @return the views waiting for their frame
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Pass on the repaints whose frame has come; on the EDT.
+     */
+    private void flush() {
+        List<SwingView> views = new ArrayList<SwingView>();
+        List<Rectangle> regions = new ArrayList<Rectangle>();
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+        boolean reschedule;
+        synchronized(this) {
+            // this is the scheduled flush, or one superseded by an earlier one
+            if(flushNanos <= now)
+                flushNanos = Long.MAX_VALUE;
+            for(Iterator<Map.Entry<SwingView, State>> i = pending.entrySet().iterator(); i.hasNext(); ) {
+                Map.Entry<SwingView, State> e = i.next();
+                SwingView view = e.getKey();
+                State state = e.getValue();
+                if(state.nextNanos > now) {
+                    next = Math.min(next, state.nextNanos);
+                    continue;
+                }
+                i.remove();
+                if(view.isShowing()) {
+                    views.add(view);
+                    regions.add(state.all ? null : state.dirty);
+                    state.nextNanos = now + Math.max(frameNanos, PAINT_SHARE * view.getPaintCostNanos());
+                    ++repaints;
+                } else {
+                    // still one frame, or hidden views would flush on every request
+                    state.nextNanos = now + frameNanos;
+                    ++dropped;
+                }
+                state.all = false;
+                state.dirty = null;
+            }
+            reschedule = next < flushNanos;
+            if(reschedule)
+                flushNanos = next;
+        }
+        for(int i = 0; i < views.size(); ++i) {
+            Rectangle region = regions.get(i);
+            if(region == null)
+                views.get(i).repaint();
+            else
+                views.get(i).repaint(region);
+        }
+        if(reschedule)
+            scheduleFlush(Math.max(0, next - now));
+    }
+
+    private void scheduleFlush(long delayNanos) {
+        if(delayNanos == 0)
+            SwingUtilities.invokeLater(flushTask);
+        else
+            getTimer().schedule(edtFlushTask, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService getTimer() {
+        if(timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread result = new Thread(r, "RepaintScheduler");
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+        }
+        return timer;
+    }
+
+    /**
+     * The dirty region and frame of one view.
+     */
+    static final class State {
+        // the whole view is dirty
+        boolean all;
+        Rectangle dirty;
+        long nextNanos;
+    }
+}
@@ -5,11 +5,16 @@
 
 package com.ts.scope.view.swing;
 
+import com.ts.common.AbstractBean;
 import com.ts.scope.controller.ViewContext;
 import com.ts.scope.controller.swing.SwingContext;
 import com.ts.scope.core.Controller;
 import com.ts.scope.core.View;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import javax.swing.JMenuBar;
 import javax.swing.JPanel;
 
@@ -38,6 +43,24 @@ public class SwingView<M, C extends Controller> extends JPanel implements View<M
     
     private C controller;
     
+    // set while the render cache is on
+    private RenderCache.Entry renderCache;
+    
+    // the model the render cache follows
+    private Object renderedModel;
+    
+    private final PropertyChangeListener renderedModelListener = new PropertyChangeListener() {
+        public void propertyChange(PropertyChangeEvent event) {
+            invalidateRenderCache();
+            scheduleRepaint();
+        }
+    };
+    
+    // moving average of paint, in nanoseconds
+    private volatile long paintCostNanos;
+    
+    private volatile long paintCount;
+    
     public SwingView() {
         if(ViewContext.getViewContext() == null) {
             ViewContext.setGlobalContext(new SwingContext());
@@ -103,5 +126,118 @@ public class SwingView<M, C extends Controller> extends JPanel implements View<M
     public void setMenuBar(JMenuBar value) {
         firePropertyChange("menuBar", menuBar, menuBar = value);
     }
-} 
-
+    
+    public boolean isRenderCached() {
+        return renderCache != null;
+    }
+    
+    /**
+     * Keep what {@link #paintView} paints in a snapshot of the shared
+     * {@link RenderCache}, painted again only when the bound model changes
+     * or the view is resized. Children are painted over it as usual.
+     */
+    public void setRenderCached(boolean value) {
+        boolean old = isRenderCached();
+        if(value == old)
+            return;
+        if(value) {
+            renderCache = RenderCache.getDefault().createEntry(this);
+        } else {
+            renderCache.release();
+            renderCache = null;
+            followModel(null);
+        }
+        repaint();
+        firePropertyChange("renderCached", old, value);
+    }
+    
+    /**
+     * Paint the render cache again at the next expose, for changes the bound
+     * model doesn't fire. May be called from any thread.
+     */
+    public void invalidateRenderCache() {
+        RenderCache.Entry entry = renderCache;
+        if(entry != null)
+            entry.invalidate();
+    }
+    
+    /**
+     * Paint the view's own content, over its background and under its
+     * children. Views with heavy painting override this rather than
+     * paintComponent so they can be render cached.
+     */
+    protected void paintView(Graphics2D g) {
+    }
+    
+    /**
+     * Repaint at the view's next frame of the {@link RepaintScheduler},
+     * merged with the other requests until then. For views bound to models
+     * that change many times a second; may be called from any thread.
+     */
+    public void scheduleRepaint() {
+        RepaintScheduler.getDefault().schedule(this);
+    }
+    
+    public void scheduleRepaint(int x, int y, int width, int height) {
+        RepaintScheduler.getDefault().schedule(this, new Rectangle(x, y, width, height));
+    }
+    
+    /**
+     * @return the moving average time of a paint of the view, children
+     *      included, in nanoseconds; 0 until it is painted
+     */
+    public long getPaintCostNanos() {
+        return paintCostNanos;
+    }
+    
+    public long getPaintCount() {
+        return paintCount;
+    }
+    
+    public void paint(Graphics g) {
+        long start = System.nanoTime();
+        try {
+            super.paint(g);
+        } finally {
+            long cost = System.nanoTime() - start;
+            long average = paintCostNanos;
+            // weigh the last eight paints or so
+            paintCostNanos = average == 0 ? cost : average + (cost - average) / 8;
+            ++paintCount;
+        }
+    }
+    
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if(renderCache == null) {
+            Graphics2D g2 = (Graphics2D)g.create();
+            try {
+                paintView(g2);
+            } finally {
+                g2.dispose();
+            }
+            return;
+        }
+        Object model = controller == null ? null : controller.getModel();
+        if(model != renderedModel)
+            followModel(model);
+        renderCache.paint(g);
+    }
+    
+    public void removeNotify() {
+        super.removeNotify();
+        if(renderCache != null) {
+            renderCache.release();
+            followModel(null);
+        }
+    }
+    
+    private void followModel(Object model) {
+        if(renderedModel instanceof AbstractBean)
+            ((AbstractBean)renderedModel).removePropertyChangeListener(renderedModelListener);
+        renderedModel = model;
+        if(model instanceof AbstractBean)
+            ((AbstractBean)model).addPropertyChangeListener(renderedModelListener);
+        invalidateRenderCache();
+    }
+}
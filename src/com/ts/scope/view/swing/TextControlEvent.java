@@ -0,0 +1,46 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import java.awt.event.ActionEvent;
+import javax.swing.text.JTextComponent;
+
+/**
+ * The control fired by a {@link TextControlTrigger}. The action command is
+ * the control id. A handler running a slow query off the EDT checks
+ * {@link #isSuperseded} to abandon it once the user has typed on.
+ *
+ * @author daibheid
+ */
+public class TextControlEvent extends ActionEvent {
+
+    private final transient TextControlTrigger trigger;
+    private final String text;
+    private final long generation;
+
+    TextControlEvent(JTextComponent source, String controlId, String text, TextControlTrigger trigger, long generation) {
+        super(source, ACTION_PERFORMED, controlId);
+        this.trigger = trigger;
+        this.text = text;
+        this.generation = generation;
+    }
+
+    /**
+     * @return the text when the control fired, or null for a password field
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return true once the component has fired a later control or its text
+     *      has changed since. Safe to call from any thread.
+     */
+    public boolean isSuperseded() {
+        return trigger.getGeneration() != generation;
+    }
+}
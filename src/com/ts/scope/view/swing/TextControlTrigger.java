@@ -0,0 +1,271 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import com.ts.scope.util.ScopeConfig;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.FocusListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.JPasswordField;
+import javax.swing.JTextField;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+
+/**
+ * <P>
+ *
+ * Fires a control from a text component as its {@link ControlSettings} say:
+ * on Enter, on losing the focus, or as the user types, debounced or
+ * throttled. </P> <P>
+ *
+ * Every edit and every control fired supersedes the controls fired before,
+ * which {@link TextControlEvent#isSuperseded} reports to their handlers. An
+ * Enter or a lost focus fires at once and drops the control still waiting
+ * for its window. Listeners are called on the EDT. </P>
+ *
+ * @author daibheid
+ */
+public class TextControlTrigger {
+
+    public static final String DEFAULT_TEXTFIELD_SETTINGS = "onEnter,onLostFocus";
+
+    public static final String DEFAULT_TEXTAREA_SETTINGS = "onLostFocus";
+
+    private final JTextComponent component;
+    private final String controlId;
+    private final ControlSettings settings;
+
+    private final CopyOnWriteArrayList<ActionListener> listeners = new CopyOnWriteArrayList<ActionListener>();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Timer timer;
+
+    private boolean waiting;
+
+    private String lastFired;
+
+    private Document document;
+
+    private final DocumentListener documentListener = new DocumentListener() {
+        public void insertUpdate(DocumentEvent e) {
+            edited();
+        }
+
+        public void removeUpdate(DocumentEvent e) {
+            edited();
+        }
+
+        public void changedUpdate(DocumentEvent e) {
+            // attributes only
+        }
+    };
+
+    private final PropertyChangeListener documentSwap = new PropertyChangeListener() {
+        public void propertyChange(PropertyChangeEvent event) {
+            listenTo((Document)event.getNewValue());
+        }
+    };
+
+    private final ActionListener enterListener = new ActionListener() {
+        public void actionPerformed(ActionEvent e) {
+            fireNow();
+        }
+    };
+
+    private final FocusListener focusListener = new FocusAdapter() {
+        public void focusLost(FocusEvent e) {
+            if(!e.isTemporary())
+                fireNow();
+        }
+    };
+
+    /**
+     * Fire controls with the settings configured in ScopeConfig for the kind
+     * of component.
+     */
+    public TextControlTrigger(JTextComponent component, String controlId) {
+        this(component, controlId, defaultSettings(component));
+    }
+
+    public TextControlTrigger(JTextComponent component, String controlId, ControlSettings settings) {
+        if(component == null || settings == null)
+            throw new IllegalArgumentException("a trigger needs a component and settings");
+        this.component = component;
+        this.controlId = controlId;
+        this.settings = settings;
+        timer = new Timer(Math.max(1, settings.getWindowMillis()), new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                windowClosed();
+            }
+        });
+        timer.setRepeats(settings.getMode() == ControlSettings.THROTTLE);
+        lastFired = currentText();
+    }
+
+    /**
+     * The settings of STextField, SPasswordField or STextArea, by the class
+     * of the component.
+     */
+    public static ControlSettings defaultSettings(JTextComponent component) {
+        if(component instanceof JPasswordField)
+            return ControlSettings.forProperty(ScopeConfig.SPASSWORDFIELD_CONTROL_SETTINGS_PROPERTY, DEFAULT_TEXTFIELD_SETTINGS);
+        if(component instanceof JTextField)
+            return ControlSettings.forProperty(ScopeConfig.STEXTFIELD_CONTROL_SETTINGS_PROPERTY, DEFAULT_TEXTFIELD_SETTINGS);
+        return ControlSettings.forProperty(ScopeConfig.STEXTAREA_CONTROL_SETTINGS_PROPERTY, DEFAULT_TEXTAREA_SETTINGS);
+    }
+
+    /**
+     * Start listening to the component. EDT only.
+     */
+    public void install() {
+        if(settings.isOnChange()) {
+            component.addPropertyChangeListener("document", documentSwap);
+            listenTo(component.getDocument());
+        }
+        if(settings.isOnEnter() && component instanceof JTextField)
+            ((JTextField)component).addActionListener(enterListener);
+        if(settings.isOnLostFocus())
+            component.addFocusListener(focusListener);
+    }
+
+    /**
+     * Stop listening and drop the waiting control. EDT only.
+     */
+    public void uninstall() {
+        component.removePropertyChangeListener("document", documentSwap);
+        listenTo(null);
+        if(component instanceof JTextField)
+            ((JTextField)component).removeActionListener(enterListener);
+        component.removeFocusListener(focusListener);
+        cancel();
+    }
+
+    public void addActionListener(ActionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeActionListener(ActionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Drop the control waiting for its window, if any, and supersede those
+     * already fired.
+     */
+    public void cancel() {
+        timer.stop();
+        waiting = false;
+        generation.incrementAndGet();
+    }
+
+    public JTextComponent getComponent() {
+        return component;
+    }
+
+    public String getControlId() {
+        return controlId;
+    }
+
+    public ControlSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return true while an edit waits for its window to fire
+     */
+    public boolean isWaiting() {
+        return waiting;
+    }
+
+    long getGeneration() {
+        return generation.get();
+    }
+
+    private void listenTo(Document value) {
+        if(document != null)
+            document.removeDocumentListener(documentListener);
+        document = value;
+        if(document != null)
+            document.addDocumentListener(documentListener);
+    }
+
+    private void edited() {
+        generation.incrementAndGet();
+        switch(settings.getMode()) {
+            case ControlSettings.DEBOUNCE:
+                // a leading edge only fires after a pause of a whole window
+                if(settings.isLeading() && !timer.isRunning()) {
+                    fire();
+                } else {
+                    waiting = true;
+                }
+                timer.restart();
+                break;
+            case ControlSettings.THROTTLE:
+                if(timer.isRunning()) {
+                    waiting = true;
+                } else {
+                    if(settings.isLeading())
+                        fire();
+                    else
+                        waiting = true;
+                    timer.start();
+                }
+                break;
+            default:
+                fire();
+        }
+    }
+
+    private void windowClosed() {
+        if(waiting && settings.isTrailing()) {
+            waiting = false;
+            fire();
+        } else {
+            // a quiet throttle window ends the burst
+            waiting = false;
+            timer.stop();
+        }
+    }
+
+    private void fireNow() {
+        timer.stop();
+        waiting = false;
+        fire();
+    }
+
+    private void fire() {
+        String text = currentText();
+        if(settings.isOnlyOnChange() && (text == null ? lastFired == null : text.equals(lastFired)))
+            return;
+        lastFired = text;
+        TextControlEvent event = new TextControlEvent(component, controlId,
+                component instanceof JPasswordField ? null : text, this, generation.incrementAndGet());
+        for(ActionListener l : listeners)
+            l.actionPerformed(event);
+    }
+
+    private String currentText() {
+        Document d = component.getDocument();
+        try {
+            return d == null ? null : d.getText(0, d.getLength());
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import com.ts.common.AbstractBean;
+import com.ts.common.PropertyAccessor;
+import java.beans.IndexedPropertyChangeEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.SwingUtilities;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * Validates the properties of watched beans as they change, off the EDT.
+ * A change only triggers the validators registered for that property. The
+ * run waits for the edits to pause for the debounce delay, so a burst of
+ * keystrokes is validated once, and validations of different properties run
+ * in parallel on a shared pool. Validators get the value the property had
+ * when it changed, read on the thread that changed it, so they never see
+ * the bean halfway through another edit. </P> <P>
+ *
+ * Each change supersedes the pending or running validation of its property:
+ * a run that hasn't started is cancelled, and the result of one that has is
+ * discarded. Results are handed to the listeners on the EDT in batches, and
+ * only when a property's message actually changes. </P>
+ *
+ * @author daibheid
+ * @see ValidationHelper
+ */
+public class ValidationEngine {
+
+    public static final int DEFAULT_DEBOUNCE_MILLIS = 250;
+
+    private static final Log LOG = LogFactory.getLog(ValidationEngine.class);
+
+    private static ScheduledExecutorService sharedPool;
+
+    private final int debounceMillis;
+
+    private final ScheduledExecutorService pool;
+
+    private final ConcurrentMap<String, List<Validator>> validators = new ConcurrentHashMap<String, List<Validator>>();
+
+    private final ConcurrentMap<AbstractBean, Boolean> watched = new ConcurrentHashMap<AbstractBean, Boolean>();
+
+    private final ConcurrentMap<Key, Slot> slots = new ConcurrentHashMap<Key, Slot>();
+
+    private final ConcurrentLinkedQueue<ValidationResult> results = new ConcurrentLinkedQueue<ValidationResult>();
+
+    private final AtomicBoolean publishScheduled = new AtomicBoolean();
+
+    private final List<ValidationListener> listeners = new CopyOnWriteArrayList<ValidationListener>();
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+
+    private final PropertyChangeListener changeListener = new PropertyChangeListener() {
+        public void propertyChange(PropertyChangeEvent event) {
+            AbstractBean bean = (AbstractBean)event.getSource();
+            String property = event.getPropertyName();
+            if(property == null)
+                validateAll(bean, debounceMillis);
+            else if(!validators.containsKey(property))
+                return;
+            else if(event instanceof IndexedPropertyChangeEvent)
+                // the event only has the element: take the whole value
+                schedule(bean, property, read(bean, property), debounceMillis);
+            else
+                schedule(bean, property, event.getNewValue(), debounceMillis);
+        }
+    };
+
+    private final Runnable publishTask = new Runnable() {
+        public void run() {
+            publish();
+        }
+    };
+
+    public ValidationEngine() {
+        this(DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    public ValidationEngine(int debounceMillis) {
+        this(debounceMillis, getSharedPool());
+    }
+
+    /**
+     * @param pool Runs the validations; the engine doesn't shut it down
+     */
+    public ValidationEngine(int debounceMillis, ScheduledExecutorService pool) {
+        if(debounceMillis < 0 || pool == null)
+            throw new IllegalArgumentException("bad debounce " + debounceMillis + "ms or no pool");
+        this.debounceMillis = debounceMillis;
+        this.pool = pool;
+    }
+
+    /**
+     * @return a daemon pool with a thread per processor, shared by engines
+     *      created without one
+     */
+    public static synchronized ScheduledExecutorService getSharedPool() {
+        if(sharedPool == null) {
+            final AtomicInteger count = new AtomicInteger();
+            sharedPool = new ScheduledThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread result = new Thread(r, "ValidationEngine-" + count.incrementAndGet());
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+            // superseded runs are cancelled by the dozen while typing
+            ((ScheduledThreadPoolExecutor)sharedPool).setRemoveOnCancelPolicy(true);
+        }
+        return sharedPool;
+    }
+
+    public void addValidator(String property, Validator validator) {
+        if(property == null || validator == null)
+            throw new IllegalArgumentException("a validator needs a property");
+        List<Validator> list = validators.get(property);
+        if(list == null) {
+            List<Validator> created = new CopyOnWriteArrayList<Validator>();
+            list = validators.putIfAbsent(property, created);
+            if(list == null)
+                list = created;
+        }
+        list.add(validator);
+    }
+
+    public void removeValidator(String property, Validator validator) {
+        List<Validator> list = validators.get(property);
+        if(list != null)
+            list.remove(validator);
+    }
+
+    public void addValidationListener(ValidationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeValidationListener(ValidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Validate a bean's properties as they change.
+     */
+    public void watch(AbstractBean bean) {
+        if(watched.putIfAbsent(bean, Boolean.TRUE) == null)
+            bean.addPropertyChangeListener(changeListener);
+    }
+
+    /**
+     * Stop watching a bean and cancel its pending validations. Its last
+     * results stay until {@link #forget}.
+     */
+    public void unwatch(AbstractBean bean) {
+        if(watched.remove(bean) == null)
+            return;
+        bean.removePropertyChangeListener(changeListener);
+        for(Map.Entry<Key, Slot> e : slots.entrySet()) {
+            if(e.getKey().bean == bean)
+                e.getValue().cancel();
+        }
+    }
+
+    /**
+     * Drop every result about a bean.
+     */
+    public void forget(AbstractBean bean) {
+        unwatch(bean);
+        for(Key key : slots.keySet()) {
+            if(key.bean == bean)
+                slots.remove(key);
+        }
+    }
+
+    /**
+     * Validate every property of a bean that has validators, without
+     * waiting, for instance before saving.
+     */
+    public void validateAll(AbstractBean bean) {
+        validateAll(bean, 0);
+    }
+
+    /**
+     * @return the message of the last published result, or null if the
+     *      property is valid or wasn't validated yet
+     */
+    public String getMessage(AbstractBean bean, String property) {
+        Slot slot = slots.get(new Key(bean, property));
+        return slot == null ? null : slot.message;
+    }
+
+    /**
+     * @return false if any published result about the bean is an error
+     */
+    public boolean isValid(AbstractBean bean) {
+        for(Map.Entry<Key, Slot> e : slots.entrySet()) {
+            if(e.getKey().bean == bean && e.getValue().message != null)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true while a validation is waiting, running or unpublished
+     */
+    public boolean isBusy() {
+        for(Slot slot : slots.values()) {
+            if(slot.published < slot.generation.get())
+                return true;
+        }
+        return false;
+    }
+
+    public int getDebounceMillis() {
+        return debounceMillis;
+    }
+
+    public long getRunCount() {
+        return runs.get();
+    }
+
+    /**
+     * @return validations cancelled or discarded because the property changed again
+     */
+    public long getSupersededCount() {
+        return superseded.get();
+    }
+
+    private void validateAll(AbstractBean bean, int delay) {
+        for(String property : validators.keySet())
+            schedule(bean, property, read(bean, property), delay);
+    }
+
+    /**
+     * @return the value of the property, or null if it can't be read, eg. a
+     *      rule about several properties registered under a name of its own
+     */
+    private static Object read(AbstractBean bean, String property) {
+        try {
+            return PropertyAccessor.forProperty(bean.getClass(), property).get(bean);
+        } catch (RuntimeException e) {
+            LOG.debug("can't read " + property + " of " + bean.getClass().getName(), e);
+            return null;
+        }
+    }
+
+    private void schedule(final AbstractBean bean, final String property, final Object value, int delay) {
+        final Slot slot = slot(bean, property);
+        final long generation;
+        synchronized(slot) {
+            slot.supersede();
+            generation = slot.generation.incrementAndGet();
+            slot.pending = pool.schedule(new Runnable() {
+                public void run() {
+                    validate(slot, bean, property, value, generation);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void validate(Slot slot, AbstractBean bean, String property, Object value, long generation) {
+        if(slot.generation.get() != generation)
+            return;
+        runs.incrementAndGet();
+        String message = null;
+        List<Validator> list = validators.get(property);
+        if(list != null) {
+            for(Validator v : list) {
+                try {
+                    message = v.validate(bean, property, value);
+                } catch (RuntimeException e) {
+                    LOG.error("validator " + v + " of " + property + " failed", e);
+                    message = String.valueOf(e.getMessage());
+                }
+                if(message != null || slot.generation.get() != generation)
+                    break;
+            }
+        }
+        if(slot.generation.get() != generation) {
+            superseded.incrementAndGet();
+            return;
+        }
+        results.offer(new ValidationResult(bean, property, message, generation));
+        if(publishScheduled.compareAndSet(false, true))
+            SwingUtilities.invokeLater(publishTask);
+    }
+
+    /**
+     * On the EDT: hand every current result that changes something to the
+     * listeners at once.
+     */
+    private void publish() {
+        publishScheduled.set(false);
+        Map<Slot, ValidationResult> batch = new LinkedHashMap<Slot, ValidationResult>();
+        ValidationResult r;
+        while((r = results.poll()) != null) {
+            Slot slot = slots.get(new Key(r.getBean(), r.getProperty()));
+            if(slot == null || !slot.publish(r.generation)) {
+                superseded.incrementAndGet();
+                continue;
+            }
+            String old = slot.message;
+            slot.message = r.getMessage();
+            if(old == null ? r.getMessage() != null : !old.equals(r.getMessage()))
+                batch.put(slot, r);
+            else
+                batch.remove(slot);
+        }
+        if(batch.isEmpty())
+            return;
+        List<ValidationResult> published = new ArrayList<ValidationResult>(batch.values());
+        for(ValidationListener l : listeners)
+            l.validated(published);
+    }
+
+    private Slot slot(AbstractBean bean, String property) {
+        Key key = new Key(bean, property);
+        Slot result = slots.get(key);
+        if(result == null) {
+            Slot created = new Slot();
+            result = slots.putIfAbsent(key, created);
+            if(result == null)
+                result = created;
+        }
+        return result;
+    }
+
+    /**
+     * The validation state of one property of one bean.
+     */
+    final class Slot {
+        final AtomicLong generation = new AtomicLong();
+        ScheduledFuture<?> pending;
+        // written under the slot's lock
+        volatile long published;
+        // written on the EDT only
+        volatile String message;
+
+        /**
+         * Cancel the pending run, if it hasn't started. A running one sees
+         * the generation move on and discards its result.
+         */
+        synchronized void supersede() {
+            if(pending != null && pending.cancel(false))
+                superseded.incrementAndGet();
+            pending = null;
+        }
+
+        /**
+         * Supersede the pending or running validation without a new one, so
+         * the slot isn't busy any more; its message stays.
+         */
+        synchronized void cancel() {
+            supersede();
+            published = generation.incrementAndGet();
+        }
+
+        /**
+         * Mark a result published, unless the generation moved on meanwhile.
+         */
+        synchronized boolean publish(long resultGeneration) {
+            if(resultGeneration != generation.get())
+                return false;
+            published = resultGeneration;
+            return true;
+        }
+    }
+
+    static final class Key {
+        final AbstractBean bean;
+        final String property;
+
+        Key(AbstractBean bean, String property) {
+            this.bean = bean;
+            this.property = property;
+        }
+
+        public int hashCode() {
+            return 31 * System.identityHashCode(bean) + property.hashCode();
+        }
+
+        public boolean equals(Object o) {
+            if(!(o instanceof Key))
+                return false;
+            Key k = (Key)o;
+            return k.bean == bean && k.property.equals(property);
+        }
+    }
+}
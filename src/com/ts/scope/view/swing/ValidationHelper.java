@@ -0,0 +1,102 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import com.ts.common.AbstractBean;
+import com.ts.scope.util.ScopeConfig;
+import java.awt.Color;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.JComponent;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <P>
+ *
+ * Shows the results of a {@link ValidationEngine} on the components bound to
+ * the validated properties: a component whose property fails gets the
+ * background color of
+ * {@link ScopeConfig#VALIDATIONHELPER_VALIDATION_FAILED_COLOR} and the
+ * message as its tooltip, and gets its own back once the property is valid
+ * again. </P>
+ *
+ * @author daibheid
+ */
+public class ValidationHelper implements ValidationListener {
+
+    private static final Log LOG = LogFactory.getLog(ValidationHelper.class);
+
+    private final Map<ValidationEngine.Key, JComponent> components = new HashMap<ValidationEngine.Key, JComponent>();
+
+    private final Map<JComponent, Appearance> originals = new HashMap<JComponent, Appearance>();
+
+    private final Color failedColor = getFailedColor();
+
+    /**
+     * Show the validation of a property on a component. EDT only.
+     */
+    public void register(AbstractBean bean, String property, JComponent component) {
+        components.put(new ValidationEngine.Key(bean, property), component);
+    }
+
+    public void unregister(AbstractBean bean, String property) {
+        JComponent component = components.remove(new ValidationEngine.Key(bean, property));
+        if(component != null)
+            restore(component);
+    }
+
+    public void validated(List<ValidationResult> results) {
+        for(ValidationResult r : results) {
+            JComponent component = components.get(new ValidationEngine.Key(r.getBean(), r.getProperty()));
+            if(component == null)
+                continue;
+            if(r.isValid()) {
+                restore(component);
+            } else {
+                if(!originals.containsKey(component))
+                    originals.put(component, new Appearance(component));
+                component.setBackground(failedColor);
+                component.setToolTipText(r.getMessage());
+            }
+        }
+    }
+
+    private void restore(JComponent component) {
+        Appearance original = originals.remove(component);
+        if(original != null) {
+            component.setBackground(original.background);
+            component.setToolTipText(original.toolTip);
+        }
+    }
+
+    static Color getFailedColor() {
+        Object value = ScopeConfig.getObject(ScopeConfig.VALIDATIONHELPER_VALIDATION_FAILED_COLOR);
+        if(value instanceof Color)
+            return (Color)value;
+        if(value != null) {
+            try {
+                return new Color(Integer.decode(value.toString().trim()).intValue());
+            } catch (NumberFormatException e) {
+                LOG.warn("bad " + ScopeConfig.VALIDATIONHELPER_VALIDATION_FAILED_COLOR + ": " + value);
+            }
+        }
+        return Color.PINK;
+    }
+
+    static final class Appearance {
+        final Color background;
+        final String toolTip;
+
+        Appearance(JComponent component) {
+            // null if inherited from the parent, which setBackground(null) restores
+            background = component.isBackgroundSet() ? component.getBackground() : null;
+            toolTip = component.getToolTipText();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import java.util.List;
+
+/**
+ * Receives validation results on the EDT, in batches.
+ *
+ * @author daibheid
+ * @see ValidationEngine
+ */
+public interface ValidationListener {
+
+    /**
+     * @param results The results that changed since the last batch, at most
+     *      one per bean and property
+     */
+    public void validated(List<ValidationResult> results);
+}
@@ -0,0 +1,52 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import com.ts.common.AbstractBean;
+
+/**
+ * The outcome of validating one property of one bean.
+ *
+ * @author daibheid
+ */
+public final class ValidationResult {
+
+    private final AbstractBean bean;
+    private final String property;
+    private final String message;
+    final long generation;
+
+    ValidationResult(AbstractBean bean, String property, String message, long generation) {
+        this.bean = bean;
+        this.property = property;
+        this.message = message;
+        this.generation = generation;
+    }
+
+    public AbstractBean getBean() {
+        return bean;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public boolean isValid() {
+        return message == null;
+    }
+
+    /**
+     * @return why the property is invalid, or null
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    public String toString() {
+        return bean.getClass().getName() + "." + property + (message == null ? ": valid" : ": " + message);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.ts.scope.view.swing;
+
+import com.ts.common.AbstractBean;
+
+/**
+ * Checks one property of a bean. Validators run on the threads of a
+ * {@link ValidationEngine}, not the EDT, possibly several at once: they
+ * check the value handed to them, which the bean had when the property
+ * changed, rather than read the bean, and must not change it.
+ *
+ * @author daibheid
+ */
+public interface Validator {
+
+    /**
+     * @param value The value of the property when it changed; null if the
+     *      bean has no readable property of that name
+     * @return null if the property is valid, otherwise a message saying why not
+     */
+    public String validate(AbstractBean bean, String property, Object value);
+}